@@ -17,8 +17,11 @@
 package eu.jpangolin.jtzipi.mymod.fx.control.tree;
 
 import eu.jpangolin.jtzipi.mymod.io.async.IPreloadMemoized;
+import eu.jpangolin.jtzipi.mymod.io.async.IPreloadMemoizedAsync;
 import eu.jpangolin.jtzipi.mymod.node.INode;
 import eu.jpangolin.jtzipi.mymod.node.path.IPathNode;
+import eu.jpangolin.jtzipi.mymod.node.path.PathNodePreloader;
+import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -58,6 +61,11 @@ import java.util.function.Predicate;
  * If we remove some of the sub nodes we created we can cope with
  *
  * </p>
+ * <p>
+ * If the preloader is a {@linkplain IPreloadMemoizedAsync} we do not start a task
+ * waiting for the computation. We chain a continuation on the FX thread instead.
+ * So no pool thread is parked per pending load.
+ * </p>
  *
  *
  * </p>
@@ -76,6 +84,8 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
     // to getter responsiveness
     private static IPreloadMemoized<IPathNode, List<INode<Path>>> PATH_PRELOADER;
     private Task<Void> loadTask;
+    // stage of the sub node loading if the preloader is async
+    private CompletableFuture<List<INode<Path>>> loadStage;
 
     /**
      * C.
@@ -104,7 +114,8 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
 
         // If we have PATH_PRELOADER we
         // start the preloading
-        if ( null != PATH_PRELOADER ) {
+        // A PathNodePreloader is prefetching under a budget when the parent is loaded
+        if ( null != PATH_PRELOADER && !( PATH_PRELOADER instanceof PathNodePreloader ) ) {
             PATH_PRELOADER.put( pathNode );
         }
 
@@ -146,6 +157,11 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
             LOG.info( "Task canceled by user?'{}'", canceled );
 
         }
+        if ( null != loadStage && !loadStage.isDone() ) {
+
+            boolean canceled = loadStage.cancel( true );
+            LOG.info( "Stage canceled by user?'{}'", canceled );
+        }
     }
 
     @Override
@@ -186,6 +202,11 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
             LOG.info( "We have no PATH_PRELOADER. Load sub nodes sync." );
             postLoadSub();
             // -- end loading
+        } else if ( PATH_PRELOADER instanceof IPreloadMemoizedAsync<IPathNode, List<INode<Path>>> asyncPreloader ) {
+
+            // Case 2. with a non-blocking preloader
+            // -> no task, we are called back on the FX thread
+            startStage( asyncPreloader, pathNode );
         } else {
 
             // Case 2. load the sub nodes with a preloader
@@ -245,6 +266,49 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
         NLES.submit( loadTask );
     }
 
+    private void startStage( IPreloadMemoizedAsync<IPathNode, List<INode<Path>>> asyncPreloader, IPathNode pathNode ) {
+        if ( null != loadStage && !loadStage.isDone() ) {
+            throw new IllegalStateException( "Warn! Try to start a new stage while loading!" );
+        }
+
+        CompletableFuture<List<INode<Path>>> stage = asyncPreloader.startAsync( pathNode ).toCompletableFuture();
+        if ( stage.isDone() && !stage.isCompletedExceptionally() ) {
+            // 2.1a) already loaded
+            postLoadSub( stage.join() );
+            return;
+        }
+
+        setNodeState( LoadState.LOADING );
+        loadStage = stage;
+        stage.whenCompleteAsync( ( subNodeL, t ) -> onStageDone( stage, subNodeL, t ), Platform::runLater );
+    }
+
+    private void onStageDone( CompletableFuture<List<INode<Path>>> stage, List<INode<Path>> subNodeL, Throwable t ) {
+
+        if ( stage != loadStage ) {
+            // outdated
+            return;
+        }
+        loadStage = null;
+        if ( null == t ) {
+            postLoadSub( subNodeL );
+            return;
+        }
+
+        final IPathNode pathNode = getValue();
+        if ( t instanceof CancellationException ) {
+            LOG.info( "Load stage cancelled!" );
+            setNodeState( LoadState.CANCELED );
+            // we cancelled our copy only so cancel the computation too
+            if ( PATH_PRELOADER.isMemoized( pathNode ) ) {
+                PATH_PRELOADER.get( pathNode ).cancel( true );
+            }
+        } else {
+            LOG.info( "Load stage failed!", t );
+            setNodeState( LoadState.NOT_LOADED );
+        }
+    }
+
     private void onTaskCancelled( WorkerStateEvent wse, Future<List<INode<Path>>> future ) {
 
         LOG.info( "Load Task cancelled!" );
@@ -271,6 +335,10 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
 
 
     private void postLoadSub() {
+        postLoadSub( getValue().getSubNodes() );
+    }
+
+    private void postLoadSub( List<INode<Path>> memoSubNodeL ) {
 
         //
         // This is the step we call after the computation of sub nodes
@@ -279,6 +347,7 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
         // 1. Set the node state
         // 2. Set task null if was used
         // 3. Set sub nodes
+        // 4. Prefetch
 
 
         // 1.)
@@ -301,8 +370,15 @@ public class CachedPathNodeTreeItem extends AbstractPathNodeTreeItem {
         }
 
         // 3.)
-        List<INode<Path>> subNodeL = getValue().getSubNodes();
+        // the memoized list may belong to a node restored from a snapshot
+        List<INode<Path>> subNodeL = PathNodePreloader.adoptSubNodes( getValue(), memoSubNodeL );
         super.getChildren().setAll( wrap( subNodeL ) );
+
+        // 4.)
+        // prefetch the nodes the user will most likely expand next
+        if ( PATH_PRELOADER instanceof PathNodePreloader pathNodePreloader ) {
+            pathNodePreloader.prefetchAround( getValue(), PathNodePreloader.DEF_PREFETCH_DEPTH, PathNodePreloader.DEF_PREFETCH_NODES );
+        }
     }
 
     /**
@@ -18,6 +18,7 @@ package eu.jpangolin.jtzipi.mymod.fx.service;
 
 
 import eu.jpangolin.jtzipi.mymod.io.async.AbstractBackgroundService;
+import eu.jpangolin.jtzipi.mymod.io.async.BackgroundServiceRegistry;
 import javafx.beans.property.ReadOnlySetProperty;
 import javafx.beans.property.ReadOnlySetWrapper;
 import javafx.collections.FXCollections;
@@ -28,8 +29,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,7 +39,7 @@ import java.util.concurrent.TimeUnit;
  * and so on. Therefore if you want to listen for changes we need a kind of task to check
  * the status of those drives.
  * <br/>
- * This is one idea. We use a scheduled executor service to poll the status.
+ * This is one idea. We use the scheduler of the shared {@link BackgroundServiceRegistry} to poll the status.
  * To inform observers we use the {@link ObservableSet} and {@link ReadOnlySetWrapper} .
  * <br/>
  * Since there is only one FileSystem to watch we use an Enum class.
@@ -52,7 +52,6 @@ public class WinRootPathWatcher extends AbstractBackgroundService {
     public static final long MIN_RATE = 1L;
 
     //
-    private static final ScheduledExecutorService SES = Executors.newSingleThreadScheduledExecutor();
     private static final ObservableSet<Path> ROOT_PATH_SET = FXCollections.observableSet();
     private static final ReadOnlySetWrapper<Path> ROOT_PATH_SW = new ReadOnlySetWrapper<>( ROOT_PATH_SET );
     private static final FileSystem FS = FileSystems.getDefault();
@@ -81,6 +80,8 @@ public class WinRootPathWatcher extends AbstractBackgroundService {
     private final long delay;       // initial delay
     private final long rate;        // time between call
     private final TimeUnit tiun;    // time unit
+    private final BackgroundServiceRegistry registry = BackgroundServiceRegistry.shared();
+    private Future<?> scan;         // scan task
 
     WinRootPathWatcher(long delay, long rate, TimeUnit timeUnit) {
         super("Windows Root Path Watcher");
@@ -122,25 +123,25 @@ public class WinRootPathWatcher extends AbstractBackgroundService {
 
     @Override
     public boolean iStopped() {
-        return SES.isShutdown();
+        return registry.isShutdown();
     }
 
     @Override
     public boolean isRunning() {
-        return iStarted() && !SES.isShutdown();
+        return iStarted() && null != scan && !scan.isDone();
     }
 
     @Override
     protected void startService()  {
 
-        SES.scheduleAtFixedRate( SCAN, delay, rate, tiun );
+        scan = registry.scheduleAtFixedRate( this, SCAN, delay, rate, tiun );
 
     }
 
     @Override
     protected void stopService()  {
 
-        SES.shutdown();
+        scan.cancel( false );
 
     }
 }
@@ -18,10 +18,29 @@ package eu.jpangolin.jtzipi.mymod.io.async;
 
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Abstract Implementation of PreloaderMemoizer.
@@ -31,7 +50,10 @@ import java.util.concurrent.*;
  * <br/>
  * To launch threads we use a ExecutorService.
  * This can be client provided.
- * Default is {@linkplain Executors#newCachedThreadPool()}
+ * Default is a bounded {@linkplain PriorityPreloadExecutor}.
+ * There {@linkplain #put(Object)} is a {@linkplain PreloadPriority#BACKGROUND} computation
+ * and {@linkplain #start(Object)} a {@linkplain PreloadPriority#FOREGROUND} computation.
+ * A foreground request for a queued background computation promotes it.
  * To stop running threads we have two methods.
  * <br/>
  * One with timeout ({@linkplain AbstractPreloadMemo#stop(TimeUnit, long)}
@@ -41,6 +63,39 @@ import java.util.concurrent.*;
  *
  * </p>
  * <p>
+ * A computation may fail or may be cancelled. What happens to those futures
+ * is controlled by a {@linkplain FailurePolicy}. Default is {@linkplain FailurePolicy#EVICT}.
+ * <br/>
+ * A cache hit never returns a failed future whose time to live is expired.
+ * </p>
+ * <p>
+ * The cache is unbounded by default. With {@linkplain #setMaxStrongSize(int)} we keep at most n
+ * futures strong reachable. If there are more the oldest computed values are moved to a
+ * second tier. There they are only soft reachable and the garbage collector may clear them
+ * before it throws an {@linkplain OutOfMemoryError}.
+ * <br/>
+ * A hit in the second tier promotes the value back to the strong cache without computing it again.
+ * </p>
+ * <p>
+ * Hits, misses, loads, load times and evictions are counted in a {@linkplain PreloadMemoStats}
+ * ({@linkplain #getStats()}). Each computation is also a flight recorder event.
+ * </p>
+ * <p>
+ * A {@linkplain IPreloadMemoListener} is told about every key cached or evicted
+ * ({@linkplain #addListener(IPreloadMemoListener)}).
+ * </p>
+ * <p>
+ * The computed values can be written to a snapshot file and read on next start
+ * ({@linkplain #writeSnapshot(Path, IPreloadSnapshotCodec)}, {@linkplain #readSnapshot(Path, IPreloadSnapshotCodec)}).
+ * So the cache is warm immediately. A {@linkplain IPreloadSnapshotCodec} encodes the entries and
+ * drops stale entries on read.
+ * </p>
+ * <p>
+ * Beside the {@linkplain Future} api we offer a {@linkplain CompletionStage} api
+ * ({@linkplain #startAsync(Object)}, {@linkplain #getAsync(Object)}).
+ * So a client does not need to block a thread to be notified.
+ * </p>
+ * <p>
  * We use an {@link ExecutorService} to run the computation.
  * <br/>
  * This was inspired by the great book "Java Concurrency in practice".
@@ -52,14 +107,39 @@ import java.util.concurrent.*;
  * @param <V> value
  * @author jTzipi
  */
-public abstract class AbstractPreloadMemo<K, V> implements IPreloadMemoized<K, V> {
+public abstract class AbstractPreloadMemo<K, V> implements IPreloadMemoizedAsync<K, V> {
 
+    /**
+     * Strong cache size without limit.
+     */
+    public static final int UNBOUNDED = 0;
+    /**
+     * First bytes of a snapshot file.
+     */
+    public static final int SNAPSHOT_MAGIC = 0x4D4D5053;
+    /**
+     * Version of the snapshot format.
+     */
+    public static final int SNAPSHOT_VERSION = 1;
     static final org.slf4j.Logger LOG = LoggerFactory.getLogger( AbstractPreloadMemo.class );
 
     // ExecutorService
     private final ExecutorService exeSe;
     // Cache
     private final ConcurrentMap<K, Future<V>> cMap = new ConcurrentHashMap<>();
+    // What to do with failed computations
+    private volatile FailurePolicy failPol = FailurePolicy.EVICT;
+    // Second tier of values evicted from cache
+    private final ConcurrentMap<K, SoftValue<K, V>> softMap = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> softRefQ = new ReferenceQueue<>();
+    // Keys of computed values in order of completion. Guarded by itself
+    private final Set<K> completedS = new LinkedHashSet<>();
+    // Max size of cache or unbounded
+    private volatile int maxStrong = UNBOUNDED;
+    // Statistic
+    private final PreloadMemoStats stats = new PreloadMemoStats();
+    // Listener of cached and evicted keys
+    private final List<IPreloadMemoListener<? super K>> listenerL = new CopyOnWriteArrayList<>();
 
     /**
      * Constructor.
@@ -68,14 +148,14 @@ public abstract class AbstractPreloadMemo<K, V> implements IPreloadMemoized<K, V
      */
     public AbstractPreloadMemo( ExecutorService executorService ) {
 
-        this.exeSe = null == executorService ? Executors.newCachedThreadPool() : executorService;
+        this.exeSe = null == executorService ? new PriorityPreloadExecutor() : executorService;
     }
 
     /**
      * Default constructor.
      */
     public AbstractPreloadMemo() {
-        this( Executors.newCachedThreadPool() );
+        this( new PriorityPreloadExecutor() );
     }
 
 
@@ -87,6 +167,201 @@ public abstract class AbstractPreloadMemo<K, V> implements IPreloadMemoized<K, V
      */
     protected abstract V compute( final K arg );
 
+    /**
+     * Called when a key is not memoized anymore.
+     * <p>
+     * That is if the key is removed, a failed computation is evicted or a value of the second tier
+     * is cleared by the garbage collector. Not if a value is moved to the second tier.
+     * <br/>
+     * This may be called by a thread of the executor. Default does nothing.
+     * </p>
+     *
+     * @param key key
+     */
+    protected void onEvicted( final K key ) {
+
+    }
+
+    /**
+     * Add a listener of cached and evicted keys.
+     *
+     * @param listener listener
+     * @throws NullPointerException if {@code listener} is null
+     */
+    public void addListener( IPreloadMemoListener<? super K> listener ) {
+        Objects.requireNonNull( listener, "listener is null" );
+        listenerL.add( listener );
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener listener
+     * @return {@code true} if removed
+     */
+    public boolean removeListener( IPreloadMemoListener<? super K> listener ) {
+        return listenerL.remove( listener );
+    }
+
+    /**
+     * Set the policy for failed or cancelled computations.
+     * <p>
+     * The policy is applied to all computations started after this call.
+     * </p>
+     *
+     * @param failurePolicy policy
+     * @throws NullPointerException if {@code failurePolicy} is null
+     */
+    public void setFailurePolicy( FailurePolicy failurePolicy ) {
+        this.failPol = Objects.requireNonNull( failurePolicy, "failure policy is null" );
+    }
+
+    /**
+     * Return the policy for failed or cancelled computations.
+     *
+     * @return failure policy
+     */
+    public FailurePolicy getFailurePolicy() {
+        return failPol;
+    }
+
+
+    /**
+     * Set the max number of futures in cache.
+     * <p>
+     * If there are more futures the oldest computed values are moved to the soft referenced second tier.
+     * Running computations are never moved.
+     * </p>
+     *
+     * @param maxSize max size or {@linkplain #UNBOUNDED} if &le; 0
+     */
+    public void setMaxStrongSize( int maxSize ) {
+        this.maxStrong = Math.max( UNBOUNDED, maxSize );
+        trim();
+    }
+
+    /**
+     * Return the max number of futures in cache.
+     *
+     * @return max size or {@linkplain #UNBOUNDED}
+     */
+    public int getMaxStrongSize() {
+        return maxStrong;
+    }
+
+    /**
+     * Return the number of values in the second tier.
+     * <p>
+     * Values cleared by the garbage collector are not counted.
+     * </p>
+     *
+     * @return number of soft values
+     */
+    public int getSoftSize() {
+        purge();
+        return softMap.size();
+    }
+
+    /**
+     * Return a snapshot of the statistic of this memo.
+     *
+     * @return snapshot
+     */
+    public PreloadMemoStats.Snapshot getStats() {
+        return stats.snapshot( cMap.size() );
+    }
+
+    /**
+     * Reset the statistic of this memo.
+     */
+    public void resetStats() {
+        stats.reset();
+    }
+
+    /**
+     * Write all computed values to a snapshot file.
+     * <p>
+     * Running and failed computations are not written.
+     * The file is gzip compressed and replaced atomically if the file system supports it.
+     * </p>
+     *
+     * @param file  snapshot file
+     * @param codec codec
+     * @return number of entries written
+     * @throws IOException          if writing failed
+     * @throws NullPointerException if {@code file} | {@code codec} is null
+     */
+    public int writeSnapshot( Path file, IPreloadSnapshotCodec<K, V> codec ) throws IOException {
+        Objects.requireNonNull( file, "file is null" );
+        Objects.requireNonNull( codec, "codec is null" );
+
+        Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        int cnt = 0;
+        try ( ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( new GZIPOutputStream( Files.newOutputStream( tmp ) ) ) ) ) {
+            out.writeInt( SNAPSHOT_MAGIC );
+            out.writeInt( SNAPSHOT_VERSION );
+            for ( Map.Entry<K, V> entry : computedEntries() ) {
+                if ( codec.accept( entry.getKey(), entry.getValue() ) ) {
+                    out.writeBoolean( true );
+                    codec.write( out, entry.getKey(), entry.getValue() );
+                    cnt++;
+                }
+            }
+            out.writeBoolean( false );
+        } catch ( IOException | RuntimeException e ) {
+            Files.deleteIfExists( tmp );
+            throw e;
+        }
+        try {
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } catch ( AtomicMoveNotSupportedException amnsE ) {
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING );
+        }
+        LOG.debug( "Wrote {} entries to snapshot '{}'", cnt, file );
+        return cnt;
+    }
+
+    /**
+     * Read a snapshot file and cache all valid entries as computed.
+     * <p>
+     * Keys already cached are not changed.
+     * <br/>
+     * Only classes allowed by the {@linkplain IPreloadSnapshotCodec#filter()} of the codec are deserialized.
+     * </p>
+     *
+     * @param file  snapshot file
+     * @param codec codec
+     * @return number of entries cached
+     * @throws IOException          if reading failed, {@code file} is not a snapshot or contains a class not allowed
+     * @throws NullPointerException if {@code file} | {@code codec} is null
+     */
+    public int readSnapshot( Path file, IPreloadSnapshotCodec<K, V> codec ) throws IOException {
+        Objects.requireNonNull( file, "file is null" );
+        Objects.requireNonNull( codec, "codec is null" );
+
+        int cnt = 0;
+        int stale = 0;
+        try ( ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( new GZIPInputStream( Files.newInputStream( file ) ) ) ) ) {
+            in.setObjectInputFilter( codec.filter() );
+            if ( SNAPSHOT_MAGIC != in.readInt() ) {
+                throw new IOException( "File '" + file + "' is not a snapshot" );
+            }
+            int version = in.readInt();
+            if ( SNAPSHOT_VERSION != version ) {
+                throw new IOException( "Snapshot version[=" + version + "] not supported" );
+            }
+            while ( in.readBoolean() ) {
+                Map.Entry<K, V> entry = codec.read( in );
+                if ( null == entry ) {
+                    stale++;
+                } else if ( putCompleted( entry.getKey(), entry.getValue() ) ) {
+                    cnt++;
+                }
+            }
+        }
+        LOG.debug( "Read {} entries from snapshot '{}'. {} stale", cnt, file, stale );
+        return cnt;
+    }
 
     /**
      * Try to finish all running tasks and shutdown.
@@ -126,23 +401,13 @@ public abstract class AbstractPreloadMemo<K, V> implements IPreloadMemoized<K, V
             throw new IllegalArgumentException( "Null is not allowed" );
         }
 
-        LOG.info( "try to get future for key '" + arg + "'" );
+        if ( null == lookup( arg ) ) {
 
-        // THIS IS THE APPROACH IF WE WANT TO RETURN THE FUTURE
-        // cMap.computeIfAbsent( arg, key -> exeSe.submit( () -> compute( arg ) ) );
-
-        Future<V> f = cMap.get( arg );
-        if ( null == f ) {
-
-            LOG.info( "Start computation for key '{}'", arg );
-            Future<V> old = cMap.putIfAbsent( arg, exeSe.submit( () -> compute( arg ) ) );
-            if ( null == old ) {
-                LOG.info( "Started computation!" );
-            } else {
-                LOG.info( "Other thread already started this" );
-            }
+            LOG.debug( "Start computation for key '{}'", arg );
+            memoize( arg, PreloadPriority.BACKGROUND );
         } else {
-            LOG.warn( "Try to start computation for already known key '{}'", arg );
+            stats.hit();
+            LOG.debug( "Try to start computation for already known key '{}'", arg );
         }
 
     }
@@ -150,10 +415,13 @@ public abstract class AbstractPreloadMemo<K, V> implements IPreloadMemoized<K, V
     @Override
     public Future<V> get( K arg ) {
 
-        if ( !cMap.containsKey( arg ) ) {
+        Future<V> f = lookup( arg );
+        if ( null == f ) {
+            stats.miss();
             throw new IllegalArgumentException( "No value for key[='" + arg + "']!" );
         }
-        return cMap.get( arg );
+        stats.hit();
+        return f;
     }
 
     @Override
@@ -162,49 +430,545 @@ public abstract class AbstractPreloadMemo<K, V> implements IPreloadMemoized<K, V
             throw new IllegalArgumentException( "Null is not allowed" );
         }
 
-        LOG.info( "try to get future for key '" + arg + "'" );
-
+        LOG.debug( "try to get future for key '{}'", arg );
 
-        Future<V> f = cMap.get( arg );
-        if ( null == f ) {
+        return memoize( arg, PreloadPriority.FOREGROUND );
+    }
 
+    @Override
+    public CompletionStage<V> startAsync( K key ) {
 
-            f = cMap.computeIfAbsent( arg, key -> exeSe.submit( () -> compute( arg ) ) );
+        return startAsync( key, PreloadPriority.FOREGROUND );
+    }
 
-        } else {
-            LOG.warn( "Try to start computation for already known key '{}'", arg );
+    /**
+     * Start async computation with a priority if not cached and return the stage of the computation.
+     * <p>
+     * The priority is only used if the executor is a {@linkplain PriorityPreloadExecutor}.
+     * </p>
+     *
+     * @param key      argument
+     * @param priority priority
+     * @return stage completed with the value of the computation
+     * @throws IllegalArgumentException if {@code key} is null
+     * @throws NullPointerException     if {@code priority} is null
+     */
+    public CompletionStage<V> startAsync( K key, PreloadPriority priority ) {
+        if ( null == key ) {
+            throw new IllegalArgumentException( "Null is not allowed" );
         }
+        Objects.requireNonNull( priority, "priority is null" );
 
-        return f;
+        return stageOf( memoize( key, priority ) );
+    }
+
+    @Override
+    public CompletionStage<V> getAsync( K key ) {
+
+        return stageOf( get( key ) );
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A value in the second tier is memoized too. It is not promoted by this query.
+     * </p>
+     */
     @Override
     public final boolean isMemoized( K key ) {
-        return cMap.containsKey( key );
+        Future<V> f = cMap.get( key );
+        if ( null != f ) {
+            return !( f instanceof MemoTask<?, ?> mt && mt.isExpired( System.nanoTime() ) );
+        }
+        SoftValue<K, V> soft = softMap.get( key );
+        return null != soft && null != soft.get();
+    }
+
+    @Override
+    public Set<K> keys() {
+        Set<K> keyS = new HashSet<>( cMap.keySet() );
+        keyS.addAll( softMap.keySet() );
+        return Set.copyOf( keyS );
     }
 
     @Override
     public Future<V> remove( K arg ) {
 
-        if ( !cMap.containsKey( arg ) ) {
+        SoftValue<K, V> soft = softMap.remove( arg );
+        Future<V> f = cMap.remove( arg );
+        forgetCompleted( arg );
+        if ( null != f || null != soft ) {
+            evicted( arg );
+        }
+        if ( null == f && null != soft && null != soft.get() ) {
+            f = CompletableFuture.completedFuture( soft.get() );
+        }
+        if ( null == f ) {
             throw new IllegalArgumentException( "No value for key[='" + arg + "']!" );
         }
-        return cMap.remove( arg );
+        return f;
     }
 
     @Override
     public boolean remove( K key, Future<V> val ) {
         Objects.requireNonNull( key, "key must be non null" );
         Objects.requireNonNull( val, "value must be non null" );
-        return cMap.remove( key, val );
+        boolean removed = cMap.remove( key, val );
+        if ( removed ) {
+            forgetCompleted( key );
+            evicted( key );
+        }
+        return removed;
     }
 
     @Override
     public Collection<Future<V>> removeAll() {
 
-        Collection<Future<V>> val = cMap.values();
+        Collection<Future<V>> val = new ArrayList<>( cMap.values() );
+        Set<K> keyS = keys();
         cMap.clear();
+        softMap.clear();
+        synchronized ( completedS ) {
+            completedS.clear();
+        }
+        keyS.forEach( this::evicted );
         return val;
     }
 
+    /**
+     * Return the cached future for {@code key}.
+     * <p>
+     * A failed future whose time to live is expired is removed and not returned.
+     * </p>
+     *
+     * @param key key
+     * @return future or {@code null} if not cached
+     */
+    private Future<V> lookup( K key ) {
+
+        Future<V> f = cMap.get( key );
+        if ( f instanceof MemoTask<?, ?> mt && mt.isExpired( System.nanoTime() ) ) {
+            LOG.debug( "Failed computation for key '{}' expired", key );
+            if ( cMap.remove( key, f ) ) {
+                stats.eviction();
+                evicted( key );
+            }
+            return null;
+        }
+        if ( null == f && !softMap.isEmpty() ) {
+            f = promote( key );
+        }
+        return f;
+    }
+
+    /**
+     * Move a value from the second tier back to the cache.
+     *
+     * @param key key
+     * @return future of the value or {@code null} if not in second tier or cleared
+     */
+    private Future<V> promote( K key ) {
+
+        purge();
+        SoftValue<K, V> soft = softMap.remove( key );
+        V val = null == soft ? null : soft.get();
+        if ( null == val ) {
+            return null;
+        }
+        LOG.debug( "Promote key '{}' from second tier", key );
+        putCompleted( key, val );
+        return cMap.get( key );
+    }
+
+    /**
+     * Cache a value computed before.
+     *
+     * @param key   key
+     * @param value value
+     * @return {@code true} if cached and {@code false} if the key was cached already
+     */
+    private boolean putCompleted( K key, V value ) {
+        MemoTask<K, V> task = new MemoTask<>( this, key, value );
+        if ( null == cMap.putIfAbsent( key, task ) ) {
+            // completed in this thread
+            task.run();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return all non null values computed normally.
+     *
+     * @return keys and values
+     */
+    private List<Map.Entry<K, V>> computedEntries() {
+        List<Map.Entry<K, V>> entryL = new ArrayList<>();
+        for ( Map.Entry<K, Future<V>> entry : cMap.entrySet() ) {
+            Future<V> f = entry.getValue();
+            if ( f.isDone() && !f.isCancelled() ) {
+                try {
+                    V val = f.get();
+                    if ( null != val ) {
+                        entryL.add( Map.entry( entry.getKey(), val ) );
+                    }
+                } catch ( ExecutionException | InterruptedException e ) {
+                    // failed or interrupted
+                    if ( e instanceof InterruptedException ) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+        for ( SoftValue<K, V> soft : softMap.values() ) {
+            V val = soft.get();
+            if ( null != val ) {
+                entryL.add( Map.entry( soft.key, val ) );
+            }
+        }
+        return entryL;
+    }
+
+    /**
+     * Called when a computation completed normally.
+     * <p>
+     * We are called before the waiting threads are released.
+     * </p>
+     *
+     * @param task task
+     */
+    private void onCompleted( MemoTask<K, V> task ) {
+        if ( UNBOUNDED != maxStrong ) {
+            synchronized ( completedS ) {
+                // a recomputed key is the newest
+                completedS.remove( task.key );
+                completedS.add( task.key );
+            }
+            trim();
+        }
+        for ( IPreloadMemoListener<? super K> listener : listenerL ) {
+            try {
+                listener.onCached( task.key );
+            } catch ( RuntimeException rE ) {
+                // the waiting threads must be released
+                LOG.warn( "Listener failed for cached key '{}'", task.key, rE );
+            }
+        }
+    }
+
+    /**
+     * Called when a key is not memoized anymore.
+     *
+     * @param key key
+     */
+    private void evicted( K key ) {
+        onEvicted( key );
+        for ( IPreloadMemoListener<? super K> listener : listenerL ) {
+            try {
+                listener.onEvicted( key );
+            } catch ( RuntimeException rE ) {
+                LOG.warn( "Listener failed for evicted key '{}'", key, rE );
+            }
+        }
+    }
+
+    private void forgetCompleted( K key ) {
+        synchronized ( completedS ) {
+            completedS.remove( key );
+        }
+    }
+
+    /**
+     * Move the oldest computed values to the second tier until the cache is not larger than allowed.
+     * <p>
+     * Running computations are skipped.
+     * </p>
+     */
+    private void trim() {
+
+        int max = maxStrong;
+        if ( UNBOUNDED == max ) {
+            return;
+        }
+        purge();
+        synchronized ( completedS ) {
+
+            Iterator<K> keyIt = completedS.iterator();
+            while ( cMap.size() > max && keyIt.hasNext() ) {
+
+                K key = keyIt.next();
+                Future<V> f = cMap.get( key );
+                // the key may be removed in the meantime
+                if ( null == f || f.isCancelled() ) {
+                    keyIt.remove();
+                    continue;
+                }
+                if ( !f.isDone() ) {
+                    // the computation calling us or a new one
+                    continue;
+                }
+                try {
+                    V val = f.get();
+                    keyIt.remove();
+                    if ( cMap.remove( key, f ) ) {
+                        stats.eviction();
+                        softMap.put( key, new SoftValue<>( key, val, softRefQ ) );
+                        LOG.debug( "Move key '{}' to second tier", key );
+                    }
+                } catch ( ExecutionException eE ) {
+                    // failed futures are handled by the failure policy
+                    keyIt.remove();
+                } catch ( InterruptedException iE ) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove values cleared by the garbage collector.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void purge() {
+        SoftValue<K, V> ref;
+        while ( null != ( ref = ( SoftValue<K, V> ) softRefQ.poll() ) ) {
+            if ( softMap.remove( ref.key, ref ) ) {
+                stats.eviction();
+                evicted( ref.key );
+            }
+        }
+    }
+
+    /**
+     * Return the cached future for {@code key} or start the computation.
+     * <p>
+     * A foreground request for a cached but queued computation promotes it.
+     * </p>
+     *
+     * @param key      key
+     * @param priority priority
+     * @return future
+     */
+    private Future<V> memoize( K key, PreloadPriority priority ) {
+
+        Future<V> f = lookup( key );
+        if ( null == f ) {
+
+            MemoTask<K, V> task = new MemoTask<>( this, key, failPol );
+            f = cMap.putIfAbsent( key, task );
+            if ( null == f ) {
+                f = task;
+                try {
+                    if ( exeSe instanceof PriorityPreloadExecutor ppe ) {
+                        ppe.execute( task, priority );
+                    } else {
+                        exeSe.execute( task );
+                    }
+                } catch ( RejectedExecutionException reE ) {
+                    cMap.remove( key, task );
+                    throw reE;
+                }
+                stats.miss();
+                return f;
+            }
+            LOG.debug( "Other thread already started computation for key '{}'", key );
+        }
+        stats.hit();
+        if ( PreloadPriority.FOREGROUND == priority && exeSe instanceof PriorityPreloadExecutor ppe && !f.isDone() ) {
+            ppe.promote( ( Runnable ) f );
+        }
+        return f;
+    }
+
+    /**
+     * Return a new stage completed with the result of a cached future.
+     *
+     * @param f future
+     * @return stage
+     */
+    private static <V> CompletionStage<V> stageOf( Future<V> f ) {
+        // we return a copy so a client can not complete or cancel the shared stage
+        return ( ( MemoTask<?, V> ) f ).stage.copy();
+    }
+
+    /**
+     * Compute the value and record the statistic.
+     *
+     * @param key    key
+     * @param policy failure policy
+     * @return value
+     * @throws InterruptedException if interrupted while waiting for the next attempt
+     */
+    private V load( K key, FailurePolicy policy ) throws InterruptedException {
+
+        PreloadLoadEvent evt = new PreloadLoadEvent();
+        evt.begin();
+        stats.loadStarted();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            V val = computeWithRetry( key, policy );
+            failed = false;
+            return val;
+        } finally {
+            stats.loadFinished( System.nanoTime() - start, failed );
+            evt.end();
+            if ( evt.shouldCommit() ) {
+                evt.memo = getClass().getName();
+                evt.key = String.valueOf( key );
+                evt.failed = failed;
+                evt.commit();
+            }
+        }
+    }
+
+    /**
+     * Compute the value and retry if the policy allows it.
+     * <p>
+     * We wait for the next attempt in this thread. So the thread of the executor is busy while waiting.
+     * </p>
+     *
+     * @param key    key
+     * @param policy failure policy
+     * @return value
+     * @throws InterruptedException if interrupted while waiting for the next attempt
+     */
+    private V computeWithRetry( K key, FailurePolicy policy ) throws InterruptedException {
+
+        for ( int attempt = 0; ; attempt++ ) {
+            try {
+                return compute( key );
+            } catch ( RuntimeException rtE ) {
+                if ( attempt >= policy.maxRetries() ) {
+                    throw rtE;
+                }
+                long wait = policy.backoffNanos( attempt );
+                LOG.debug( "Computation for key '{}' failed. Retry in {} ns", key, wait, rtE );
+                TimeUnit.NANOSECONDS.sleep( wait );
+            }
+        }
+    }
+
+    /**
+     * Called when a computation failed or was cancelled.
+     * The future is handled as the policy says.
+     *
+     * @param task task
+     */
+    private void onFailed( MemoTask<K, V> task ) {
+
+        FailurePolicy policy = task.policy;
+        if ( policy.isKeepForever() ) {
+            return;
+        }
+        if ( policy.negativeTtl().isZero() ) {
+            boolean removed = cMap.remove( task.key, task );
+            if ( removed ) {
+                stats.eviction();
+                evicted( task.key );
+            }
+            LOG.debug( "Evict failed computation for key '{}'? {}", task.key, removed );
+        } else {
+            task.expireAt( System.nanoTime() + policy.negativeTtlNanos() );
+        }
+    }
+
+    /**
+     * Soft reference to a value knowing its key.
+     *
+     * @param <K> key
+     * @param <V> value
+     */
+    private static final class SoftValue<K, V> extends SoftReference<V> {
+
+        private final K key;
+
+        private SoftValue( K key, V value, ReferenceQueue<V> refQ ) {
+            super( value, refQ );
+            this.key = key;
+        }
+    }
+
+    /**
+     * Future of one computation.
+     * <p>
+     * We apply the failure policy <u>before</u> waiting threads are released.
+     * So a thread which saw the failure never gets the same failed future
+     * for a new request.
+     * </p>
+     *
+     * @param <K> key
+     * @param <V> value
+     */
+    private static final class MemoTask<K, V> extends FutureTask<V> {
+
+        private final AbstractPreloadMemo<K, V> memo;
+        private final K key;
+        private final FailurePolicy policy;
+        private final CompletableFuture<V> stage = new CompletableFuture<>();
+        private volatile boolean expiring;
+        private volatile long expireNanos;
+
+        private MemoTask( AbstractPreloadMemo<K, V> memo, K key, FailurePolicy policy ) {
+            super( () -> memo.load( key, policy ) );
+            this.memo = memo;
+            this.key = key;
+            this.policy = policy;
+        }
+
+        private MemoTask( AbstractPreloadMemo<K, V> memo, K key, V value ) {
+            super( () -> value );
+            this.memo = memo;
+            this.key = key;
+            this.policy = FailurePolicy.EVICT;
+        }
+
+        private void expireAt( long nanos ) {
+            this.expireNanos = nanos;
+            this.expiring = true;
+        }
+
+        private boolean isExpired( long nowNanos ) {
+            return expiring && nowNanos - expireNanos >= 0L;
+        }
+
+        @Override
+        protected void set( V v ) {
+            memo.onCompleted( this );
+            super.set( v );
+        }
+
+        @Override
+        protected void setException( Throwable t ) {
+            memo.onFailed( this );
+            super.setException( t );
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning ) {
+            boolean cancelled = super.cancel( mayInterruptIfRunning );
+            if ( cancelled ) {
+                memo.onFailed( this );
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            if ( isCancelled() ) {
+                stage.cancel( false );
+                return;
+            }
+            try {
+                stage.complete( get() );
+            } catch ( ExecutionException eE ) {
+                stage.completeExceptionally( eE.getCause() );
+            } catch ( InterruptedException iE ) {
+                // never thrown since we are done
+                Thread.currentThread().interrupt();
+                stage.completeExceptionally( iE );
+            }
+        }
+    }
 }
\ No newline at end of file
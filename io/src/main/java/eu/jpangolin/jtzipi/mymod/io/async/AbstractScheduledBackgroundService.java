@@ -16,52 +16,89 @@
 
 package eu.jpangolin.jtzipi.mymod.io.async;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Background service running one or more periodic tasks.
+ * <p>
+ * The tasks run on the scheduler of a {@linkplain BackgroundServiceRegistry}.
+ * Default is the {@linkplain BackgroundServiceRegistry#shared() shared registry}.
+ * Stopping this service cancels the tasks but never shuts the shared scheduler down.
+ * So the service can be started again.
+ * </p>
+ *
+ * @author jTzipi
+ */
 public abstract class AbstractScheduledBackgroundService extends AbstractBackgroundService {
 
 
     protected long delay;       // initial delay
     protected long rate;        // time between call
     protected TimeUnit tiun;    // time unit
+    private final BackgroundServiceRegistry registry;
+    private final List<Future<?>> taskL = new ArrayList<>();
+
     protected AbstractScheduledBackgroundService(String descStr, long delay, long period, TimeUnit timeUnit) {
+        this(descStr, delay, period, timeUnit, BackgroundServiceRegistry.shared());
+    }
+
+    protected AbstractScheduledBackgroundService(String descStr, long delay, long period, TimeUnit timeUnit, BackgroundServiceRegistry registry) {
         super(descStr);
         this.delay = delay;
         this.rate = period;
         this.tiun = timeUnit;
+        this.registry = Objects.requireNonNull(registry);
     }
 
-    protected abstract ScheduledExecutorService getService();
+    /**
+     * Return the registry running our tasks.
+     * @return registry
+     */
+    protected BackgroundServiceRegistry getRegistry() {
+        return registry;
+    }
 
     /**
      * Start a command with a scheduled executor , delay and a fixed rate.
      * @param cmd runnable
      * @throws NullPointerException if {@code cmd} is null
      */
-    protected void startScheduledServiceFixed(Runnable cmd) {
+    protected synchronized void startScheduledServiceFixed(Runnable cmd) {
         Objects.requireNonNull(cmd);
-        getService().scheduleAtFixedRate(cmd, delay, rate, tiun);
+        taskL.add(registry.scheduleAtFixedRate(this, cmd, delay, rate, tiun));
     }
 
-    protected void startScheduledServiceDelayed(Runnable cmd) {
-        getService().scheduleWithFixedDelay(cmd, delay, rate, tiun);
+    /**
+     * Start a command with a scheduled executor , delay and a fixed delay between two runs.
+     * @param cmd runnable
+     * @throws NullPointerException if {@code cmd} is null
+     */
+    protected synchronized void startScheduledServiceDelayed(Runnable cmd) {
+        Objects.requireNonNull(cmd);
+        taskL.add(registry.scheduleWithFixedDelay(this, cmd, delay, rate, tiun));
     }
+
     @Override
-    public boolean isRunning() {
-        return iStarted() && !getService().isShutdown();
+    public synchronized boolean isRunning() {
+        return iStarted() && taskL.stream().anyMatch(task -> !task.isDone());
     }
 
     @Override
     public boolean iStopped() {
-        return getService().isShutdown();
+        return registry.isShutdown();
     }
 
     @Override
-    protected void stopService()  {
-
-        getService().shutdown();
+    protected synchronized void stopService()  {
 
+        for (Future<?> task : taskL) {
+            task.cancel(false);
+        }
+        taskL.clear();
+        registry.release(this);
     }
 }
@@ -20,12 +20,14 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.*;
 
 /**
  * Abstract Timed Preload Memo.
  * <p>
- *
+ * Hits, misses, loads and expired entries are counted in a {@linkplain PreloadMemoStats}
+ * ({@linkplain #getStats()}).
  * </p>
  *
  * @param <K> key
@@ -39,6 +41,8 @@ public abstract class AbstractTimedPreloadMemo<K, V> implements IPreloadMemoized
     private final ConcurrentMap<K, Future<V>> cMap = new ConcurrentHashMap<>();
     // -- Executor for tasks --
     private final ExecutorService exeSe;
+    // -- Statistic --
+    private final PreloadMemoStats stats = new PreloadMemoStats();
     // -- loop and wait for next expiring entry
     private final Runnable loopy = () -> {
 
@@ -46,9 +50,12 @@ public abstract class AbstractTimedPreloadMemo<K, V> implements IPreloadMemoized
 
             try {
                 TemporalItem<K> tempi = delayQ.take();
-                LOG.info( "Remove key '{}' from delay queue", tempi.key );
+                LOG.debug( "Remove key '{}' from delay queue", tempi.key );
                 boolean removed = cMap.remove( tempi.key, tempi.computation );
-                LOG.info( "and also from cache? {}", removed );
+                if ( removed ) {
+                    stats.eviction();
+                }
+                LOG.debug( "and also from cache? {}", removed );
             } catch ( InterruptedException iE ) {
 
                 Thread.currentThread().interrupt();
@@ -78,30 +85,57 @@ public abstract class AbstractTimedPreloadMemo<K, V> implements IPreloadMemoized
      */
     protected abstract V compute( final K arg );
 
+    /**
+     * Return a snapshot of the statistic of this memo.
+     *
+     * @return snapshot
+     */
+    public PreloadMemoStats.Snapshot getStats() {
+        return stats.snapshot( cMap.size() );
+    }
+
+    private V load( final K key ) {
+        stats.loadStarted();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            V val = compute( key );
+            failed = false;
+            return val;
+        } finally {
+            stats.loadFinished( System.nanoTime() - start, failed );
+        }
+    }
+
     @Override
     public void putForDuration( K key, Duration duration ) {
         Objects.requireNonNull( key, "Null is not allowed" );
         if ( null == duration ) {
             duration = Duration.ZERO;
         }
-        LOG.info( "try to get future for key '{}' with time budget since {}", key, duration );
+        LOG.debug( "try to get future for key '{}' with time budget since {}", key, duration );
 
 
         // THIS IS THE APPROACH IF WE WANT TO RETURN THE FUTURE
         // cMap.computeIfAbsent( arg, key -> exeSe.submit( () -> compute( arg ) ) );
 
         Future<V> f = cMap.get( key );
-        LOG.info( "Look for existing entry for key -> '{}'", f );
+        LOG.debug( "Look for existing entry for key -> '{}'", f );
 
         if ( null == f ) {
 
 
-            LOG.info( "Start computation for key '{}'", key );
+            LOG.debug( "Start computation for key '{}'", key );
 
             //
             // If comp is null this thread is the first thread who start the computation
             //
-            Future<V> comp = cMap.putIfAbsent( key, exeSe.submit( () -> compute( key ) ) );
+            Future<V> comp = cMap.putIfAbsent( key, exeSe.submit( () -> load( key ) ) );
+            if ( null == comp ) {
+                stats.miss();
+            } else {
+                stats.hit();
+            }
             if ( null == comp && duration != Duration.ZERO ) {
 
                 //
@@ -111,18 +145,24 @@ public abstract class AbstractTimedPreloadMemo<K, V> implements IPreloadMemoized
                 // another thread remove the entry previously added to out cache
                 // but this should be no problem in practice
                 TemporalItem<K> tempKey = new TemporalItem<>( key, cMap.get( key ), duration );
-                LOG.info( "Put temp key='{}'", tempKey );
+                LOG.debug( "Put temp key='{}'", tempKey );
                 boolean offered = delayQ.offer( tempKey );
-                LOG.info( "done ? {}", offered );
+                LOG.debug( "done ? {}", offered );
                 if ( null == loopThread ) {
                     startWatch();
                 }
             }
         } else {
-            LOG.warn( "Try to start computation for already known key '{}'", key );
+            stats.hit();
+            LOG.debug( "Try to start computation for already known key '{}'", key );
         }
     }
 
+    @Override
+    public Set<K> keys() {
+        return Set.copyOf( cMap.keySet() );
+    }
+
     private record TemporalItem<K>(K key, Future<?> computation, Duration dur) implements Delayed {
         @Override
         public int compareTo( Delayed o ) {
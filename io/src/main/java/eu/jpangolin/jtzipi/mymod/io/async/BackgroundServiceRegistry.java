@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry and shared executors of {@linkplain IBackgroundService}s.
+ * <p>
+ * Instead of a static executor per service all services use the executors of this registry
+ * <ul>
+ *     <li>a bounded scheduled pool for periodic and delayed tasks</li>
+ *     <li>an executor for tasks blocking a thread for a long time like a watch service loop</li>
+ * </ul>
+ * Both use daemon threads. So the thread count stays flat as we add services.
+ * <br/>
+ * HINT: On Java 21 and later the blocking executor should be {@code Executors.newVirtualThreadPerTaskExecutor()}.
+ * Until then we use a cached pool.
+ * </p>
+ * <p>
+ * A service is registered with the services it depends on. Those must be registered before.
+ * So the order of registration is a valid start order and the reverse a valid stop order.
+ * <br/>
+ * Starting a service starts its dependencies first, stopping a service stops its dependents first.
+ * </p>
+ * <p>
+ * Each task submitted via this registry is accounted to its service. The health of a service
+ * ({@linkplain #health(IBackgroundService)}) reports state, runs, failures and the cpu time of its tasks.
+ * <br/>
+ * A service submitting tasks without being registered is tracked implicitly. A later
+ * {@linkplain #register(IBackgroundService, IBackgroundService...)} turns it into a registered service.
+ * An implicit service is removed when it stops ({@linkplain #release(IBackgroundService)}).
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class BackgroundServiceRegistry {
+
+    /**
+     * Default number of threads of the scheduled pool.
+     */
+    public static final int DEF_SCHEDULER_THREADS = 2;
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( BackgroundServiceRegistry.class );
+    private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+    private static final AtomicInteger REGISTRY_NO = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService blocking;
+    // services in order of registration
+    private final Map<IBackgroundService, Entry> entryM = new LinkedHashMap<>();
+
+    /**
+     * Registry with {@linkplain #DEF_SCHEDULER_THREADS} scheduler threads.
+     */
+    public BackgroundServiceRegistry() {
+        this( DEF_SCHEDULER_THREADS );
+    }
+
+    /**
+     * Registry.
+     *
+     * @param schedulerThreads threads of the scheduled pool [1 ..]
+     * @throws IllegalArgumentException if {@code schedulerThreads} &lt; 1
+     */
+    public BackgroundServiceRegistry( int schedulerThreads ) {
+        if ( 1 > schedulerThreads ) {
+            throw new IllegalArgumentException( "scheduler threads[=" + schedulerThreads + "] < 1" );
+        }
+        int no = REGISTRY_NO.incrementAndGet();
+        this.scheduler = new ScheduledThreadPoolExecutor( schedulerThreads, daemonFactory( "bg-sched-" + no ) );
+        this.scheduler.setRemoveOnCancelPolicy( true );
+        this.blocking = Executors.newCachedThreadPool( daemonFactory( "bg-block-" + no ) );
+        if ( THREAD_MX.isCurrentThreadCpuTimeSupported() && !THREAD_MX.isThreadCpuTimeEnabled() ) {
+            THREAD_MX.setThreadCpuTimeEnabled( true );
+        }
+    }
+
+    /**
+     * Return the registry shared by all services of this application.
+     * <p>
+     * All services of this registry are stopped on JVM shutdown.
+     * </p>
+     *
+     * @return shared registry
+     */
+    public static BackgroundServiceRegistry shared() {
+        return SharedHolder.SHARED;
+    }
+
+    private static ThreadFactory daemonFactory( String prefix ) {
+        AtomicInteger thread = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread( r, prefix + "-" + thread.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        };
+    }
+
+    private static long cpuNanos() {
+        return THREAD_MX.isCurrentThreadCpuTimeSupported() ? THREAD_MX.getCurrentThreadCpuTime() : 0L;
+    }
+
+    /**
+     * Register a service.
+     *
+     * @param service   service
+     * @param dependsOn services which must run before {@code service}
+     * @throws NullPointerException     if {@code service} | {@code dependsOn} is null
+     * @throws IllegalArgumentException if a dependency is not registered
+     * @throws IllegalStateException    if {@code service} is already registered with other dependencies
+     */
+    public synchronized void register( IBackgroundService service, IBackgroundService... dependsOn ) {
+        Objects.requireNonNull( service, "service is null" );
+        Objects.requireNonNull( dependsOn, "dependencies are null" );
+
+        List<IBackgroundService> depL = new ArrayList<>();
+        for ( IBackgroundService dep : dependsOn ) {
+            if ( !isRegistered( dep ) ) {
+                throw new IllegalArgumentException( "Dependency '" + dep + "' not registered" );
+            }
+            depL.add( dep );
+        }
+        Entry old = entryM.get( service );
+        if ( null != old && old.implicit ) {
+            // tracked before. Keep the statistic and move it behind its dependencies
+            entryM.remove( service );
+            old.depL = List.copyOf( depL );
+            old.implicit = false;
+            entryM.put( service, old );
+            LOG.debug( "Registered tracked service '{}' depending on {}", service.getDescription(), depL.size() );
+            return;
+        }
+        if ( null != old ) {
+            if ( !old.depL.isEmpty() || !depL.isEmpty() ) {
+                throw new IllegalStateException( "Service '" + service.getDescription() + "' already registered" );
+            }
+            return;
+        }
+        entryM.put( service, new Entry( service, depL ) );
+        LOG.debug( "Registered service '{}' depending on {}", service.getDescription(), depL.size() );
+    }
+
+    /**
+     * Remove a stopped service.
+     *
+     * @param service service
+     * @return {@code true} if removed
+     * @throws IllegalStateException if another service depends on {@code service}
+     */
+    public synchronized boolean unregister( IBackgroundService service ) {
+        if ( !dependentsOf( service ).isEmpty() ) {
+            throw new IllegalStateException( "Other services depend on '" + service.getDescription() + "'" );
+        }
+        return null != entryM.remove( service );
+    }
+
+    /**
+     * Called by a service which stopped.
+     * <p>
+     * A service only tracked because it submitted tasks is removed.
+     * A registered service is kept.
+     * </p>
+     *
+     * @param service service
+     * @return {@code true} if removed
+     */
+    public synchronized boolean release( IBackgroundService service ) {
+        Entry entry = entryM.get( service );
+        if ( null == entry || !entry.implicit ) {
+            return false;
+        }
+        entryM.remove( service );
+        LOG.debug( "Released tracked service '{}'", service.getDescription() );
+        return true;
+    }
+
+    /**
+     * Return whether a service is registered.
+     * <p>
+     * A service tracked implicitly is not registered.
+     * </p>
+     *
+     * @param service service
+     * @return {@code true} if registered
+     */
+    public synchronized boolean isRegistered( IBackgroundService service ) {
+        Entry entry = entryM.get( service );
+        return null != entry && !entry.implicit;
+    }
+
+    /**
+     * Start all registered services in order of dependency.
+     */
+    public synchronized void startAll() {
+        for ( Entry entry : new ArrayList<>( entryM.values() ) ) {
+            if ( !entry.implicit ) {
+                start( entry.service );
+            }
+        }
+    }
+
+    /**
+     * Stop all services in reverse order of dependency.
+     */
+    public synchronized void stopAll() {
+        List<IBackgroundService> serviceL = new ArrayList<>( entryM.keySet() );
+        Collections.reverse( serviceL );
+        for ( IBackgroundService service : serviceL ) {
+            stop( service );
+        }
+    }
+
+    /**
+     * Start a service and all services it depends on.
+     *
+     * @param service registered service
+     * @return {@code true} if the service is running
+     * @throws IllegalArgumentException if {@code service} is not registered
+     */
+    public synchronized boolean start( IBackgroundService service ) {
+        Entry entry = entryOf( service );
+        if ( service.isRunning() ) {
+            return true;
+        }
+        for ( IBackgroundService dep : entry.depL ) {
+            if ( !start( dep ) ) {
+                LOG.warn( "Can not start '{}'. Dependency '{}' is not running", service.getDescription(), dep.getDescription() );
+                entry.startFailed = true;
+                return false;
+            }
+        }
+        service.start();
+        entry.everStarted = true;
+        entry.startFailed = !service.isRunning();
+        return !entry.startFailed;
+    }
+
+    /**
+     * Stop a service and all services depending on it.
+     *
+     * @param service registered service
+     * @throws IllegalArgumentException if {@code service} is not registered
+     */
+    public synchronized void stop( IBackgroundService service ) {
+        entryOf( service );
+        for ( IBackgroundService dependent : dependentsOf( service ) ) {
+            stop( dependent );
+        }
+        if ( service.isRunning() ) {
+            service.stop();
+        }
+    }
+
+    /**
+     * Restart a service.
+     * <p>
+     * Services depending on it are stopped before and started again if they were running.
+     * </p>
+     *
+     * @param service registered service
+     * @return {@code true} if the service is running
+     * @throws IllegalArgumentException if {@code service} is not registered
+     */
+    public synchronized boolean restart( IBackgroundService service ) {
+        entryOf( service );
+        List<IBackgroundService> runningL = new ArrayList<>();
+        for ( IBackgroundService other : entryM.keySet() ) {
+            if ( other != service && other.isRunning() && dependsOn( other, service ) ) {
+                runningL.add( other );
+            }
+        }
+        stop( service );
+        boolean running = start( service );
+        for ( IBackgroundService dependent : runningL ) {
+            start( dependent );
+        }
+        return running;
+    }
+
+    /**
+     * Return the health of a service.
+     *
+     * @param service registered service
+     * @return health
+     * @throws IllegalArgumentException if {@code service} is not registered
+     */
+    public synchronized ServiceHealth health( IBackgroundService service ) {
+        return entryOf( service ).health();
+    }
+
+    /**
+     * Return the health of all services in order of registration.
+     *
+     * @return health of all services
+     */
+    public synchronized List<ServiceHealth> healthAll() {
+        return entryM.values().stream().map( Entry::health ).toList();
+    }
+
+    /**
+     * Schedule a periodic task for a service at fixed rate.
+     *
+     * @param owner  service
+     * @param task   task
+     * @param delay  initial delay
+     * @param period period
+     * @param unit   unit
+     * @return future to cancel the task
+     * @throws NullPointerException if {@code owner} | {@code task} | {@code unit} is null
+     */
+    public Future<?> scheduleAtFixedRate( IBackgroundService owner, Runnable task, long delay, long period, TimeUnit unit ) {
+        return scheduler.scheduleAtFixedRate( track( owner, task ), delay, period, unit );
+    }
+
+    /**
+     * Schedule a periodic task for a service with fixed delay.
+     *
+     * @param owner service
+     * @param task  task
+     * @param delay initial delay
+     * @param wait  delay between the end of a run and the next run
+     * @param unit  unit
+     * @return future to cancel the task
+     * @throws NullPointerException if {@code owner} | {@code task} | {@code unit} is null
+     */
+    public Future<?> scheduleWithFixedDelay( IBackgroundService owner, Runnable task, long delay, long wait, TimeUnit unit ) {
+        return scheduler.scheduleWithFixedDelay( track( owner, task ), delay, wait, unit );
+    }
+
+    /**
+     * Schedule a one shot task for a service.
+     *
+     * @param owner service
+     * @param task  task
+     * @param delay delay
+     * @param unit  unit
+     * @return future to cancel the task
+     * @throws NullPointerException if {@code owner} | {@code task} | {@code unit} is null
+     */
+    public Future<?> schedule( IBackgroundService owner, Runnable task, long delay, TimeUnit unit ) {
+        return scheduler.schedule( track( owner, task ), delay, unit );
+    }
+
+    /**
+     * Submit a task blocking a thread for a long time.
+     *
+     * @param owner service
+     * @param task  task
+     * @return future to cancel the task
+     * @throws NullPointerException if {@code owner} | {@code task} is null
+     */
+    public Future<?> submitBlocking( IBackgroundService owner, Runnable task ) {
+        return blocking.submit( track( owner, task ) );
+    }
+
+    /**
+     * Return the shared scheduler.
+     * <p>
+     * Never shut it down. Tasks scheduled here are not accounted to a service.
+     * </p>
+     *
+     * @return scheduler
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Return whether this registry is shut down.
+     *
+     * @return {@code true} if no more tasks are accepted
+     */
+    public boolean isShutdown() {
+        return scheduler.isShutdown();
+    }
+
+    /**
+     * Stop all services and shut down the executors.
+     */
+    public void shutdown() {
+        stopAll();
+        scheduler.shutdownNow();
+        blocking.shutdownNow();
+    }
+
+    private Runnable track( IBackgroundService owner, Runnable task ) {
+        Objects.requireNonNull( owner, "owner is null" );
+        Objects.requireNonNull( task, "task is null" );
+
+        Entry entry;
+        synchronized ( this ) {
+            entry = entryM.computeIfAbsent( owner, s -> {
+                Entry implicit = new Entry( s, List.of() );
+                implicit.implicit = true;
+                return implicit;
+            } );
+        }
+        return () -> {
+            long cpu = cpuNanos();
+            entry.runs.increment();
+            try {
+                task.run();
+            } catch ( RuntimeException | Error e ) {
+                entry.failures.increment();
+                entry.lastError = e;
+                LOG.warn( "Task of service '{}' failed", owner.getDescription(), e );
+                throw e;
+            } finally {
+                entry.cpuNanos.add( Math.max( 0L, cpuNanos() - cpu ) );
+                entry.lastRun = Instant.now();
+            }
+        };
+    }
+
+    private Entry entryOf( IBackgroundService service ) {
+        Entry entry = entryM.get( service );
+        if ( null == entry ) {
+            throw new IllegalArgumentException( "Service '" + service + "' not registered" );
+        }
+        return entry;
+    }
+
+    private List<IBackgroundService> dependentsOf( IBackgroundService service ) {
+        List<IBackgroundService> depL = new ArrayList<>();
+        for ( Entry entry : entryM.values() ) {
+            if ( entry.depL.contains( service ) ) {
+                depL.add( entry.service );
+            }
+        }
+        return depL;
+    }
+
+    private boolean dependsOn( IBackgroundService service, IBackgroundService other ) {
+        for ( IBackgroundService dep : entryOf( service ).depL ) {
+            if ( dep == other || dependsOn( dep, other ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * State of a service.
+     */
+    public enum State {
+        /**
+         * Never started.
+         */
+        NEW,
+        /**
+         * Running.
+         */
+        RUNNING,
+        /**
+         * Stopped.
+         */
+        STOPPED,
+        /**
+         * Start failed or last task failed.
+         */
+        FAILED
+    }
+
+    /**
+     * Health of a service.
+     *
+     * @param description description of service
+     * @param state       state
+     * @param runs        runs of tasks
+     * @param failures    runs failed
+     * @param cpuTime     cpu time of all tasks
+     * @param lastRun     end of the last run or {@code null}
+     * @param lastError   error of the last failed run or {@code null}
+     */
+    public record ServiceHealth( String description,
+                                 State state,
+                                 long runs,
+                                 long failures,
+                                 Duration cpuTime,
+                                 Instant lastRun,
+                                 Throwable lastError ) {
+
+    }
+
+    private static final class Entry {
+
+        private final IBackgroundService service;
+        private volatile List<IBackgroundService> depL;
+        // tracked by a task but not registered
+        private volatile boolean implicit;
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+        private volatile Instant lastRun;
+        private volatile Throwable lastError;
+        private volatile boolean everStarted;
+        private volatile boolean startFailed;
+
+        private Entry( IBackgroundService service, List<IBackgroundService> depL ) {
+            this.service = service;
+            this.depL = List.copyOf( depL );
+        }
+
+        private ServiceHealth health() {
+            State state;
+            if ( service.isRunning() ) {
+                state = State.RUNNING;
+            } else if ( startFailed || null != lastError ) {
+                state = State.FAILED;
+            } else if ( everStarted || service.iStarted() ) {
+                state = State.STOPPED;
+            } else {
+                state = State.NEW;
+            }
+            return new ServiceHealth( service.getDescription(), state, runs.sum(), failures.sum(),
+                    Duration.ofNanos( cpuNanos.sum() ), lastRun, lastError );
+        }
+    }
+
+    private static final class SharedHolder {
+        private static final BackgroundServiceRegistry SHARED = new BackgroundServiceRegistry();
+
+        static {
+            Runtime.getRuntime().addShutdownHook( new Thread( SHARED::stopAll, "bg-registry-shutdown" ) );
+        }
+    }
+}
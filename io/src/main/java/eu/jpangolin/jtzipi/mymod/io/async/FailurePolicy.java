@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+
+/**
+ * How a preload memo should treat computations which failed or were cancelled.
+ * <p>
+ * A failed future in the cache is not useful for anybody.
+ * <br/>
+ * So we can
+ * <ul>
+ *     <li>evict the future as soon as the computation failed ({@link #EVICT})</li>
+ *     <li>keep the failed future for a short time to avoid hammering a broken resource
+ *     ({@link #negativeCache(Duration)})</li>
+ *     <li>retry the computation with an exponential backoff before we give up ({@link #retry(int, Duration)})</li>
+ *     <li>keep the failed future until somebody removes it, which was the old behavior ({@link #KEEP})</li>
+ * </ul>
+ * This record is immutable.
+ * </p>
+ *
+ * @param maxRetries  number of retries after the first failed attempt [0 .. {@linkplain #MAX_RETRIES}]
+ * @param backoff     initial delay between two attempts. Doubled on every retry
+ * @param negativeTtl time a failed or cancelled future stays in cache. {@link Duration#ZERO} means evict immediately
+ * @author jTzipi
+ */
+public record FailurePolicy( int maxRetries, Duration backoff, Duration negativeTtl ) {
+
+    /**
+     * Maximum retries.
+     */
+    public static final int MAX_RETRIES = 16;
+    /**
+     * Time to live of a failed future which is never evicted.
+     */
+    public static final Duration TTL_FOREVER = ChronoUnit.FOREVER.getDuration();
+    /**
+     * Longest time to live of a failed future which is evicted (about 146 years).
+     * A longer time to live is the same as {@linkplain #TTL_FOREVER}.
+     */
+    public static final long MAX_TTL_NANOS = Long.MAX_VALUE / 2L;
+    /**
+     * Evict failed and cancelled futures immediately.
+     */
+    public static final FailurePolicy EVICT = new FailurePolicy( 0, Duration.ZERO, Duration.ZERO );
+    /**
+     * Keep failed and cancelled futures until they are removed by the client.
+     */
+    public static final FailurePolicy KEEP = new FailurePolicy( 0, Duration.ZERO, TTL_FOREVER );
+
+    /**
+     * Failure Policy.
+     *
+     * @param maxRetries  retries [0 .. {@linkplain #MAX_RETRIES}]
+     * @param backoff     initial backoff. If null or negative we use zero
+     * @param negativeTtl time to keep failures. If null or negative we use zero
+     */
+    public FailurePolicy {
+        if ( 0 > maxRetries || MAX_RETRIES < maxRetries ) {
+            throw new IllegalArgumentException( "maxRetries[=" + maxRetries + "] not in [0 .. " + MAX_RETRIES + "]" );
+        }
+        backoff = null == backoff || backoff.isNegative() ? Duration.ZERO : backoff;
+        negativeTtl = null == negativeTtl || negativeTtl.isNegative() ? Duration.ZERO : negativeTtl;
+    }
+
+    /**
+     * Keep failed futures for a time to live.
+     *
+     * @param ttl time to live of failed futures
+     * @return policy
+     * @throws NullPointerException if {@code ttl} is null
+     */
+    public static FailurePolicy negativeCache( Duration ttl ) {
+        Objects.requireNonNull( ttl, "ttl is null" );
+        return new FailurePolicy( 0, Duration.ZERO, ttl );
+    }
+
+    /**
+     * Retry a failed computation with exponential backoff and evict the future if all attempts failed.
+     * <p>
+     * The backoff is waited on the thread of the computation. So a computation waiting for its next attempt
+     * holds a thread of the executor. Keep the backoff short.
+     * </p>
+     *
+     * @param maxRetries retries [0 .. {@linkplain #MAX_RETRIES}]
+     * @param backoff    delay before the first retry
+     * @return policy
+     * @throws NullPointerException if {@code backoff} is null
+     */
+    public static FailurePolicy retry( int maxRetries, Duration backoff ) {
+        Objects.requireNonNull( backoff, "backoff is null" );
+        return new FailurePolicy( maxRetries, backoff, Duration.ZERO );
+    }
+
+    /**
+     * Return a copy of this policy with another time to live for failures.
+     *
+     * @param ttl time to live of failed futures
+     * @return policy
+     * @throws NullPointerException if {@code ttl} is null
+     */
+    public FailurePolicy withNegativeTtl( Duration ttl ) {
+        Objects.requireNonNull( ttl, "ttl is null" );
+        return new FailurePolicy( maxRetries, backoff, ttl );
+    }
+
+    /**
+     * Return whether failed futures are never evicted.
+     * <p>
+     * A time to live longer than {@linkplain #MAX_TTL_NANOS} can not be measured with {@linkplain System#nanoTime()}.
+     * So it is forever too.
+     * </p>
+     *
+     * @return {@code true} if failures are kept forever
+     */
+    public boolean isKeepForever() {
+        return TTL_FOREVER.equals( negativeTtl ) || negativeTtl.compareTo( Duration.ofNanos( MAX_TTL_NANOS ) ) > 0;
+    }
+
+    /**
+     * Return the time to live of failures.
+     *
+     * @return time to live in nanoseconds. At most {@linkplain #MAX_TTL_NANOS}
+     */
+    long negativeTtlNanos() {
+        return saturatedNanos( negativeTtl, MAX_TTL_NANOS );
+    }
+
+    /**
+     * Return the delay before retry {@code attempt}.
+     *
+     * @param attempt retry attempt starting with 0
+     * @return delay in nanoseconds
+     */
+    long backoffNanos( int attempt ) {
+        long nanos = saturatedNanos( backoff, Long.MAX_VALUE );
+        int shift = Math.min( attempt, MAX_RETRIES );
+        return nanos > Long.MAX_VALUE >> shift ? Long.MAX_VALUE : nanos << shift;
+    }
+
+    private static long saturatedNanos( Duration duration, long max ) {
+        try {
+            return Math.min( duration.toNanos(), max );
+        } catch ( ArithmeticException aE ) {
+            // more than 292 years
+            return max;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+/**
+ * Listener of keys cached or evicted by a {@linkplain AbstractPreloadMemo}.
+ * <p>
+ * Both methods may be called by a thread of the executor.
+ * <br/>
+ * {@linkplain #onCached(Object)} is called before the waiting threads are released.
+ * So do not wait for the value of the key.
+ * </p>
+ *
+ * @param <K> key
+ * @author jTzipi
+ */
+public interface IPreloadMemoListener<K> {
+
+    /**
+     * A value for {@code key} was computed or read from a snapshot.
+     *
+     * @param key key
+     */
+    default void onCached( K key ) {
+
+    }
+
+    /**
+     * The {@code key} is not memoized anymore.
+     *
+     * @param key key
+     */
+    default void onEvicted( K key ) {
+
+    }
+}
@@ -17,6 +17,7 @@
 package eu.jpangolin.jtzipi.mymod.io.async;
 
 import java.util.Collection;
+import java.util.Set;
 import java.util.concurrent.Future;
 
 /**
@@ -95,6 +96,21 @@ public interface IPreloadMemoized<K, V> {
      */
     boolean isMemoized( K key );
 
+    /**
+     * Return all cached keys.
+     * <p>
+     * This is a snapshot. Later changes of the cache are not reflected.
+     * <br/>
+     * Default throws an exception. Implementations that can list their keys override this.
+     * </p>
+     *
+     * @return unmodifiable set of keys
+     * @throws UnsupportedOperationException if the keys can not be listed
+     */
+    default Set<K> keys() {
+        throw new UnsupportedOperationException( "keys not supported by " + getClass().getName() );
+    }
+
     /**
      * Remove an argument.
      *
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Preloader and memoizer with a non-blocking api.
+ * <p>
+ * A plain {@linkplain java.util.concurrent.Future} can only be joined.
+ * So a client who wants to be notified has to park a thread on {@code get()}.
+ * <br/>
+ * Here we return a {@linkplain CompletionStage} instead.
+ * A client can chain a continuation and no thread is waiting.
+ * <pre>
+ *     {@code
+ *         IPreloadMemoizedAsync<Path, List<ImageData>> pre = ...
+ *         pre.startAsync( path )
+ *            .whenCompleteAsync( ( imageData, t ) -> render( imageData, t ), Platform::runLater );
+ *     }
+ * </pre>
+ * Each call returns a new stage. Cancelling it does <u>not</u> cancel the cached computation.
+ * To cancel the computation use {@link #get(Object)} or {@link #remove(Object)}.
+ * </p>
+ *
+ * @param <K> key
+ * @param <V> value
+ * @author jTzipi
+ */
+public interface IPreloadMemoizedAsync<K, V> extends IPreloadMemoized<K, V> {
+
+    /**
+     * Start async computation if not cached and return the stage of the computation.
+     *
+     * @param key argument
+     * @return stage completed with the value of the computation
+     * @throws IllegalArgumentException if {@code key} is null
+     */
+    CompletionStage<V> startAsync( K key );
+
+    /**
+     * Return the stage of a cached computation.
+     *
+     * @param key argument
+     * @return stage completed with the value of the computation
+     * @throws IllegalArgumentException if this preloader did not know {@code key}
+     */
+    CompletionStage<V> getAsync( K key );
+}
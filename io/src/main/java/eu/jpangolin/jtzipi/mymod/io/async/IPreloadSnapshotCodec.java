@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputFilter;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Codec of one entry of a preload memo snapshot.
+ * <p>
+ * A snapshot is written with {@linkplain AbstractPreloadMemo#writeSnapshot(java.nio.file.Path, IPreloadSnapshotCodec)}
+ * and read with {@linkplain AbstractPreloadMemo#readSnapshot(java.nio.file.Path, IPreloadSnapshotCodec)}.
+ * <br/>
+ * The codec decides which entries are written and whether an entry read is still valid.
+ * E.g. a directory listing is only valid if the directory was not modified since.
+ * <br/>
+ * Each entry must be read completely even if it is stale.
+ * <br/>
+ * A snapshot file may be changed by others. So the stream is read with the {@linkplain #filter()} of the codec.
+ * By default no class is deserialized. A codec reading objects must allow their classes.
+ * </p>
+ *
+ * @param <K> key
+ * @param <V> value
+ * @author jTzipi
+ */
+public interface IPreloadSnapshotCodec<K, V> {
+
+    /**
+     * Return a codec for serializable keys and values.
+     * <p>
+     * Entries are never stale.
+     * <br/>
+     * Only the classes of key and value and the {@code types} are deserialized.
+     * The classes of the fields of key and value must be part of {@code types}.
+     * </p>
+     *
+     * @param keyType   class of the key
+     * @param valueType class of the value
+     * @param types     other classes allowed
+     * @param <K>       key
+     * @param <V>       value
+     * @return codec using java serialization
+     * @throws NullPointerException if {@code keyType} | {@code valueType} | any of {@code types} is null
+     */
+    static <K extends Serializable, V extends Serializable> IPreloadSnapshotCodec<K, V> serializable( Class<K> keyType, Class<V> valueType, Class<?>... types ) {
+        Objects.requireNonNull( keyType, "key type is null" );
+        Objects.requireNonNull( valueType, "value type is null" );
+        Set<Class<?>> typeS = new HashSet<>( Arrays.asList( types ) );
+        typeS.add( keyType );
+        typeS.add( valueType );
+        ObjectInputFilter filter = allowClasses( typeS );
+        return new IPreloadSnapshotCodec<>() {
+            @Override
+            public ObjectInputFilter filter() {
+                return filter;
+            }
+
+            @Override
+            public void write( ObjectOutput out, K key, V value ) throws IOException {
+                out.writeObject( key );
+                out.writeObject( value );
+            }
+
+            @Override
+            @SuppressWarnings( "unchecked" )
+            public Map.Entry<K, V> read( ObjectInput in ) throws IOException {
+                try {
+                    return Map.entry( ( K ) in.readObject(), ( V ) in.readObject() );
+                } catch ( ClassNotFoundException cnfE ) {
+                    throw new IOException( "Unknown class in snapshot", cnfE );
+                }
+            }
+        };
+    }
+
+    /**
+     * Return a filter allowing only the {@code types}, their super classes and arrays of them.
+     * <p>
+     * Arrays of primitives are allowed too.
+     * </p>
+     *
+     * @param types allowed classes
+     * @return filter
+     * @throws NullPointerException if {@code types} or any of them is null
+     */
+    static ObjectInputFilter allowClasses( Set<Class<?>> types ) {
+        Set<Class<?>> allowS = new HashSet<>();
+        for ( Class<?> type : types ) {
+            // the descriptors of the super classes are read too
+            for ( Class<?> c = Objects.requireNonNull( type ); null != c; c = c.getSuperclass() ) {
+                allowS.add( c );
+            }
+        }
+        return info -> {
+            Class<?> c = info.serialClass();
+            if ( null == c ) {
+                return ObjectInputFilter.Status.UNDECIDED;
+            }
+            while ( c.isArray() ) {
+                c = c.getComponentType();
+            }
+            return c.isPrimitive() || allowS.contains( c ) ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+        };
+    }
+
+    /**
+     * Return the filter of the snapshot stream.
+     * <p>
+     * Default rejects all classes. Primitives and strings are read.
+     * </p>
+     *
+     * @return filter
+     */
+    default ObjectInputFilter filter() {
+        return allowClasses( Set.of() );
+    }
+
+    /**
+     * Return whether an entry should be written.
+     *
+     * @param key   key
+     * @param value value
+     * @return {@code true} if the entry is written
+     */
+    default boolean accept( K key, V value ) {
+        return true;
+    }
+
+    /**
+     * Write one entry.
+     *
+     * @param out   output
+     * @param key   key
+     * @param value value
+     * @throws IOException if writing failed
+     */
+    void write( ObjectOutput out, K key, V value ) throws IOException;
+
+    /**
+     * Read one entry.
+     *
+     * @param in input
+     * @return entry or {@code null} if the entry is stale
+     * @throws IOException if reading failed
+     */
+    Map.Entry<K, V> read( ObjectInput in ) throws IOException;
+}
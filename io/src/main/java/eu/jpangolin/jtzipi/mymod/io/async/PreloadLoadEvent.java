@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of one preload computation.
+ * <p>
+ * The event is only written if a recording is running and has this event enabled.
+ * Otherwise, the cost is a few instructions.
+ * </p>
+ *
+ * @author jTzipi
+ */
+@Name( "eu.jpangolin.jtzipi.mymod.PreloadLoad" )
+@Label( "Preload Computation" )
+@Category( { "MyMod", "Preload" } )
+@Description( "Computation of a value of a preload memo" )
+final class PreloadLoadEvent extends jdk.jfr.Event {
+
+    @Label( "Memo" )
+    String memo;
+
+    @Label( "Key" )
+    String key;
+
+    @Label( "Failed" )
+    boolean failed;
+}
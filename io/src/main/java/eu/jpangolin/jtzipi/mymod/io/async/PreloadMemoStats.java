@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistic of a preload memo.
+ * <p>
+ * All counters are {@linkplain LongAdder}s. So recording is cheap even if many threads
+ * hit the cache at the same time.
+ * <br/>
+ * Load times are recorded in a histogram with buckets of powers of two nanoseconds.
+ * So a percentile is the upper bound of its bucket and at most twice the real value.
+ * <br/>
+ * To read the numbers use {@linkplain #snapshot(int)}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class PreloadMemoStats {
+
+    // bucket i holds load times in [2^(i-1) .. 2^i) ns
+    private static final int BUCKETS = Long.SIZE + 1;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+    private final LongAdder[] histo = new LongAdder[BUCKETS];
+
+    /**
+     * Statistic.
+     */
+    PreloadMemoStats() {
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            histo[i] = new LongAdder();
+        }
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void eviction() {
+        evictions.increment();
+    }
+
+    void loadStarted() {
+        inFlight.increment();
+    }
+
+    void loadFinished( long nanos, boolean failed ) {
+        inFlight.decrement();
+        if ( failed ) {
+            loadFailures.increment();
+        } else {
+            loads.increment();
+        }
+        nanos = Math.max( 0L, nanos );
+        totalLoadNanos.add( nanos );
+        histo[Long.SIZE - Long.numberOfLeadingZeros( nanos )].increment();
+    }
+
+    /**
+     * Reset all counters except in flight computations.
+     */
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        loads.reset();
+        loadFailures.reset();
+        evictions.reset();
+        totalLoadNanos.reset();
+        for ( LongAdder bucket : histo ) {
+            bucket.reset();
+        }
+    }
+
+    /**
+     * Return a snapshot of the statistic.
+     *
+     * @param size current size of the cache
+     * @return snapshot
+     */
+    public Snapshot snapshot( int size ) {
+
+        long[] cnt = new long[BUCKETS];
+        long total = 0L;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            cnt[i] = histo[i].sum();
+            total += cnt[i];
+        }
+        long avg = 0L == total ? 0L : totalLoadNanos.sum() / total;
+
+        return new Snapshot( hits.sum(),
+                misses.sum(),
+                loads.sum(),
+                loadFailures.sum(),
+                evictions.sum(),
+                inFlight.sum(),
+                size,
+                Duration.ofNanos( avg ),
+                percentile( cnt, total, 0.5D ),
+                percentile( cnt, total, 0.9D ),
+                percentile( cnt, total, 0.99D ),
+                percentile( cnt, total, 1D ) );
+    }
+
+    private static Duration percentile( long[] cnt, long total, double q ) {
+        if ( 0L == total ) {
+            return Duration.ZERO;
+        }
+        long rank = Math.max( 1L, ( long ) Math.ceil( q * total ) );
+        long sum = 0L;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            sum += cnt[i];
+            if ( sum >= rank ) {
+                return Duration.ofNanos( i >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i );
+            }
+        }
+        return Duration.ofNanos( Long.MAX_VALUE );
+    }
+
+    /**
+     * Snapshot of the statistic.
+     *
+     * @param hits         requests for a cached key
+     * @param misses       requests for a key not cached
+     * @param loads        computations completed normally
+     * @param loadFailures computations failed
+     * @param evictions    entries removed by the cache (failure policy, size limit, gc)
+     * @param inFlight     computations running
+     * @param size         entries in cache
+     * @param avgLoad      average load time
+     * @param p50Load      median load time
+     * @param p90Load      90th percentile of load time
+     * @param p99Load      99th percentile of load time
+     * @param maxLoad      max load time
+     */
+    public record Snapshot( long hits,
+                            long misses,
+                            long loads,
+                            long loadFailures,
+                            long evictions,
+                            long inFlight,
+                            int size,
+                            Duration avgLoad,
+                            Duration p50Load,
+                            Duration p90Load,
+                            Duration p99Load,
+                            Duration maxLoad ) {
+
+        /**
+         * Return the ratio of hits to requests.
+         *
+         * @return hit rate [0 .. 1] or 0 if no request
+         */
+        public double hitRate() {
+            long req = hits + misses;
+            return 0L == req ? 0D : ( double ) hits / req;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+/**
+ * Priority of a preload computation.
+ * <p>
+ * The order of the constants is the order of execution.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public enum PreloadPriority {
+
+    /**
+     * Somebody is waiting for the result.
+     */
+    FOREGROUND,
+    /**
+     * Speculative preloading. Nobody is waiting yet.
+     */
+    BACKGROUND
+}
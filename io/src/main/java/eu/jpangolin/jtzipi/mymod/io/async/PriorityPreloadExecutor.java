@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded executor for preload computations with priorities.
+ * <p>
+ * A {@linkplain java.util.concurrent.Executors#newCachedThreadPool()} creates a thread for each task
+ * of a burst. And a speculative preload competes with the computation a user is waiting for.
+ * <br/>
+ * Here we use a fixed number of daemon threads and a priority queue.
+ * <ul>
+ *     <li>{@linkplain PreloadPriority#FOREGROUND} tasks are taken before {@linkplain PreloadPriority#BACKGROUND} tasks</li>
+ *     <li>tasks of the same priority are taken in order of arrival</li>
+ *     <li>a queued background task can be promoted in place ({@linkplain #promote(Runnable)})</li>
+ * </ul>
+ * A running task is never interrupted by a task with a higher priority.
+ * <br/>
+ * Queue depth and wait time per priority are available via {@linkplain #getStats(PreloadPriority)}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public class PriorityPreloadExecutor extends ThreadPoolExecutor {
+
+    /**
+     * Default number of threads.
+     */
+    public static final int DEF_THREADS = Math.max( 4, 2 * Runtime.getRuntime().availableProcessors() );
+    /**
+     * Idle time after a thread is terminated.
+     */
+    public static final long KEEP_ALIVE_SEC = 30L;
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( PriorityPreloadExecutor.class );
+    private static final AtomicInteger POOL_NO = new AtomicInteger();
+    // arrival order
+    private final AtomicLong seq = new AtomicLong();
+    // queued tasks by client task
+    private final Map<Runnable, PrioritizedTask> queuedM = new ConcurrentHashMap<>();
+    // wait time per priority
+    private final Map<PreloadPriority, WaitStats> waitM = new EnumMap<>( PreloadPriority.class );
+    // promote and shutdown exclusive
+    private final Object shutdownLock = new Object();
+
+    /**
+     * Executor with {@linkplain #DEF_THREADS} threads.
+     */
+    public PriorityPreloadExecutor() {
+        this( DEF_THREADS );
+    }
+
+    /**
+     * Executor.
+     *
+     * @param threads max threads [1 ..]
+     * @throws IllegalArgumentException if {@code threads} &lt; 1
+     */
+    public PriorityPreloadExecutor( int threads ) {
+        super( threads, threads, KEEP_ALIVE_SEC, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), daemonFactory() );
+        allowCoreThreadTimeOut( true );
+        for ( PreloadPriority prio : PreloadPriority.values() ) {
+            waitM.put( prio, new WaitStats() );
+        }
+    }
+
+    private static ThreadFactory daemonFactory() {
+        int pool = POOL_NO.incrementAndGet();
+        AtomicInteger thread = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread( r, "preload-" + pool + "-" + thread.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        };
+    }
+
+    /**
+     * Execute a task with {@linkplain PreloadPriority#BACKGROUND}.
+     *
+     * @param command task
+     */
+    @Override
+    public void execute( Runnable command ) {
+        execute( command, PreloadPriority.BACKGROUND );
+    }
+
+    /**
+     * Execute a task.
+     *
+     * @param command  task
+     * @param priority priority
+     * @throws NullPointerException if {@code command} | {@code priority} is null
+     */
+    public void execute( Runnable command, PreloadPriority priority ) {
+        Objects.requireNonNull( command, "command is null" );
+        Objects.requireNonNull( priority, "priority is null" );
+
+        PrioritizedTask pt = new PrioritizedTask( command, priority, seq.incrementAndGet() );
+        queuedM.put( command, pt );
+        try {
+            super.execute( pt );
+        } catch ( RuntimeException rtE ) {
+            queuedM.remove( command, pt );
+            throw rtE;
+        }
+    }
+
+    /**
+     * Promote a queued task to {@linkplain PreloadPriority#FOREGROUND}.
+     * <p>
+     * If the task is running, done or already foreground nothing happens.
+     * After shutdown no task is promoted. Queued tasks keep their order then.
+     * </p>
+     *
+     * @param command task previously executed
+     * @return {@code true} if the task was promoted
+     */
+    public boolean promote( Runnable command ) {
+
+        PrioritizedTask pt = queuedM.get( command );
+        if ( null == pt || PreloadPriority.FOREGROUND == pt.priority ) {
+            return false;
+        }
+        synchronized ( shutdownLock ) {
+            // a shutdown executor rejects the task we removed
+            if ( isShutdown() ) {
+                return false;
+            }
+            // we must remove and insert to fix the heap order
+            if ( !getQueue().remove( pt ) ) {
+                return false;
+            }
+            pt.priority = PreloadPriority.FOREGROUND;
+            LOG.debug( "Promote task '{}'", command );
+            super.execute( pt );
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized ( shutdownLock ) {
+            super.shutdown();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        synchronized ( shutdownLock ) {
+            List<Runnable> notRunL = super.shutdownNow();
+            // tasks drained from the queue are never started
+            queuedM.clear();
+            return notRunL;
+        }
+    }
+
+    /**
+     * Return queue depth and wait time of a priority.
+     *
+     * @param priority priority
+     * @return stats
+     * @throws NullPointerException if {@code priority} is null
+     */
+    public Stats getStats( PreloadPriority priority ) {
+        Objects.requireNonNull( priority, "priority is null" );
+
+        int queued = 0;
+        for ( Runnable r : getQueue() ) {
+            if ( r instanceof PrioritizedTask pt && priority == pt.priority ) {
+                queued++;
+            }
+        }
+        WaitStats ws = waitM.get( priority );
+        long started = ws.started.sum();
+        long avg = 0L == started ? 0L : ws.waitNanos.sum() / started;
+        return new Stats( priority, queued, started, Duration.ofNanos( avg ), Duration.ofNanos( ws.maxWaitNanos.get() ) );
+    }
+
+    @Override
+    protected void beforeExecute( Thread t, Runnable r ) {
+        super.beforeExecute( t, r );
+        if ( r instanceof PrioritizedTask pt ) {
+            queuedM.remove( pt.task, pt );
+            long wait = System.nanoTime() - pt.enqueued;
+            WaitStats ws = waitM.get( pt.priority );
+            ws.started.increment();
+            ws.waitNanos.add( wait );
+            ws.maxWaitNanos.accumulateAndGet( wait, Math::max );
+        }
+    }
+
+    /**
+     * Queue depth and wait time of one priority.
+     *
+     * @param priority priority
+     * @param queued   tasks waiting in queue
+     * @param started  tasks started since creation
+     * @param avgWait  average time a task waited in queue
+     * @param maxWait  max time a task waited in queue
+     */
+    public record Stats( PreloadPriority priority, int queued, long started, Duration avgWait, Duration maxWait ) {
+
+    }
+
+    private static final class WaitStats {
+        private final LongAdder started = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+    }
+
+    /**
+     * Queue element.
+     */
+    private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+        private final Runnable task;
+        private final long seq;
+        private final long enqueued = System.nanoTime();
+        private volatile PreloadPriority priority;
+
+        private PrioritizedTask( Runnable task, PreloadPriority priority, long seq ) {
+            this.task = task;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo( PrioritizedTask o ) {
+            int cmp = priority.compareTo( o.priority );
+            return 0 != cmp ? cmp : Long.compare( seq, o.seq );
+        }
+
+        @Override
+        public String toString() {
+            return "PrioritizedTask{" + priority + ", " + task + "}";
+        }
+    }
+}
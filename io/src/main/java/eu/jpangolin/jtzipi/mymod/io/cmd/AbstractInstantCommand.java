@@ -19,9 +19,12 @@ package eu.jpangolin.jtzipi.mymod.io.cmd;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -39,6 +42,20 @@ import java.util.concurrent.*;
  *      <br/>
  *      If you want to implement your own command setup you can override
  *      the {@link #launch()} method.
+ *      <br/>
+ *      The output and error stream of all commands are read by one shared pool
+ *      of daemon threads. The pool grows with the running commands and never queues a stream,
+ *      because a stream not read fills the pipe buffer and blocks the command until timeout.
+ *      Idle threads end after {@linkplain #GOBBLER_KEEP_ALIVE_SEC} seconds.
+ *      <br/>
+ *      At most {@linkplain #getMaxOutputBytes()} of the output are kept. If the output is larger
+ *      the head and the tail are kept and the result is {@linkplain ICommandResult#isTruncated() truncated}.
+ *      So a command with endless output does not fill the heap.
+ *      <br/>
+ *      Each launch is measured by {@linkplain CommandMetrics}.
+ *      <br/>
+ *      {@linkplain #launchAsync(long, TimeUnit, Executor)} does not block a thread while the
+ *      command is running. It is completed by {@linkplain Process#onExit()}.
  * </p>
  * @author jTzipi
  * @param <R> Record Type of command result value object
@@ -46,6 +63,14 @@ import java.util.concurrent.*;
 public abstract class AbstractInstantCommand<R> implements IInstantCommand<R> {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(AbstractInstantCommand.class);
+    /**
+     * Seconds an idle gobbler thread is kept.
+     */
+    public static final long GOBBLER_KEEP_ALIVE_SEC = 30L;
+    /**
+     * Default max bytes of output kept.
+     */
+    public static final int DEF_MAX_OUTPUT_BYTES = 16 * 1024 * 1024;
     /**
      * List of our command AND arguments.
      */
@@ -54,6 +79,10 @@ public abstract class AbstractInstantCommand<R> implements IInstantCommand<R> {
      * Command name.
      */
     protected String cmd;
+    /**
+     * Max bytes of output kept.
+     */
+    protected int maxOutputBytes = DEF_MAX_OUTPUT_BYTES;
 
     /**
      * AbstractInstantCommand.
@@ -78,6 +107,46 @@ public abstract class AbstractInstantCommand<R> implements IInstantCommand<R> {
      */
     protected abstract CommandResult<R> parse(String rawResultStr, Throwable t, Process proc);
 
+    /**
+     * Return max bytes of output kept.
+     * @return max bytes
+     */
+    public int getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    /**
+     * Set max bytes of output kept.
+     * @param maxBytes max bytes
+     * @throws IllegalArgumentException if {@code maxBytes} is less than 16
+     */
+    public void setMaxOutputBytes(final int maxBytes) {
+        if (maxBytes < 16) {
+            throw new IllegalArgumentException("Max output bytes < 16");
+        }
+        this.maxOutputBytes = maxBytes;
+    }
+
+    /**
+     * Return the executor reading the output of all commands.
+     *
+     * @return shared executor
+     */
+    protected static ExecutorService getGobblerExecutor() {
+        return GobblerPool.EXE;
+    }
+
+    /**
+     * Shut down the executor reading the output of commands.
+     * <p>
+     *     Only call this on exit of the application. Commands launched after this
+     *     will fail with a {@linkplain RejectedExecutionException}.
+     * </p>
+     */
+    public static void shutdownGobblers() {
+        GobblerPool.EXE.shutdown();
+    }
+
     @Override
     public CommandResult<R> launch(long timeout, TimeUnit timeUnit) throws IOException, InterruptedException {
         // set timeout
@@ -93,90 +162,189 @@ public abstract class AbstractInstantCommand<R> implements IInstantCommand<R> {
         // - arguments for our ICommandResult
         //
 
-        String rawResult;           // raw output of command
-        Throwable t;                //
+        String rawResult = ICommandResult.RAW_RESULT_ERROR; // raw output of command
+        Throwable t = null;         //
+        boolean truncated = false;  // output larger than max
+        boolean timedOut = false;   // command did not exit until timeout
         //
         // - start -
         // may throw I/O
-        Process p = pb.start();
+        CommandMetrics.Probe probe = CommandMetrics.start(this);
+        Process p;
+        try {
+            p = pb.start();
+        } catch (IOException ioE) {
+            probe.failed(ioE);
+            throw ioE;
+        }
+        probe.spawned(p);
+
+        // the probe must be finished on every path
+        // or the running processes are counted wrong
+        Future<BoundedCapture> rawOutputF = null;
+        Future<BoundedCapture> rawError = null;
+        try {
+
+            // read from the input
+            // and error stream async
+            // because we don't want to stop our other code
+            // in case the command output is not responsive
+            rawOutputF = GobblerPool.EXE.submit(BoundedCapture.of(p.getInputStream(), maxOutputBytes));
+            rawError = GobblerPool.EXE.submit(BoundedCapture.of(p.getErrorStream(), BoundedCapture.DEF_MAX_ERROR_BYTES));
+
+            // Wait for end of p
+            // or destroy forcible
+            // This can throw an IE!
+            // Caution!
+            // the boolean only indicates that
+            // the command don't exit until timeout
+            boolean done = p.waitFor(timeout, timeUnit);
 
-        // read from the input
-        // and error stream async
-        // because we don't want to stop our other code
-        // in case the command output is not responsive
-        Future<String> rawOutputF = Executors.newSingleThreadExecutor().submit(StreamGobbler.of(p.getInputStream()));
-        Future<String> rawError = Executors.newSingleThreadExecutor().submit(StreamGobbler.of(p.getErrorStream()));
 
-        // Wait for end of p
-        // or destroy forcible
-        // This can throw an IE!
-        // Caution!
-        // the boolean only indicates that
-        // the command don't exit until timeout
-        boolean done = p.waitFor(timeout, timeUnit);
 
+            // - seem to be okay
+            if (done) {
 
+                LOG.info("Cmd completed without error :) (code = {})", p.exitValue() );
+                try {
 
-        // - seem to be okay
-        if (done) {
+                    // this throws an IE
+                    // TODO: Use CompletableFuture ?
+                    BoundedCapture out = rawOutputF.get(timeout, timeUnit);
+                    rawResult = out.getText();
+                    truncated = out.isTruncated();
+                    t = null;
 
-            LOG.info("Cmd completed without error :) (code = {})", p.exitValue() );
-            try {
 
-                // this throws an IE
-                // TODO: Use CompletableFuture ?
-                rawResult = rawOutputF.get(timeout, timeUnit);
-                t = null;
+                } catch (ExecutionException | TimeoutException eE) {
 
 
-            } catch (ExecutionException | TimeoutException eE) {
+                    t = eE.getCause();
+                    rawResult = ICommandResult.RAW_RESULT_ERROR;
+                    LOG.warn("Proc done but Failed to wait for the result of {}, with args '{}' ", getName(), getArgs(), eE);
 
 
-                t = eE.getCause();
-                rawResult = ICommandResult.RAW_RESULT_ERROR;
-                LOG.warn("Proc done but Failed to wait for the result of {}, with args '{}' ", getName(), getArgs(), eE);
+                }
+            } else {
+                LOG.warn("Command '{}' failed!? let see if it's alive...", getName());
 
+                if(p.isAlive()) {
 
-            }
-        } else {
-            LOG.warn("Command '{}' failed!? let see if it's alive...", getName());
+                    LOG.warn("The command  is not exited");
+                }
+
+                //
+                // command did not return until timeout
+                //
+                timedOut = true;
+                rawResult = ICommandResult.RAW_RESULT_ERROR;
 
-            if(p.isAlive()) {
+                //
+                p.destroyForcibly();
 
-                LOG.warn("The command  is not exited");
-            }
+                // try to read from the error stream
+                String errorCode;
+                // Caution!
+                // if the proc is not exit this throws
+                // an IllegalThreadStateException.
+                // So we wait until the kill is done
+                int exit = p.onExit().join().exitValue();
+                LOG.warn("Cmd completed with error or because of timeout :( (code = {}) We try to", exit);
+                try {
+                    errorCode = rawError.get(MIN_TIMEOUT, TimeUnit.MILLISECONDS).getText();
+                    t = new IOException(errorCode);
 
-            //
-            // command did not return until timeout
-            //
-            rawResult = ICommandResult.RAW_RESULT_ERROR;
+                } catch (ExecutionException | TimeoutException e) {
 
-            //
-            p = p.destroyForcibly();
+                    LOG.warn("Command '{}' did not exit and we can't obtain the error stream", getName(), e );
+                    t = e.getCause();
+                }
 
-            // try to read from the error stream
-            String errorCode;
-            // Caution!
-            // if the proc is not exit this throws
-            // an IllegalThreadStateException.
-            //
-            int exit = p.exitValue();
-            LOG.warn("Cmd completed with error or because of timeout :( (code = {}) We try to", exit);
-            try {
-                errorCode = rawError.get(MIN_TIMEOUT, TimeUnit.MILLISECONDS);
-                t = new IOException(errorCode);
-
-            } catch (ExecutionException | TimeoutException e) {
-
-                LOG.warn("Command '{}' did not exit and we can't obtain the error stream", getName(), e );
-                t = e.getCause();
             }
 
+        } catch (InterruptedException | RuntimeException e) {
+            t = e;
+            throw e;
+        } finally {
+            probe.finished(p, timedOut, null == rawOutputF ? 0L : CommandMetrics.bytes(rawOutputF), null == rawError ? 0L : CommandMetrics.bytes(rawError), t);
         }
 
         // now parse the java value object
-        return parse(rawResult, t, p);
+        CommandResult<R> result = parse(rawResult, t, p);
+        return truncated && null != result ? result.withTruncated(true) : result;
     }
+    @Override
+    public CompletableFuture<CommandResult<R>> launchAsync(long timeout, TimeUnit timeUnit, Executor executor) {
+        Objects.requireNonNull(executor);
+        timeout = Math.max(timeout, MIN_TIMEOUT);
+        if (null == timeUnit) {
+            timeUnit = DEFAULT_TIMEOUT_UNIT;
+        }
+
+        LOG.info("Start command '{}' async with arg '{}'", cmd, cmdArgL);
+        CommandMetrics.Probe probe = CommandMetrics.start(this);
+        Process p;
+        try {
+            p = getProcessBuilder().start();
+        } catch (IOException ioE) {
+            probe.failed(ioE);
+            return CompletableFuture.failedFuture(ioE);
+        }
+        probe.spawned(p);
+
+        CompletableFuture<BoundedCapture> outF = gobble(p.getInputStream(), maxOutputBytes);
+        CompletableFuture<BoundedCapture> errF = gobble(p.getErrorStream(), BoundedCapture.DEF_MAX_ERROR_BYTES);
+
+        // done if the process exit and the output is read
+        CompletableFuture<CommandResult<R>> resultF = p.onExit()
+                .thenCombine(outF, (proc, out) -> out)
+                .orTimeout(timeout, timeUnit)
+                .handleAsync((out, t) -> {
+                    if (null == t) {
+                        CommandResult<R> result = parse(out.getText(), null, p);
+                        return out.isTruncated() && null != result ? result.withTruncated(true) : result;
+                    }
+                    Throwable cause = t instanceof CompletionException && null != t.getCause() ? t.getCause() : t;
+                    if (cause instanceof TimeoutException) {
+                        LOG.warn("Command '{}' did not exit until timeout", getName());
+                        destroyTree(p);
+                        String errorCode = errF.isDone() && !errF.isCompletedExceptionally() ? errF.join().getText() : null;
+                        if (null != errorCode && !errorCode.isBlank()) {
+                            cause.addSuppressed(new IOException(errorCode.trim()));
+                        }
+                    } else {
+                        LOG.warn("Failed to read the result of '{}' with args '{}'", getName(), getArgs(), cause);
+                    }
+                    return parse(ICommandResult.RAW_RESULT_ERROR, cause, p);
+                }, executor);
+
+        // cancel of the returned future is not propagated
+        resultF.whenComplete((r, t) -> {
+            if (resultF.isCancelled()) {
+                LOG.info("Command '{}' cancelled", getName());
+                destroyTree(p);
+            }
+            Throwable error = null != t ? t : null == r ? null : r.getError();
+            probe.finished(p, false, CommandMetrics.bytes(outF), CommandMetrics.bytes(errF), error);
+        });
+
+        return resultF;
+    }
+
+    private static CompletableFuture<BoundedCapture> gobble(InputStream is, int maxBytes) {
+        BoundedCapture bc = BoundedCapture.of(is, maxBytes);
+        return CompletableFuture.supplyAsync(bc::call, GobblerPool.EXE);
+    }
+
+    /**
+     * Destroy the process and all of its descendants.
+     * @param p process
+     */
+    private static void destroyTree(Process p) {
+        p.descendants().forEach(ProcessHandle::destroyForcibly);
+        p.destroyForcibly();
+    }
+
     @Override
     public String getName() {
         return cmd;
@@ -188,4 +356,28 @@ public abstract class AbstractInstantCommand<R> implements IInstantCommand<R> {
         return cmdArgL;
     }
 
+    /**
+     * Lazy holder of the shared gobbler executor.
+     */
+    private static final class GobblerPool {
+
+        private static final ExecutorService EXE = create();
+
+        private static ExecutorService create() {
+            AtomicInteger cnt = new AtomicInteger();
+            // each running command needs two threads which mostly wait for I/O
+            // so we hand over directly and never queue a stream
+            return new ThreadPoolExecutor(0,
+                    Integer.MAX_VALUE,
+                    GOBBLER_KEEP_ALIVE_SEC,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    r -> {
+                        Thread t = new Thread(r, "cmd-gobbler-" + cnt.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+    }
+
 }
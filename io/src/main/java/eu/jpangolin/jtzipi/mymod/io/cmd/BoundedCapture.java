@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * Reader of the output of a process with bounded memory.
+ * <p>
+ *     The stream is read as bytes. At most {@code maxBytes} are kept.
+ *     The first half is kept as head. The last bytes are kept in a ring buffer as tail.
+ *     If the output is larger the bytes between head and tail are dropped and the
+ *     capture is truncated.
+ *     <br/>
+ *     The buffers grow with the output. So small output needs little memory.
+ *     <br/>
+ *     The text is decoded on first call of {@linkplain #getText()}.
+ *     Like the lines read by a {@linkplain java.util.Scanner} each line ends with {@code \n}.
+ *     <br/>
+ *     A failure to read (e.g. if the process is destroyed) ends the capture. The bytes read until
+ *     then are kept.
+ * </p>
+ *
+ * @author jTzipi
+ */
+final class BoundedCapture implements Callable<BoundedCapture> {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(BoundedCapture.class);
+    /**
+     * Max bytes of the error output.
+     * The error output is only used as message.
+     */
+    static final int DEF_MAX_ERROR_BYTES = 64 * 1024;
+    private static final int READ_BUF = 8192;
+    private static final int MIN_BYTES = 16;
+
+    private final InputStream is;
+    private final Charset cs;
+    private final int headCap;
+    private final int tailCap;
+    private byte[] head = new byte[0];
+    private int headLen;
+    private byte[] tail = new byte[0];
+    // next write position in tail
+    private int tailPos;
+    private boolean wrapped;
+    private long total;
+    private volatile boolean done;
+    private String text;
+
+    private BoundedCapture(final InputStream inputStream, final int maxBytes, final Charset charset) {
+        this.is = inputStream;
+        this.cs = charset;
+        this.headCap = maxBytes / 2;
+        this.tailCap = maxBytes - headCap;
+    }
+
+    /**
+     * Capture with the default charset.
+     * @param inputStream stream
+     * @param maxBytes max bytes kept
+     * @return capture
+     * @throws NullPointerException if {@code inputStream} is null
+     * @throws IllegalArgumentException if {@code maxBytes} is less than 16
+     */
+    static BoundedCapture of(final InputStream inputStream, final int maxBytes) {
+        return of(inputStream, maxBytes, Charset.defaultCharset());
+    }
+
+    /**
+     * Capture.
+     * @param inputStream stream
+     * @param maxBytes max bytes kept
+     * @param charset charset of the output
+     * @return capture
+     * @throws NullPointerException if {@code inputStream} or {@code charset} is null
+     * @throws IllegalArgumentException if {@code maxBytes} is less than 16
+     */
+    static BoundedCapture of(final InputStream inputStream, final int maxBytes, final Charset charset) {
+        Objects.requireNonNull(inputStream);
+        Objects.requireNonNull(charset);
+        if (maxBytes < MIN_BYTES) {
+            throw new IllegalArgumentException("Max bytes < " + MIN_BYTES);
+        }
+        return new BoundedCapture(inputStream, maxBytes, charset);
+    }
+
+    /**
+     * Read the stream until end.
+     * @return this
+     */
+    @Override
+    public BoundedCapture call() {
+        byte[] buf = new byte[READ_BUF];
+        try (is) {
+            int n;
+            while ((n = is.read(buf)) >= 0) {
+                append(buf, n);
+            }
+        } catch (IOException ioE) {
+            LOG.debug("Stop reading output after {} bytes", total, ioE);
+        }
+        done = true;
+        if (wrapped) {
+            LOG.debug("Output truncated: read {} bytes, kept {}", total, headLen + tail.length);
+        }
+        return this;
+    }
+
+    private void append(byte[] buf, int n) {
+        total += n;
+        int off = 0;
+        // fill head
+        if (headLen < headCap) {
+            int len = Math.min(n, headCap - headLen);
+            head = ensure(head, headLen + len, headCap);
+            System.arraycopy(buf, 0, head, headLen, len);
+            headLen += len;
+            off = len;
+        }
+        // fill tail
+        while (off < n) {
+            if (!wrapped && tailPos == tail.length) {
+                if (tail.length < tailCap) {
+                    tail = ensure(tail, tailPos + (n - off), tailCap);
+                } else {
+                    wrapped = true;
+                    tailPos = 0;
+                }
+            }
+            int len = Math.min(n - off, (wrapped ? tailCap : tail.length) - tailPos);
+            System.arraycopy(buf, off, tail, tailPos, len);
+            off += len;
+            tailPos += len;
+            if (wrapped && tailPos == tailCap) {
+                tailPos = 0;
+            }
+        }
+    }
+
+    private static byte[] ensure(byte[] b, int min, int cap) {
+        if (b.length >= min) {
+            return b;
+        }
+        return Arrays.copyOf(b, Math.min(cap, Math.max(min, Math.max(READ_BUF, 2 * b.length))));
+    }
+
+    /**
+     * Return whether bytes were dropped.
+     * @return {@code true} if the output was larger than max bytes
+     */
+    boolean isTruncated() {
+        return wrapped;
+    }
+
+    /**
+     * Return the number of bytes read.
+     * @return bytes read
+     */
+    long getTotalBytes() {
+        return total;
+    }
+
+    /**
+     * Return the decoded output.
+     * <p>
+     *     If truncated a line {@code [... n bytes truncated ...]} is between head and tail.
+     * </p>
+     * @return output
+     * @throws IllegalStateException if the stream is not read until end
+     */
+    synchronized String getText() {
+        if (!done) {
+            throw new IllegalStateException("Output not read");
+        }
+        if (null == text) {
+            text = normalize(decode());
+        }
+        return text;
+    }
+
+    private String decode() {
+        if (!isTruncated()) {
+            byte[] all = Arrays.copyOf(head, headLen + tailPos);
+            System.arraycopy(tail, 0, all, headLen, tailPos);
+            return new String(all, cs);
+        }
+        // oldest byte of the ring is at the write position
+        byte[] last = new byte[tailCap];
+        System.arraycopy(tail, tailPos, last, 0, tailCap - tailPos);
+        System.arraycopy(tail, 0, last, tailCap - tailPos, tailPos);
+        int from = 0;
+        if (StandardCharsets.UTF_8.equals(cs)) {
+            // do not start in the middle of a char
+            while (from < last.length && (last[from] & 0xC0) == 0x80) {
+                from++;
+            }
+        }
+        long dropped = total - headLen - tailCap + from;
+        String headStr = new String(head, 0, headLen, cs);
+        return headStr
+                + (headStr.endsWith("\n") ? "" : "\n")
+                + "[... " + dropped + " bytes truncated ...]\n"
+                + new String(last, from, last.length - from, cs);
+    }
+
+    private static String normalize(String str) {
+        if (str.indexOf('\r') >= 0) {
+            str = str.replace("\r\n", "\n");
+        }
+        return str.isEmpty() || str.endsWith("\n") ? str : str + "\n";
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Run a batch of commands with a limit of commands running at the same time.
+ * <p>
+ *     Each command is launched with {@linkplain IInstantCommand#launchAsync(long, TimeUnit, Executor)}.
+ *     So no thread waits for a running command. If a command is done the next one is launched.
+ *     <br/>
+ *     The results are reported in the order the commands completed. To each result the
+ *     callback is called. When all commands are done the future of the batch completes
+ *     with all results and the timing.
+ *     <br/>
+ *     A command failing to start is reported as a result with the error.
+ *     If the future of the batch is cancelled no more commands are launched and
+ *     the running commands are destroyed.
+ *     <br/>
+ *     Note that the output of each running command is read by two threads of the shared pool
+ *     of {@linkplain AbstractInstantCommand}. So the parallelism also limits these threads.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     CommandBatchRunner.of( 4, 2L, TimeUnit.SECONDS )
+ *         .run( whichL, done -> LOG.info( "{} took {}", done.command().getArgs(), done.duration() ) )
+ *         .thenAccept( batch -> LOG.info( "Batch took {}", batch.elapsed() ) );
+ *     }
+ * </pre>
+ * @author jTzipi
+ */
+public final class CommandBatchRunner {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(CommandBatchRunner.class);
+    /**
+     * Default max commands running at the same time.
+     */
+    public static final int DEF_MAX_PARALLEL = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private final int maxParallel;
+    private final long timeout;
+    private final TimeUnit timeUnit;
+    private final Executor executor;
+
+    private CommandBatchRunner(final int maxParallelCmds, final long timeoutPerCmd, final TimeUnit unit, final Executor exe) {
+        this.maxParallel = maxParallelCmds;
+        this.timeout = timeoutPerCmd;
+        this.timeUnit = unit;
+        this.executor = exe;
+    }
+
+    /**
+     * Runner with {@linkplain #DEF_MAX_PARALLEL} commands and the default timeout.
+     * @return runner
+     */
+    public static CommandBatchRunner of() {
+        return of(DEF_MAX_PARALLEL, IInstantCommand.DEFAULT_TIMEOUT, IInstantCommand.DEFAULT_TIMEOUT_UNIT);
+    }
+
+    /**
+     * Runner parsing the results in the {@linkplain ForkJoinPool#commonPool()}.
+     * @param maxParallelCmds max commands running at the same time [1 .. ]
+     * @param timeoutPerCmd timeout of each command
+     * @param unit unit of timeout
+     * @return runner
+     * @throws IllegalArgumentException if {@code maxParallelCmds} is not positive
+     * @throws NullPointerException if {@code unit} is null
+     */
+    public static CommandBatchRunner of(final int maxParallelCmds, final long timeoutPerCmd, final TimeUnit unit) {
+        return of(maxParallelCmds, timeoutPerCmd, unit, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runner.
+     * @param maxParallelCmds max commands running at the same time [1 .. ]
+     * @param timeoutPerCmd timeout of each command
+     * @param unit unit of timeout
+     * @param exe executor to parse the results and call the callback
+     * @return runner
+     * @throws IllegalArgumentException if {@code maxParallelCmds} is not positive
+     * @throws NullPointerException if {@code unit} or {@code exe} is null
+     */
+    public static CommandBatchRunner of(final int maxParallelCmds, final long timeoutPerCmd, final TimeUnit unit, final Executor exe) {
+        Objects.requireNonNull(unit);
+        Objects.requireNonNull(exe);
+        if (maxParallelCmds < 1) {
+            throw new IllegalArgumentException("Max parallel commands must be positive");
+        }
+        return new CommandBatchRunner(maxParallelCmds, Math.max(timeoutPerCmd, IInstantCommand.MIN_TIMEOUT), unit, exe);
+    }
+
+    /**
+     * Run all commands.
+     * @param cmds commands
+     * @param <T> type of command result
+     * @return future of the batch
+     * @throws NullPointerException if {@code cmds} is null
+     */
+    public <T> CompletableFuture<BatchResult<T>> run(final Collection<? extends IInstantCommand<T>> cmds) {
+        return run(cmds, done -> {
+        });
+    }
+
+    /**
+     * Run all commands and call the callback for each completed command.
+     * @param cmds commands
+     * @param onCompleted callback called in completion order
+     * @param <T> type of command result
+     * @return future of the batch
+     * @throws NullPointerException if {@code cmds} or {@code onCompleted} is null
+     */
+    public <T> CompletableFuture<BatchResult<T>> run(final Collection<? extends IInstantCommand<T>> cmds, final Consumer<? super Completed<T>> onCompleted) {
+        Objects.requireNonNull(cmds);
+        Objects.requireNonNull(onCompleted);
+
+        Batch<T> batch = new Batch<>(new ArrayList<>(cmds), onCompleted);
+        batch.start();
+        return batch.resultF;
+    }
+
+    /**
+     * Return max commands running at the same time.
+     * @return max commands
+     */
+    public int getMaxParallel() {
+        return maxParallel;
+    }
+
+    /**
+     * One run of a batch.
+     * @param <T> type of command result
+     */
+    private final class Batch<T> {
+
+        private final List<IInstantCommand<T>> cmdL;
+        private final Iterator<IInstantCommand<T>> cmdIt;
+        private final Consumer<? super Completed<T>> callback;
+        private final List<Completed<T>> doneL;
+        private final Set<CompletableFuture<CommandResult<T>>> runningS = ConcurrentHashMap.newKeySet();
+        private final CompletableFuture<BatchResult<T>> resultF = new CompletableFuture<>();
+        private final long start = System.nanoTime();
+
+        private Batch(final List<IInstantCommand<T>> cmds, final Consumer<? super Completed<T>> onCompleted) {
+            this.cmdL = cmds;
+            this.cmdIt = cmds.iterator();
+            this.callback = onCompleted;
+            this.doneL = new ArrayList<>(cmds.size());
+            resultF.whenComplete((r, t) -> {
+                if (resultF.isCancelled()) {
+                    LOG.info("Batch cancelled, destroy {} running commands", runningS.size());
+                    runningS.forEach(cf -> cf.cancel(true));
+                }
+            });
+        }
+
+        private void start() {
+            if (cmdL.isEmpty()) {
+                resultF.complete(finish());
+                return;
+            }
+            for (int i = 0; i < maxParallel; i++) {
+                if (!launchNext()) {
+                    break;
+                }
+            }
+        }
+
+        private boolean launchNext() {
+            IInstantCommand<T> cmd;
+            synchronized (this) {
+                if (resultF.isDone() || !cmdIt.hasNext()) {
+                    return false;
+                }
+                cmd = cmdIt.next();
+            }
+
+            long cmdStart = System.nanoTime();
+            CompletableFuture<CommandResult<T>> cf;
+            try {
+                cf = cmd.launchAsync(timeout, timeUnit, executor);
+            } catch (RuntimeException rE) {
+                cf = CompletableFuture.failedFuture(rE);
+            }
+            runningS.add(cf);
+            if (resultF.isCancelled()) {
+                // cancelled before we were known to the cancel handler
+                cf.cancel(true);
+            }
+            CompletableFuture<CommandResult<T>> launchedF = cf;
+            cf.whenCompleteAsync((result, t) -> {
+                runningS.remove(launchedF);
+                if (resultF.isDone()) {
+                    return;
+                }
+                if (null != t) {
+                    Throwable cause = t instanceof CompletionException && null != t.getCause() ? t.getCause() : t;
+                    result = new CommandResult<>(null, ICommandResult.RAW_RESULT_ERROR, null, cause);
+                } else if (null == result) {
+                    result = new CommandResult<>(null, ICommandResult.RAW_RESULT_ERROR, null, new IOException("No result of command '" + cmd.getName() + "'"));
+                }
+                completed(new Completed<>(cmd, result, Duration.ofNanos(System.nanoTime() - cmdStart)));
+            }, executor);
+            return true;
+        }
+
+        private void completed(Completed<T> done) {
+            boolean last;
+            synchronized (this) {
+                doneL.add(done);
+                last = doneL.size() == cmdL.size();
+            }
+            try {
+                callback.accept(done);
+            } catch (RuntimeException rE) {
+                LOG.warn("Callback failed for command '{}'", done.command().getName(), rE);
+            }
+
+            if (last) {
+                resultF.complete(finish());
+            } else {
+                launchNext();
+            }
+        }
+
+        private synchronized BatchResult<T> finish() {
+            Duration total = Duration.ZERO;
+            Duration slowest = Duration.ZERO;
+            int errors = 0;
+            for (Completed<T> done : doneL) {
+                total = total.plus(done.duration());
+                if (done.duration().compareTo(slowest) > 0) {
+                    slowest = done.duration();
+                }
+                if (null == done.result() || done.result().isError()) {
+                    errors++;
+                }
+            }
+            return new BatchResult<>(List.copyOf(doneL), Duration.ofNanos(System.nanoTime() - start), total, slowest, errors);
+        }
+    }
+
+    /**
+     * A completed command.
+     * @param command command
+     * @param result result
+     * @param duration time from launch to parsed result
+     * @param <T> type of command result
+     */
+    public record Completed<T>(IInstantCommand<T> command, CommandResult<T> result, Duration duration) {
+    }
+
+    /**
+     * Result of a batch.
+     * @param completedList commands in completion order
+     * @param elapsed time of the batch
+     * @param total sum of the time of all commands
+     * @param slowest time of the slowest command
+     * @param errors number of results with error
+     * @param <T> type of command result
+     */
+    public record BatchResult<T>(List<Completed<T>> completedList, Duration elapsed, Duration total, Duration slowest, int errors) {
+
+        /**
+         * Return the ratio of the sum of the time of all commands to the time of the batch.
+         * @return speed up or 0 if the batch was empty
+         */
+        public double speedUp() {
+            return elapsed.isZero() ? 0D : (double) total.toNanos() / elapsed.toNanos();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Metrics of one launch of a command.
+ * @param command name of command
+ * @param args arguments
+ * @param spawnNanos time to start the process in ns
+ * @param wallNanos time from start until the result in ns
+ * @param exitCode exit code or {@linkplain #NO_EXIT} if the process is not exited or not started
+ * @param timeout whether the command did not end until timeout
+ * @param outputBytes bytes read from the output
+ * @param errorBytes bytes read from the error output
+ * @param error error (may be null)
+ *
+ * @author jTzipi
+ */
+public record CommandExecution(String command,
+                               List<String> args,
+                               long spawnNanos,
+                               long wallNanos,
+                               int exitCode,
+                               boolean timeout,
+                               long outputBytes,
+                               long errorBytes,
+                               Throwable error) {
+
+    /**
+     * Exit code if the process is not exited.
+     */
+    public static final int NO_EXIT = -1;
+
+    /**
+     * Return whether the process was started.
+     * @return {@code true} if started
+     */
+    public boolean isStarted() {
+        return spawnNanos >= 0L;
+    }
+
+    /**
+     * Return whether the command is done with exit code 0 and without error.
+     * @return {@code true} if successful
+     */
+    public boolean isSuccess() {
+        return 0 == exitCode && !timeout && null == error;
+    }
+
+    /**
+     * Return the wall time.
+     * @return wall time
+     */
+    public Duration wallTime() {
+        return Duration.ofNanos(wallNanos);
+    }
+}
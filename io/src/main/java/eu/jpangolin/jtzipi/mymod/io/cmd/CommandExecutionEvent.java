@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a launched command.
+ * <p>
+ *     The duration of the event is the wall time of the command.
+ *     Record with {@code -XX:StartFlightRecording} and look for {@code eu.jpangolin.jtzipi.mymod.CommandExecution}.
+ * </p>
+ * @author jTzipi
+ */
+@Name("eu.jpangolin.jtzipi.mymod.CommandExecution")
+@Label("Command Execution")
+@Description("Launch of an external command")
+@Category({"MyMod", "Command"})
+@StackTrace(false)
+final class CommandExecutionEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Arguments")
+    String args;
+
+    @Label("Spawn Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long spawnTime;
+
+    @Label("Exit Code")
+    int exitCode;
+
+    @Label("Timeout")
+    boolean timeout;
+
+    @Label("Output")
+    @DataAmount
+    long outputBytes;
+
+    @Label("Error Output")
+    @DataAmount
+    long errorBytes;
+
+    @Label("Running Processes")
+    int running;
+
+    @Label("Error")
+    String error;
+}
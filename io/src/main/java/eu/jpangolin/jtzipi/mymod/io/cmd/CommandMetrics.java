@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metrics of the commands launched by {@linkplain AbstractInstantCommand}.
+ * <p>
+ *     For each launch we measure
+ *     <ul>
+ *         <li>time to start the process (spawn)</li>
+ *         <li>wall time until the result</li>
+ *         <li>exit code and timeout</li>
+ *         <li>bytes of output and error output</li>
+ *         <li>number of running processes</li>
+ *     </ul>
+ *     Each launch is
+ *     <ul>
+ *         <li>passed to all {@linkplain ICommandMetrics} found by {@linkplain java.util.ServiceLoader} or registered</li>
+ *         <li>recorded as JFR event {@code eu.jpangolin.jtzipi.mymod.CommandExecution} if enabled</li>
+ *         <li>summed up per command name. See {@linkplain #getSummaries()}</li>
+ *     </ul>
+ * </p>
+ * Example to find the command taking most time
+ * <pre>
+ *     {@code
+ *     CommandMetrics.getSummaries().stream().findFirst().ifPresent( s -> LOG.info( "{}", s ) );
+ *     }
+ * </pre>
+ * @author jTzipi
+ */
+public final class CommandMetrics {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(CommandMetrics.class);
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    private static final ConcurrentMap<String, Stats> STATS_MAP = new ConcurrentHashMap<>();
+
+    private CommandMetrics() {
+        throw new AssertionError("What do you want");
+    }
+
+    /**
+     * Register a listener.
+     * @param metrics listener
+     * @throws NullPointerException if {@code metrics} is null
+     */
+    public static void register(final ICommandMetrics metrics) {
+        Objects.requireNonNull(metrics);
+        Listeners.LIST.addIfAbsent(metrics);
+    }
+
+    /**
+     * Unregister a listener.
+     * @param metrics listener
+     * @return {@code true} if it was registered
+     */
+    public static boolean unregister(final ICommandMetrics metrics) {
+        return Listeners.LIST.remove(metrics);
+    }
+
+    /**
+     * Return the number of running processes.
+     * @return running processes
+     */
+    public static int getRunning() {
+        return RUNNING.get();
+    }
+
+    /**
+     * Return the summary of all commands sorted by total wall time, highest first.
+     * @return summaries
+     */
+    public static List<Summary> getSummaries() {
+        List<Summary> sumL = new ArrayList<>();
+        STATS_MAP.forEach((name, stats) -> sumL.add(stats.summary(name)));
+        sumL.sort(Comparator.comparingLong(Summary::totalWallNanos).reversed());
+        return sumL;
+    }
+
+    /**
+     * Clear the summaries.
+     */
+    public static void reset() {
+        STATS_MAP.clear();
+    }
+
+    /**
+     * Start measuring a launch. Call before the process is started.
+     * @param cmd command
+     * @return probe
+     */
+    static Probe start(final ICommand cmd) {
+        return new Probe(cmd);
+    }
+
+    /**
+     * Return the bytes read by a capture or 0 if it is not done.
+     * @param captureF capture
+     * @return bytes read
+     */
+    static long bytes(final Future<BoundedCapture> captureF) {
+        if (!captureF.isDone() || captureF.isCancelled()) {
+            return 0L;
+        }
+        try {
+            return captureF.get().getTotalBytes();
+        } catch (ExecutionException | InterruptedException e) {
+            return 0L;
+        }
+    }
+
+    private static void publish(CommandExecution exec) {
+        STATS_MAP.computeIfAbsent(exec.command(), k -> new Stats()).add(exec);
+        for (ICommandMetrics metrics : Listeners.LIST) {
+            try {
+                metrics.onExecution(exec);
+            } catch (RuntimeException rE) {
+                LOG.warn("Metrics '{}' failed", metrics, rE);
+            }
+        }
+    }
+
+    /**
+     * Measure of one launch.
+     */
+    static final class Probe {
+
+        private final ICommand cmd;
+        private final CommandExecutionEvent event = new CommandExecutionEvent();
+        private final long startNanos;
+        private long spawnNanos = -1L;
+        private boolean done;
+
+        private Probe(ICommand cmd) {
+            this.cmd = cmd;
+            event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * The process is started.
+         * @param p process
+         */
+        void spawned(Process p) {
+            spawnNanos = System.nanoTime() - startNanos;
+            int running = RUNNING.incrementAndGet();
+            LOG.debug("Started '{}' (pid = {}) in {} us", cmd.getName(), p.pid(), spawnNanos / 1000L);
+            for (ICommandMetrics metrics : Listeners.LIST) {
+                try {
+                    metrics.onStart(cmd, spawnNanos, running);
+                } catch (RuntimeException rE) {
+                    LOG.warn("Metrics '{}' failed", metrics, rE);
+                }
+            }
+        }
+
+        /**
+         * The process failed to start.
+         * @param t error
+         */
+        void failed(Throwable t) {
+            finish(null, false, 0L, 0L, t);
+        }
+
+        /**
+         * The command is done.
+         * @param p process
+         * @param timeout whether the command did not end until timeout
+         * @param outputBytes bytes of output
+         * @param errorBytes bytes of error output
+         * @param t error (may be null)
+         */
+        void finished(Process p, boolean timeout, long outputBytes, long errorBytes, Throwable t) {
+            finish(p, timeout, outputBytes, errorBytes, t);
+        }
+
+        private synchronized void finish(Process p, boolean timeout, long outputBytes, long errorBytes, Throwable t) {
+            if (done) {
+                return;
+            }
+            done = true;
+            long wallNanos = System.nanoTime() - startNanos;
+            int running = null == p ? RUNNING.get() : RUNNING.getAndDecrement();
+            int exit = null == p || p.isAlive() ? CommandExecution.NO_EXIT : p.exitValue();
+            boolean isTimeout = timeout || t instanceof TimeoutException;
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = cmd.getName();
+                event.args = String.join(" ", cmd.getArgs());
+                event.spawnTime = spawnNanos;
+                event.exitCode = exit;
+                event.timeout = isTimeout;
+                event.outputBytes = outputBytes;
+                event.errorBytes = errorBytes;
+                event.running = running;
+                event.error = null == t ? null : t.toString();
+                event.commit();
+            }
+            publish(new CommandExecution(cmd.getName(), List.copyOf(cmd.getArgs()), spawnNanos, wallNanos, exit, isTimeout, outputBytes, errorBytes, t));
+        }
+    }
+
+    /**
+     * Summary of all launches of one command.
+     * @param command name of command
+     * @param count number of launches
+     * @param failures launches not successful
+     * @param timeouts launches with timeout
+     * @param totalSpawnNanos sum of spawn time in ns
+     * @param totalWallNanos sum of wall time in ns
+     * @param maxWallNanos max wall time in ns
+     * @param outputBytes sum of output bytes
+     */
+    public record Summary(String command,
+                          long count,
+                          long failures,
+                          long timeouts,
+                          long totalSpawnNanos,
+                          long totalWallNanos,
+                          long maxWallNanos,
+                          long outputBytes) {
+
+        /**
+         * Return the mean wall time.
+         * @return mean wall time
+         */
+        public Duration meanWallTime() {
+            return Duration.ofNanos(0L == count ? 0L : totalWallNanos / count);
+        }
+
+        /**
+         * Return the mean spawn time.
+         * @return mean spawn time
+         */
+        public Duration meanSpawnTime() {
+            return Duration.ofNanos(0L == count ? 0L : totalSpawnNanos / count);
+        }
+    }
+
+    /**
+     * Mutable sum of a command.
+     */
+    private static final class Stats {
+
+        private long count;
+        private long failures;
+        private long timeouts;
+        private long spawn;
+        private long wall;
+        private long maxWall;
+        private long out;
+
+        private synchronized void add(CommandExecution exec) {
+            count++;
+            if (!exec.isSuccess()) {
+                failures++;
+            }
+            if (exec.timeout()) {
+                timeouts++;
+            }
+            spawn += Math.max(0L, exec.spawnNanos());
+            wall += exec.wallNanos();
+            maxWall = Math.max(maxWall, exec.wallNanos());
+            out += exec.outputBytes();
+        }
+
+        private synchronized Summary summary(String name) {
+            return new Summary(name, count, failures, timeouts, spawn, wall, maxWall, out);
+        }
+    }
+
+    /**
+     * Lazy holder of the listeners loaded by service loader.
+     */
+    private static final class Listeners {
+
+        private static final CopyOnWriteArrayList<ICommandMetrics> LIST = load();
+
+        private static CopyOnWriteArrayList<ICommandMetrics> load() {
+            CopyOnWriteArrayList<ICommandMetrics> list = new CopyOnWriteArrayList<>();
+            try {
+                for (ICommandMetrics metrics : ServiceLoader.load(ICommandMetrics.class)) {
+                    LOG.info("Found command metrics '{}'", metrics.getClass().getName());
+                    list.add(metrics);
+                }
+            } catch (ServiceConfigurationError sce) {
+                LOG.warn("Failed to load command metrics", sce);
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Publisher of the output of a command line by line.
+ * <p>
+ *     Each subscriber launches its own process of the command. The lines of the output
+ *     are published as soon as they are read. Each line is mapped to an item. If the
+ *     mapping function returns {@code null} the line is skipped.
+ *     <br/>
+ *     The publisher respects back pressure. If the buffer of a subscriber is full we stop reading.
+ *     Then the pipe of the process fills and the process waits. So the memory is bounded by
+ *     the buffer size.
+ *     <br/>
+ *     If the subscription is cancelled the process and its descendants are destroyed.
+ *     If the process exit with a code other than 0 the subscriber receives an
+ *     {@linkplain IOException} with the error output. The error is sent after all items read before.
+ *     <br/>
+ *     The process is read by the shared pool of {@linkplain AbstractInstantCommand}.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     CommandOutputPublisher.lines( LinuxCmds.lsblk() ).subscribe( mySubscriber );
+ *     }
+ * </pre>
+ *
+ * @param <E> type of item
+ * @author jTzipi
+ */
+public final class CommandOutputPublisher<E> implements Flow.Publisher<E> {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(CommandOutputPublisher.class);
+    /**
+     * Default buffer size of each subscriber.
+     */
+    public static final int DEF_BUFFER_SIZE = Flow.defaultBufferSize();
+    private final ICommand command;
+    private final Function<String, ? extends E> mapper;
+    private final Executor executor;
+    private final int bufferSize;
+
+    private CommandOutputPublisher(final ICommand cmd, final Function<String, ? extends E> mapperFunction, final Executor exe, final int buffer) {
+        this.command = cmd;
+        this.mapper = mapperFunction;
+        this.executor = exe;
+        this.bufferSize = buffer;
+    }
+
+    /**
+     * Publisher of the lines of the command output.
+     * @param cmd command
+     * @return publisher
+     * @throws NullPointerException if {@code cmd} is null
+     */
+    public static CommandOutputPublisher<String> lines(final ICommand cmd) {
+        return of(cmd, Function.identity());
+    }
+
+    /**
+     * Publisher of items parsed from the lines of the command output.
+     * Items are delivered in the {@linkplain ForkJoinPool#commonPool()}.
+     * @param cmd command
+     * @param mapperFunction map a line to an item or {@code null} to skip the line
+     * @param <E> type of item
+     * @return publisher
+     * @throws NullPointerException if {@code cmd} or {@code mapperFunction} is null
+     */
+    public static <E> CommandOutputPublisher<E> of(final ICommand cmd, final Function<String, ? extends E> mapperFunction) {
+        return of(cmd, mapperFunction, ForkJoinPool.commonPool(), DEF_BUFFER_SIZE);
+    }
+
+    /**
+     * Publisher of items parsed from the lines of the command output.
+     * @param cmd command
+     * @param mapperFunction map a line to an item or {@code null} to skip the line
+     * @param exe executor delivering the items to the subscriber
+     * @param buffer max items buffered for each subscriber [1 .. ]
+     * @param <E> type of item
+     * @return publisher
+     * @throws NullPointerException if {@code cmd}, {@code mapperFunction} or {@code exe} is null
+     * @throws IllegalArgumentException if {@code buffer} is not positive
+     */
+    public static <E> CommandOutputPublisher<E> of(final ICommand cmd, final Function<String, ? extends E> mapperFunction, final Executor exe, final int buffer) {
+        Objects.requireNonNull(cmd);
+        Objects.requireNonNull(mapperFunction);
+        Objects.requireNonNull(exe);
+        if (buffer < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        return new CommandOutputPublisher<>(cmd, mapperFunction, exe, buffer);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super E> subscriber) {
+        Objects.requireNonNull(subscriber);
+
+        SubmissionPublisher<E> sp = new SubmissionPublisher<>(executor, bufferSize);
+        Run run = new Run(sp);
+        sp.subscribe(new CancelSubscriber<>(subscriber, run));
+
+        AbstractInstantCommand.getGobblerExecutor().execute(run);
+    }
+
+    /**
+     * Return the command.
+     * @return command
+     */
+    public ICommand getCommand() {
+        return command;
+    }
+
+    /**
+     * Return the buffer size of each subscriber.
+     * @return buffer size
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * One process of the command.
+     */
+    private final class Run implements Runnable {
+
+        private final SubmissionPublisher<E> sp;
+        private volatile Process proc;
+        private volatile boolean cancelled;
+        // sent by the subscriber after the last item
+        private volatile Throwable error;
+
+        private Run(final SubmissionPublisher<E> publisher) {
+            this.sp = publisher;
+        }
+
+        @Override
+        public void run() {
+
+            LOG.info("Start streaming command '{}' with arg '{}'", command.getName(), command.getArgs());
+            Process p;
+            try {
+                p = command.getProcessBuilder().start();
+            } catch (IOException ioE) {
+                LOG.warn("Failed to start command '{}'", command.getName(), ioE);
+                fail(ioE);
+                return;
+            }
+            proc = p;
+            if (cancelled) {
+                destroy();
+            }
+
+            // error output is read in parallel, so the process never blocks on a full error pipe
+            Future<BoundedCapture> errF = AbstractInstantCommand.getGobblerExecutor().submit(BoundedCapture.of(p.getErrorStream(), BoundedCapture.DEF_MAX_ERROR_BYTES));
+
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                String line;
+                while (!cancelled && null != (line = br.readLine())) {
+                    E item = mapper.apply(line);
+                    if (null != item) {
+                        // blocks if the buffer of the subscriber is full
+                        sp.submit(item);
+                    }
+                }
+            } catch (IOException ioE) {
+                if (!cancelled) {
+                    LOG.warn("Failed to read output of '{}'", command.getName(), ioE);
+                    destroy();
+                    fail(ioE);
+                }
+                return;
+            } catch (RuntimeException rE) {
+                if (cancelled) {
+                    // submit after close
+                    return;
+                }
+                LOG.warn("Failed to map output of '{}'", command.getName(), rE);
+                destroy();
+                fail(rE);
+                return;
+            }
+
+            if (cancelled) {
+                return;
+            }
+            try {
+                int exit = p.waitFor();
+                if (0 == exit) {
+                    sp.close();
+                } else {
+                    String err = errF.get(IInstantCommand.MIN_TIMEOUT, TimeUnit.SECONDS).getText();
+                    fail(new IOException("Command '" + command.getName() + "' exit with code " + exit + ": " + err.trim()));
+                }
+            } catch (InterruptedException iE) {
+                Thread.currentThread().interrupt();
+                destroy();
+                fail(iE);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Close the publisher with an error.
+         * {@linkplain SubmissionPublisher#closeExceptionally(Throwable)} would drop the buffered items.
+         * So we close normally and the subscriber sends the error after the last item.
+         */
+        private void fail(Throwable t) {
+            error = t;
+            sp.close();
+        }
+
+        private void cancel() {
+            cancelled = true;
+            destroy();
+            sp.close();
+        }
+
+        private void destroy() {
+            Process p = proc;
+            if (null != p) {
+                p.descendants().forEach(ProcessHandle::destroyForcibly);
+                p.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Subscriber destroying the process on cancel.
+     * @param <T> type
+     */
+    private static final class CancelSubscriber<T> implements Flow.Subscriber<T> {
+
+        private final Flow.Subscriber<? super T> delegate;
+        private final CommandOutputPublisher<?>.Run run;
+
+        private CancelSubscriber(final Flow.Subscriber<? super T> subscriber, final CommandOutputPublisher<?>.Run cmdRun) {
+            this.delegate = subscriber;
+            this.run = cmdRun;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    run.cancel();
+                }
+            });
+        }
+
+        @Override
+        public void onNext(T item) {
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            Throwable t = run.error;
+            if (null == t) {
+                delegate.onComplete();
+            } else {
+                delegate.onError(t);
+            }
+        }
+    }
+}
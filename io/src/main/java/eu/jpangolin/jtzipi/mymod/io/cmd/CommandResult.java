@@ -22,12 +22,32 @@ package eu.jpangolin.jtzipi.mymod.io.cmd;
  * @param result raw result
  * @param proc proc
  * @param t error (may be null)
+ * @param truncated whether the raw result is truncated
  * @param <R>
  *
  * @author jTzipi
  */
-public record CommandResult<R>( R object, String result, Process proc, Throwable t) implements ICommandResult {
+public record CommandResult<R>( R object, String result, Process proc, Throwable t, boolean truncated) implements ICommandResult {
 
+    /**
+     * Result not truncated.
+     * @param object Result object should be a record
+     * @param result raw result
+     * @param proc proc
+     * @param t error (may be null)
+     */
+    public CommandResult( R object, String result, Process proc, Throwable t ) {
+        this(object, result, proc, t, false);
+    }
+
+    /**
+     * Return a copy with the truncated flag.
+     * @param truncatedB whether the raw result is truncated
+     * @return copy
+     */
+    public CommandResult<R> withTruncated( boolean truncatedB ) {
+        return truncatedB == truncated ? this : new CommandResult<>(object, result, proc, t, truncatedB);
+    }
 
     @Override
     public Process getProcess() {
@@ -44,5 +64,10 @@ public record CommandResult<R>( R object, String result, Process proc, Throwable
         return result;
     }
 
+    @Override
+    public boolean isTruncated() {
+        return truncated;
+    }
+
 
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the results of idempotent commands.
+ * <p>
+ *     A result is cached by the type, name and arguments of the command for the time to live.
+ *     Only commands returning {@code true} for {@linkplain IInstantCommand#isIdempotent()} are
+ *     cached. All other commands are launched each time.
+ *     <br/>
+ *     If a command with the same key is running all callers wait for the same process.
+ *     <br/>
+ *     Results with an error are not cached. Expired results are removed when a command is launched.
+ *     <br/>
+ *     Each caller gets its own future. So completing or cancelling it does not affect the other callers.
+ *     <br/>
+ *     Caution: all callers share the same result object. So do not modify it.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     CommandResult<LsblkCmd.Lsblk> result = CommandResultCache.shared().launch( LinuxCmds.lsblk() );
+ *     }
+ * </pre>
+ * @author jTzipi
+ */
+public final class CommandResultCache {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(CommandResultCache.class);
+    /**
+     * Default time to live.
+     */
+    public static final Duration DEF_TTL = Duration.ofSeconds(5L);
+    private final ConcurrentMap<Key, Entry> cacheMap = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder launches = new LongAdder();
+    private final long ttlNanos;
+
+    /**
+     * Cache with {@linkplain #DEF_TTL}.
+     */
+    public CommandResultCache() {
+        this(DEF_TTL);
+    }
+
+    /**
+     * Cache.
+     * @param ttl time to live of a result
+     * @throws NullPointerException if {@code ttl} is null
+     * @throws IllegalArgumentException if {@code ttl} is negative
+     */
+    public CommandResultCache(final Duration ttl) {
+        Objects.requireNonNull(ttl);
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("Time to live is negative");
+        }
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Return the shared cache with {@linkplain #DEF_TTL}.
+     * @return shared cache
+     */
+    public static CommandResultCache shared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * Launch the command or return the cached result.
+     * @param cmd command
+     * @param <T> type of result
+     * @return result
+     * @throws IOException if the command failed to start
+     * @throws InterruptedException if interrupted while waiting
+     * @throws NullPointerException if {@code cmd} is null
+     */
+    public <T> CommandResult<T> launch(final IInstantCommand<T> cmd) throws IOException, InterruptedException {
+        Objects.requireNonNull(cmd);
+        if (!cmd.isIdempotent()) {
+            return cmd.launch();
+        }
+        try {
+            return launchAsync(cmd).get();
+        } catch (ExecutionException eE) {
+            Throwable cause = eE.getCause();
+            if (cause instanceof IOException ioE) {
+                throw ioE;
+            }
+            throw new IOException("Failed to launch '" + cmd.getName() + "'", cause);
+        }
+    }
+
+    /**
+     * Launch the command async or return the cached result.
+     * @param cmd command
+     * @param <T> type of result
+     * @return future of result
+     * @throws NullPointerException if {@code cmd} is null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<CommandResult<T>> launchAsync(final IInstantCommand<T> cmd) {
+        Objects.requireNonNull(cmd);
+        if (!cmd.isIdempotent()) {
+            return cmd.launchAsync();
+        }
+
+        Key key = Key.of(cmd);
+        for (; ; ) {
+            Entry entry = cacheMap.get(key);
+            if (null != entry && !entry.isExpired()) {
+                hits.increment();
+                // the type of command is part of the key
+                return (CompletableFuture<CommandResult<T>>) (CompletableFuture<?>) entry.resultF.copy();
+            }
+
+            Entry created = new Entry();
+            boolean own = null == entry ? null == cacheMap.putIfAbsent(key, created) : cacheMap.replace(key, entry, created);
+            if (own) {
+                launches.increment();
+                LOG.debug("Launch '{}' for cache", key);
+                // a launch is far more expensive than the scan
+                cacheMap.values().removeIf(Entry::isExpired);
+                cmd.launchAsync().whenComplete((result, t) -> {
+                    // no result is not cached too
+                    if (null != t || null == result || result.isError()) {
+                        cacheMap.remove(key, created);
+                    } else {
+                        created.expireNanos = System.nanoTime() + ttlNanos;
+                    }
+                    if (null != t) {
+                        created.resultF.completeExceptionally(t instanceof CompletionException && null != t.getCause() ? t.getCause() : t);
+                    } else {
+                        created.resultF.complete(result);
+                    }
+                });
+                return (CompletableFuture<CommandResult<T>>) (CompletableFuture<?>) created.resultF.copy();
+            }
+        }
+    }
+
+    /**
+     * Remove the cached result of the command.
+     * A running launch is not stopped but not cached.
+     * @param cmd command
+     * @throws NullPointerException if {@code cmd} is null
+     */
+    public void invalidate(final IInstantCommand<?> cmd) {
+        Objects.requireNonNull(cmd);
+        cacheMap.remove(Key.of(cmd));
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public void invalidateAll() {
+        cacheMap.clear();
+    }
+
+    /**
+     * Return number of cached or running commands.
+     * @return size
+     */
+    public int size() {
+        return cacheMap.size();
+    }
+
+    /**
+     * Return number of results returned from the cache.
+     * @return hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Return number of commands launched for the cache.
+     * @return launches
+     */
+    public long getLaunches() {
+        return launches.sum();
+    }
+
+    /**
+     * Key of a cached command.
+     * @param type type of command
+     * @param name name
+     * @param args arguments
+     */
+    private record Key(Class<?> type, String name, List<String> args) {
+
+        private static Key of(IInstantCommand<?> cmd) {
+            return new Key(cmd.getClass(), cmd.getName(), List.copyOf(cmd.getArgs()));
+        }
+    }
+
+    /**
+     * Cached or running command.
+     */
+    private static final class Entry {
+
+        private final CompletableFuture<CommandResult<?>> resultF = new CompletableFuture<>();
+        // running until completed
+        private volatile long expireNanos = Long.MAX_VALUE;
+
+        private boolean isExpired() {
+            long exp = expireNanos;
+            return Long.MAX_VALUE != exp && System.nanoTime() - exp >= 0L;
+        }
+    }
+
+    private static final class Holder {
+        private static final CommandResultCache SHARED = new CommandResultCache();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import eu.jpangolin.jtzipi.mymod.io.OS;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the executables in the directories of {@code PATH}.
+ * <p>
+ *     This resolves a program like the 'which' command without launching a process.
+ *     All directories are read once and the executables are stored in a map of name to paths.
+ *     The paths are in the order of the directories. So the first path is the one the shell would launch.
+ *     <br/>
+ *     Adding or removing a file changes the modification time of the directory.
+ *     The modification times are compared at most every {@linkplain #DEF_CHECK_INTERVAL_MS} ms
+ *     and if one changed the index is read again. A lookup between two checks is a map lookup only.
+ *     <br/>
+ *     On Windows the extensions of {@code PATHEXT} are stripped. So 'cmd' finds 'cmd.exe'.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     Optional<Path> ls = ExecutableIndex.shared().find( "ls" );
+ *     }
+ * </pre>
+ * @author jTzipi
+ */
+public final class ExecutableIndex {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ExecutableIndex.class);
+    /**
+     * Default interval to check the directories for changes.
+     */
+    public static final long DEF_CHECK_INTERVAL_MS = 1000L;
+    private static final List<String> WIN_EXT = List.of(".com", ".exe", ".bat", ".cmd");
+
+    private final List<Path> dirList;
+    private final long checkIntervalNanos;
+    private final List<String> extList;
+    private volatile Snapshot snapshot;
+
+    private ExecutableIndex(final List<Path> dirList, final long checkIntervalMs, final List<String> extList) {
+        this.dirList = dirList;
+        this.checkIntervalNanos = checkIntervalMs * 1_000_000L;
+        this.extList = extList;
+    }
+
+    /**
+     * Return the shared index of {@code PATH} of this process.
+     * @return shared index
+     */
+    public static ExecutableIndex shared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * Index of the directories.
+     * @param dirList directories in order of lookup
+     * @return index
+     * @throws NullPointerException if {@code dirList} is null
+     */
+    public static ExecutableIndex of(final List<Path> dirList) {
+        return of(dirList, DEF_CHECK_INTERVAL_MS);
+    }
+
+    /**
+     * Index of the directories.
+     * @param dirList directories in order of lookup
+     * @param checkIntervalMs interval to check the directories for changes in ms
+     * @return index
+     * @throws NullPointerException if {@code dirList} is null
+     * @throws IllegalArgumentException if {@code checkIntervalMs} is negative
+     */
+    public static ExecutableIndex of(final List<Path> dirList, final long checkIntervalMs) {
+        Objects.requireNonNull(dirList);
+        if (checkIntervalMs < 0L) {
+            throw new IllegalArgumentException("Check interval is negative");
+        }
+        return new ExecutableIndex(List.copyOf(dirList), checkIntervalMs, List.of());
+    }
+
+    /**
+     * Index of the directories of a path variable like {@code /usr/local/bin:/usr/bin}.
+     * @param pathStr path variable, may be null
+     * @return index
+     */
+    public static ExecutableIndex ofPathVariable(final String pathStr) {
+        List<Path> dirL = new ArrayList<>();
+        if (null != pathStr) {
+            for (String dir : pathStr.split(File.pathSeparator)) {
+                if (dir.isBlank()) {
+                    continue;
+                }
+                try {
+                    dirL.add(Paths.get(dir));
+                } catch (InvalidPathException ipE) {
+                    LOG.warn("Skip invalid PATH entry '{}'", dir);
+                }
+            }
+        }
+        List<String> extL = OS.WINDOWS == OS.getSystemOS() ? windowsExtensions() : List.of();
+        return new ExecutableIndex(List.copyOf(dirL), DEF_CHECK_INTERVAL_MS, extL);
+    }
+
+    /**
+     * Return the first executable with the name.
+     * <p>
+     *     A name containing a separator is not looked up but returned if it is executable.
+     * </p>
+     * @param nameStr name of program
+     * @return path to executable or empty
+     * @throws NullPointerException if {@code nameStr} is null
+     */
+    public Optional<Path> find(final String nameStr) {
+        List<Path> pathL = findAll(nameStr);
+        return pathL.isEmpty() ? Optional.empty() : Optional.of(pathL.get(0));
+    }
+
+    /**
+     * Return all executables with the name in order of the directories.
+     * @param nameStr name of program
+     * @return paths to executables, may be empty
+     * @throws NullPointerException if {@code nameStr} is null
+     */
+    public List<Path> findAll(final String nameStr) {
+        Objects.requireNonNull(nameStr);
+        if (nameStr.indexOf('/') >= 0 || nameStr.indexOf(File.separatorChar) >= 0) {
+            try {
+                Path path = Paths.get(nameStr);
+                return isExecutable(path) ? List.of(path) : List.of();
+            } catch (InvalidPathException ipE) {
+                return List.of();
+            }
+        }
+        return current().exeMap().getOrDefault(key(nameStr), List.of());
+    }
+
+    /**
+     * Return whether an executable with the name exists.
+     * @param nameStr name of program
+     * @return {@code true} if found
+     * @throws NullPointerException if {@code nameStr} is null
+     */
+    public boolean contains(final String nameStr) {
+        return !findAll(nameStr).isEmpty();
+    }
+
+    /**
+     * Return the number of executable names.
+     * @return number of names
+     */
+    public int size() {
+        return current().exeMap().size();
+    }
+
+    /**
+     * Return the indexed directories.
+     * @return directories
+     */
+    public List<Path> getDirs() {
+        return dirList;
+    }
+
+    /**
+     * Read the directories again on next lookup.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot current() {
+        Snapshot snap = snapshot;
+        long now = System.nanoTime();
+        if (null != snap && now - snap.checkedNanos() < checkIntervalNanos) {
+            return snap;
+        }
+        synchronized (this) {
+            snap = snapshot;
+            if (null != snap && now - snap.checkedNanos() < checkIntervalNanos) {
+                return snap;
+            }
+            long[] mtimes = mtimes();
+            if (null != snap && Arrays.equals(mtimes, snap.mtimes())) {
+                snap = new Snapshot(snap.exeMap(), mtimes, now);
+            } else {
+                snap = new Snapshot(read(), mtimes, now);
+            }
+            snapshot = snap;
+            return snap;
+        }
+    }
+
+    private long[] mtimes() {
+        long[] mtimes = new long[dirList.size()];
+        for (int i = 0; i < mtimes.length; i++) {
+            try {
+                mtimes[i] = Files.getLastModifiedTime(dirList.get(i)).to(TimeUnit.NANOSECONDS);
+            } catch (IOException ioE) {
+                // not existing
+                mtimes[i] = -1L;
+            }
+        }
+        return mtimes;
+    }
+
+    private Map<String, List<Path>> read() {
+        long start = System.nanoTime();
+        Map<String, List<Path>> exeMap = new HashMap<>();
+        for (Path dir : dirList) {
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path path : ds) {
+                    String nameStr = path.getFileName().toString();
+                    String key = key(nameStr);
+                    // on Windows only files with an extension of PATHEXT
+                    if ((extList.isEmpty() || key.length() < nameStr.length()) && isExecutable(path)) {
+                        exeMap.computeIfAbsent(key, k -> new ArrayList<>(1)).add(path);
+                    }
+                }
+            } catch (IOException ioE) {
+                LOG.warn("Failed to read dir '{}'", dir, ioE);
+            }
+        }
+        exeMap.replaceAll((k, v) -> List.copyOf(v));
+        LOG.debug("Read {} executables of {} dirs in {} ms", exeMap.size(), dirList.size(), (System.nanoTime() - start) / 1_000_000L);
+        return Map.copyOf(exeMap);
+    }
+
+    private static boolean isExecutable(Path path) {
+        return Files.isRegularFile(path) && Files.isExecutable(path);
+    }
+
+    /**
+     * Name without Windows extension.
+     */
+    private String key(String nameStr) {
+        if (extList.isEmpty()) {
+            return nameStr;
+        }
+        String lower = nameStr.toLowerCase(Locale.ROOT);
+        for (String ext : extList) {
+            if (lower.endsWith(ext)) {
+                return lower.substring(0, lower.length() - ext.length());
+            }
+        }
+        return lower;
+    }
+
+    private static List<String> windowsExtensions() {
+        String pathExt = System.getenv("PATHEXT");
+        if (null == pathExt || pathExt.isBlank()) {
+            return WIN_EXT;
+        }
+        return Arrays.stream(pathExt.split(";"))
+                .filter(ext -> !ext.isBlank())
+                .map(ext -> ext.toLowerCase(Locale.ROOT))
+                .toList();
+    }
+
+    /**
+     * Executables read at a time.
+     * @param exeMap name to executables
+     * @param mtimes modification times of the directories
+     * @param checkedNanos time of last check
+     */
+    private record Snapshot(Map<String, List<Path>> exeMap, long[] mtimes, long checkedNanos) {
+    }
+
+    /**
+     * Lazy holder of the shared index.
+     */
+    private static final class Holder {
+        private static final ExecutableIndex SHARED = ofPathVariable(System.getenv("PATH"));
+    }
+}
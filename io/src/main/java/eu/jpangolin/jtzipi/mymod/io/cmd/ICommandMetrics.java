@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+/**
+ * Listener of launched commands.
+ * <p>
+ *     Implementations are found with {@linkplain java.util.ServiceLoader} on first launch of a command.
+ *     Add the class name to {@code META-INF/services/eu.jpangolin.jtzipi.mymod.io.cmd.ICommandMetrics}
+ *     or register an instance with {@linkplain CommandMetrics#register(ICommandMetrics)}.
+ *     <br/>
+ *     The methods are called by the thread launching or reading the command. So they should return fast.
+ *     Errors thrown are logged and ignored.
+ * </p>
+ * @author jTzipi
+ */
+public interface ICommandMetrics {
+
+    /**
+     * A process was started.
+     * @param cmd command
+     * @param spawnNanos time to start the process in ns
+     * @param running number of running processes including this
+     */
+    default void onStart(ICommand cmd, long spawnNanos, int running) {
+    }
+
+    /**
+     * A command is done or failed to start.
+     * @param execution execution
+     */
+    void onExecution(CommandExecution execution);
+}
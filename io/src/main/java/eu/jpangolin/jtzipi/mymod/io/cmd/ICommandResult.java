@@ -54,4 +54,16 @@ public interface ICommandResult {
      */
     String getRawResult();
 
+    /**
+     * Check whether the raw result is truncated.
+     * <p>
+     *     If the output of a command is larger than the max size only the head and the tail
+     *     are kept.
+     * </p>
+     * @return {@code true} if bytes of the output were dropped
+     */
+    default boolean isTruncated() {
+        return false;
+    }
+
 }
@@ -17,6 +17,10 @@
 package eu.jpangolin.jtzipi.mymod.io.cmd;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,6 +43,18 @@ public interface IInstantCommand<T> extends ICommand {
      */
     TimeUnit DEFAULT_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
+    /**
+     * Return whether the command has no side effect and the result only depends on
+     * the name and the arguments of the command (and the state of the system).
+     * <p>
+     *     Results of idempotent commands may be cached by {@linkplain CommandResultCache}.
+     * </p>
+     * @return {@code true} if the result can be cached
+     */
+    default boolean isIdempotent() {
+        return false;
+    }
+
     /**
      * Launch command and wrap the {@linkplain Process} .
      * The command will wait for {@link #DEFAULT_TIMEOUT} {@link #DEFAULT_TIMEOUT_UNIT} to
@@ -63,4 +79,45 @@ public interface IInstantCommand<T> extends ICommand {
      * @throws InterruptedException IE
      */
     CommandResult<T> launch(long timeout, TimeUnit timeUnit) throws IOException, InterruptedException;
+
+    /**
+     * Launch the command async with {@link #DEFAULT_TIMEOUT} {@link #DEFAULT_TIMEOUT_UNIT}.
+     * The result is parsed in the {@linkplain ForkJoinPool#commonPool()}.
+     *
+     * @return future of the parsed result
+     */
+    default CompletableFuture<CommandResult<T>> launchAsync() {
+        return launchAsync(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Launch the command async.
+     * <p>
+     *     If the command did not exit until timeout it is destroyed and the future completes
+     *     with a result with an error. If the future is cancelled the command is destroyed.
+     *     <br/>
+     *     If the command can not be started the future completes exceptionally.
+     *     <br/>
+     *     This default implementation blocks a thread of the {@code executor} while
+     *     calling {@link #launch(long, TimeUnit)}.
+     * </p>
+     * @param timeout timeout [{@linkplain #MIN_TIMEOUT} .. ]
+     * @param timeUnit unit
+     * @param executor executor to parse the result
+     * @return future of the parsed result
+     * @throws NullPointerException if {@code executor} is null
+     */
+    default CompletableFuture<CommandResult<T>> launchAsync(long timeout, TimeUnit timeUnit, Executor executor) {
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return launch(timeout, timeUnit);
+            } catch (IOException ioE) {
+                throw new CompletionException(ioE);
+            } catch (InterruptedException iE) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(iE);
+            }
+        }, executor);
+    }
 }
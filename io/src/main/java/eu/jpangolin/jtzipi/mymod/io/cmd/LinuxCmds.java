@@ -17,6 +17,7 @@
 package eu.jpangolin.jtzipi.mymod.io.cmd;
 
 import eu.jpangolin.jtzipi.mymod.io.cmd.linux.LsblkCmd;
+import eu.jpangolin.jtzipi.mymod.io.cmd.linux.UdevadmMonitorCmd;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -41,5 +42,27 @@ public final class LinuxCmds {
         return new LsblkCmd();
     }
 
+    /**
+     * Launch 'lsblk' command with json output.
+     * <p>
+     *     The result is the same type as {@linkplain #lsblk()}.
+     *     Holders of a partition (crypt, lvm, raid) are listed as partitions of their disk too.
+     * </p>
+     *
+     * @return Lsblk Command
+     */
+    public static LsblkCmd lsblkJson() {
+        return LsblkCmd.ofJson();
+    }
+
+    /**
+     * Monitor udev events of block devices with 'udevadm monitor'.
+     *
+     * @return Udevadm Command
+     */
+    public static UdevadmMonitorCmd udevadmMonitorBlock() {
+        return UdevadmMonitorCmd.of(UdevadmMonitorCmd.SUBSYSTEM_BLOCK);
+    }
+
 
 }
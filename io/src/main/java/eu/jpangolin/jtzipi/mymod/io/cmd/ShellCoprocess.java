@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-running shell launching many small commands.
+ * <p>
+ *     Each {@linkplain AbstractInstantCommand} starts a new process. If many small commands are
+ *     launched the cost of starting the process is higher than the command.
+ *     This starts one {@code /bin/sh} and writes the commands to its input.
+ *     <br/>
+ *     After each command the shell prints a unique sentinel with the exit code to the
+ *     output and a sentinel to the error stream. The output until the sentinel is the
+ *     raw result of the command. The raw result is parsed by the command like with
+ *     {@linkplain AbstractInstantCommand#launch()}.
+ *     <br/>
+ *     The name and arguments are quoted. So no shell syntax of arguments is evaluated.
+ *     The input of the command is {@code /dev/null}.
+ *     <br/>
+ *     Differences to {@linkplain AbstractInstantCommand#launch()}
+ *     <ul>
+ *         <li>the process of the result is the shell</li>
+ *         <li>an exit code other than 0 is an {@linkplain IOException} with the error output</li>
+ *         <li>if a command does not end until timeout the shell is destroyed and started again for the next command</li>
+ *         <li>commands are launched one after the other</li>
+ *     </ul>
+ *     The output and error stream are read by two daemon threads owned by this shell.
+ *     So the shell does not wait for threads shared with other commands. The threads end on
+ *     {@linkplain #close()} or after being idle.
+ *     Caution: a command changing the state of the shell (like 'cd' or 'exit') changes it for all
+ *     following commands.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     try( ShellCoprocess sh = ShellCoprocess.start() ) {
+ *         for( String prog : progs ) {
+ *             CommandResult<?> which = sh.run( WhichCmd.of( prog ) );
+ *         }
+ *     }
+ *     }
+ * </pre>
+ * @author jTzipi
+ */
+public final class ShellCoprocess implements AutoCloseable {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ShellCoprocess.class);
+    /**
+     * Default shell.
+     */
+    public static final Path DEF_SHELL = Paths.get("/bin/sh");
+    private static final int BUF = 8192;
+    // seconds an idle reader thread is kept
+    private static final long READER_KEEP_ALIVE_SEC = 30L;
+    // millis the shell may need to exit before it is destroyed
+    private static final long EXIT_GRACE_MILLIS = 1000L;
+    private static final AtomicInteger CNT = new AtomicInteger();
+
+    private final Path shell;
+    private final String sentinel = "__mymod_" + UUID.randomUUID().toString().replace("-", "");
+    // one thread for the output and one for the error stream
+    private final ExecutorService readerExe = createReaderExecutor();
+    private Process proc;
+    private Writer stdin;
+    private Reader stdout;
+    private Reader stderr;
+    private long commands;
+    private long starts;
+    private boolean closed;
+
+    private ShellCoprocess(final Path shellPath) {
+        this.shell = shellPath;
+    }
+
+    /**
+     * Start {@linkplain #DEF_SHELL}.
+     * @return coprocess
+     * @throws IOException if the shell failed to start
+     */
+    public static ShellCoprocess start() throws IOException {
+        return start(DEF_SHELL);
+    }
+
+    /**
+     * Start a shell.
+     * @param shellPath path to a POSIX shell
+     * @return coprocess
+     * @throws IOException if the shell failed to start
+     * @throws NullPointerException if {@code shellPath} is null
+     */
+    public static ShellCoprocess start(final Path shellPath) throws IOException {
+        Objects.requireNonNull(shellPath);
+        ShellCoprocess sc = new ShellCoprocess(shellPath);
+        synchronized (sc) {
+            sc.startShell();
+        }
+        return sc;
+    }
+
+    /**
+     * Run a command with the default timeout.
+     * @param cmd command
+     * @param <T> type of result
+     * @return result parsed by the command
+     * @throws IOException if the shell failed to start or is closed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws NullPointerException if {@code cmd} is null
+     */
+    public <T> CommandResult<T> run(final AbstractInstantCommand<T> cmd) throws IOException, InterruptedException {
+        return run(cmd, IInstantCommand.DEFAULT_TIMEOUT, IInstantCommand.DEFAULT_TIMEOUT_UNIT);
+    }
+
+    /**
+     * Run a command.
+     * @param cmd command
+     * @param timeout timeout
+     * @param timeUnit unit of timeout
+     * @param <T> type of result
+     * @return result parsed by the command
+     * @throws IOException if the shell failed to start or is closed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws NullPointerException if {@code cmd} is null
+     */
+    public synchronized <T> CommandResult<T> run(final AbstractInstantCommand<T> cmd, long timeout, TimeUnit timeUnit) throws IOException, InterruptedException {
+        Objects.requireNonNull(cmd);
+        if (closed) {
+            throw new IOException("Shell is closed");
+        }
+        timeout = Math.max(timeout, IInstantCommand.MIN_TIMEOUT);
+        if (null == timeUnit) {
+            timeUnit = IInstantCommand.DEFAULT_TIMEOUT_UNIT;
+        }
+        if (null == proc || !proc.isAlive()) {
+            startShell();
+        }
+
+        long id = ++commands;
+        String mark = sentinel + "_" + id;
+        LOG.debug("Run command '{}' with arg '{}' in shell", cmd.getName(), cmd.getArgs());
+        Process p = proc;
+        try {
+            stdin.write(line(cmd, mark));
+            stdin.flush();
+        } catch (IOException ioE) {
+            // shell died
+            destroy();
+            return cmd.parse(ICommandResult.RAW_RESULT_ERROR, ioE, p);
+        }
+
+        Reader out = stdout;
+        Reader err = stderr;
+        CompletableFuture<String> outF = CompletableFuture.supplyAsync(() -> readFrame(out, mark), readerExe);
+        CompletableFuture<String> errF = CompletableFuture.supplyAsync(() -> readFrame(err, mark), readerExe);
+        String outFrame;
+        String errFrame;
+        // one deadline for both streams
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        try {
+            outFrame = outF.get(timeout, timeUnit);
+            errFrame = errF.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException tE) {
+            LOG.warn("Command '{}' did not end until timeout. Restart shell", cmd.getName());
+            destroy();
+            return cmd.parse(ICommandResult.RAW_RESULT_ERROR, tE, p);
+        } catch (InterruptedException iE) {
+            // the shell is in an unknown state
+            destroy();
+            throw iE;
+        } catch (ExecutionException eE) {
+            destroy();
+            return cmd.parse(ICommandResult.RAW_RESULT_ERROR, eE.getCause(), p);
+        }
+
+        // output ends with '<sentinel> <exit code>'
+        int sep = outFrame.lastIndexOf('\n' + mark + ' ');
+        int exit = Integer.parseInt(outFrame.substring(sep + mark.length() + 2).trim());
+        String raw = normalize(outFrame.substring(0, sep));
+        String error = errFrame.substring(0, errFrame.lastIndexOf('\n' + mark));
+        if (0 != exit) {
+            return cmd.parse(ICommandResult.RAW_RESULT_ERROR, new IOException("Command '" + cmd.getName() + "' exit with " + exit + ": " + error.trim()), p);
+        }
+        return cmd.parse(raw, null, p);
+    }
+
+    /**
+     * Return the number of commands run.
+     * @return commands
+     */
+    public synchronized long getCommands() {
+        return commands;
+    }
+
+    /**
+     * Return how often the shell was started.
+     * @return starts
+     */
+    public synchronized long getStarts() {
+        return starts;
+    }
+
+    /**
+     * Return whether the shell is running.
+     * @return {@code true} if running
+     */
+    public synchronized boolean isAlive() {
+        return null != proc && proc.isAlive();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // a read still running ends with the shell
+        readerExe.shutdown();
+        if (null != proc && proc.isAlive()) {
+            try {
+                stdin.write("exit\n");
+                stdin.flush();
+                if (proc.waitFor(EXIT_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (IOException ioE) {
+                LOG.debug("Failed to exit shell", ioE);
+            } catch (InterruptedException iE) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        destroy();
+    }
+
+    private static ExecutorService createReaderExecutor() {
+        int id = CNT.incrementAndGet();
+        AtomicInteger cnt = new AtomicInteger();
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(2,
+                2,
+                READER_KEEP_ALIVE_SEC,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "shell-reader-" + id + "-" + cnt.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        // so an idle shell keeps no thread
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+    private void startShell() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(shell.toString());
+        proc = pb.start();
+        Charset cs = Charset.defaultCharset();
+        stdin = new OutputStreamWriter(proc.getOutputStream(), cs);
+        stdout = new BufferedReader(new InputStreamReader(proc.getInputStream(), cs), BUF);
+        stderr = new BufferedReader(new InputStreamReader(proc.getErrorStream(), cs), BUF);
+        starts++;
+        LOG.info("Started shell '{}' (pid = {})", shell, proc.pid());
+    }
+
+    private void destroy() {
+        if (null == proc) {
+            return;
+        }
+        proc.descendants().forEach(ProcessHandle::destroyForcibly);
+        proc.destroyForcibly();
+        proc = null;
+    }
+
+    /**
+     * Return the shell input for the command.
+     */
+    private static String line(ICommand cmd, String mark) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(quote(cmd.getName()));
+        for (String arg : cmd.getArgs()) {
+            sb.append(' ').append(quote(arg));
+        }
+        sb.append(" </dev/null\n")
+                .append("printf '\\n%s %d\\n' '").append(mark).append("' \"$?\"\n")
+                .append("printf '\\n%s\\n' '").append(mark).append("' >&2\n");
+        return sb.toString();
+    }
+
+    /**
+     * Quote for the shell. A single quote is written as {@code '\''}.
+     */
+    static String quote(String str) {
+        return "'" + str.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Read until a line starting with the sentinel is complete.
+     */
+    private static String readFrame(Reader reader, String mark) {
+        String start = '\n' + mark;
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[BUF];
+        int from = 0;
+        try {
+            for (; ; ) {
+                int n = reader.read(buf);
+                if (n < 0) {
+                    throw new IllegalStateException("Shell output ended");
+                }
+                sb.append(buf, 0, n);
+                int i = sb.indexOf(start, from);
+                if (i < 0) {
+                    // sentinel may start in this chunk and end in the next
+                    from = Math.max(0, sb.length() - start.length());
+                    continue;
+                }
+                int end = sb.indexOf("\n", i + 1);
+                if (end >= 0) {
+                    return sb.substring(0, end);
+                }
+                from = i;
+            }
+        } catch (IOException ioE) {
+            throw new IllegalStateException("Failed to read shell output", ioE);
+        }
+    }
+
+    /**
+     * Each line ends with a newline like the output read by {@linkplain BoundedCapture}.
+     */
+    private static String normalize(String out) {
+        return out.isEmpty() || out.endsWith("\n") ? out : out + "\n";
+    }
+}
@@ -31,6 +31,12 @@ import static java.util.stream.Collectors.joining;
 /**
  * Wrapper for 'lsblk' command.
  * For details see <a href="https://www.linux.org/docs/man8/lsblk.html">this</a> link.
+ * <p>
+ *     There are two output modes. {@linkplain #ofJson()} reads the json output with a small
+ *     streaming parser. This knows nested devices and unknown device types.
+ *     <br/>
+ *     The default constructor reads the pairs output line by line with a regular expression.
+ * </p>
  */
 public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
 
@@ -54,6 +60,7 @@ public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
     private static final Pattern LSBLK_COLUMN_PATTERN = Pattern.compile(LSBLK_REG);
 
     private static final String CMD = "lsblk";  // the command name
+    private final boolean json;
 
     /**
      * Default Option we set for 'lsblk'.
@@ -82,6 +89,18 @@ public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
                     LsblkColumn.UUID
             ).map(Supplier::get).collect( joining(",")));
 
+    /**
+     * Option for json output.
+     *
+     * -J: json
+     * -b: byte size
+     * -o: Option to display(Must be last). Order does not matter.
+     */
+    private static final List<Supplier<String>> ARGS_JSON =  List.of(LsblkCmdOptions.JSON,
+            LsblkCmdOptions.BINARY,
+            LsblkCmdOptions.OUTPUT,
+            () -> Stream.of(LsblkColumn.values()).map(Supplier::get).collect( joining(",")));
+
 
     /**
      * All options for 'lsblk'.
@@ -313,16 +332,38 @@ public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
      */
     LsblkCmd(final List<String> cmdArgStr) {
         super(CMD, cmdArgStr);
+        this.json = cmdArgStr.contains(LsblkCmdOptions.JSON.get());
+    }
+
+    /**
+     * Lsblk command with json output.
+     * @return lsblk command
+     */
+    public static LsblkCmd ofJson() {
+        return new LsblkCmd(ARGS_JSON.stream().map(Supplier::get).toList());
     }
 
 
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
     @Override
     protected CommandResult<Lsblk> parse(String rawResultStr, Throwable t, Process proc) {
 
         // if we have no error nor error input we
         // parse raw result
 
-        Lsblk lsblk = null == t  ? parseLsblk(rawResultStr) : null;
+        Lsblk lsblk = null;
+        if( null == t ) {
+            try {
+                lsblk = json ? LsblkJsonParser.parse(rawResultStr) : parseLsblk(rawResultStr);
+            } catch (IllegalStateException ise) {
+                LOG.warn("Failed to parse lsblk output", ise);
+                t = ise;
+            }
+        }
 
         return new CommandResult<>(lsblk, rawResultStr, proc, t);
     }
@@ -398,7 +439,7 @@ public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
         // LOG.info( "Try to parse row = {}", row );
         Matcher matcher = LSBLK_COLUMN_PATTERN.matcher(row);
         boolean found = matcher.find();
-        LOG.info("Found Lsblk option? =  {}", found);
+        LOG.debug("Found Lsblk option? =  {}", found);
         EnumMap<LsblkColumn, String> ret = new EnumMap<>(LsblkColumn.class);
 
         for (LsblkColumn lsblkColumn : LsblkColumn.values()) {
@@ -421,7 +462,7 @@ public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
                 map.get(LsblkColumn.LABEL),
                 map.get(LsblkColumn.NAME));
 
-        LOG.info("parse Partition = {}", part);
+        LOG.debug("parse Partition = {}", part);
 
         return part;
     }
@@ -435,7 +476,7 @@ public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
                 map.get(LsblkColumn.SERIAL),
 
                 new ArrayList<>());
-        LOG.info("Parse Disk {}", disk);
+        LOG.debug("Parse Disk {}", disk);
 
         return disk;
     }
@@ -452,7 +493,7 @@ public final class LsblkCmd extends AbstractInstantCommand<LsblkCmd.Lsblk> {
                 map.get(LsblkColumn.LABEL),
                 map.get(LsblkColumn.UUID));
 
-        LOG.info("Parse ROM {}", rom);
+        LOG.debug("Parse ROM {}", rom);
         return rom;
     }
 
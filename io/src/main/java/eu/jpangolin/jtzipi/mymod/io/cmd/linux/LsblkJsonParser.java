@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parser of the output of {@code lsblk --json}.
+ * <p>
+ *     This is a small streaming tokenizer reading the output once from start to end.
+ *     Names of properties are compared in a reused buffer. Only values of the known
+ *     {@linkplain LsblkCmd.LsblkColumn}s are created as strings. Other values are skipped.
+ *     <br/>
+ *     The devices are nested. Partitions are children of a disk. Devices using a partition
+ *     like crypt, lvm or raid are children of the partition. Since our model only knows disks with
+ *     partitions, all devices below a disk are added as partitions of the disk. So a mounted
+ *     lvm volume is found.
+ *     <br/>
+ *     Values which are {@code null} are empty strings like in the pairs output.
+ *     Top level devices other than disk and rom (e.g. loop) are skipped.
+ * </p>
+ *
+ * @author jTzipi
+ */
+final class LsblkJsonParser {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(LsblkJsonParser.class);
+    private static final String BLOCK_DEVICES = "blockdevices";
+    private static final String CHILDREN = "children";
+    private static final LsblkCmd.LsblkColumn[] COLUMNS = LsblkCmd.LsblkColumn.values();
+    private static final String[] COLUMN_NAMES = new String[COLUMNS.length];
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            COLUMN_NAMES[i] = COLUMNS[i].get().toLowerCase();
+        }
+    }
+
+    private final String json;
+    private final StringBuilder sb = new StringBuilder(32);
+    private int pos;
+
+    private LsblkJsonParser(final String jsonStr) {
+        this.json = jsonStr;
+    }
+
+    /**
+     * Parse the output of {@code lsblk --json}.
+     * @param jsonStr output
+     * @return block devices
+     * @throws IllegalStateException if the output is not valid
+     */
+    static LsblkCmd.Lsblk parse(final String jsonStr) {
+        return new LsblkJsonParser(jsonStr).parseRoot();
+    }
+
+    private LsblkCmd.Lsblk parseRoot() {
+
+        Map<String, LsblkCmd.Disk> diskMap = new TreeMap<>();
+        List<LsblkCmd.Rom> romList = new ArrayList<>();
+
+        expect('{');
+        if (!tryConsume('}')) {
+            do {
+                readString();
+                expect(':');
+                if (BLOCK_DEVICES.contentEquals(sb)) {
+                    for (Device dev : readDevices()) {
+                        addDevice(dev, diskMap, romList);
+                    }
+                } else {
+                    skipValue();
+                }
+            } while (tryConsume(','));
+            expect('}');
+        }
+        return new LsblkCmd.Lsblk(diskMap, romList);
+    }
+
+    private static void addDevice(Device dev, Map<String, LsblkCmd.Disk> diskMap, List<LsblkCmd.Rom> romList) {
+        String type = dev.get(LsblkCmd.LsblkColumn.TYPE);
+        switch (type) {
+            case "disk" -> {
+                LsblkCmd.Disk disk = new LsblkCmd.Disk(dev.get(LsblkCmd.LsblkColumn.NAME),
+                        dev.get(LsblkCmd.LsblkColumn.TRAN),
+                        dev.get(LsblkCmd.LsblkColumn.SIZE),
+                        dev.get(LsblkCmd.LsblkColumn.FSAVAIL),
+                        dev.get(LsblkCmd.LsblkColumn.SERIAL),
+                        new ArrayList<>());
+                addPartitions(dev.childList, disk.partList());
+                diskMap.put(disk.nameStr(), disk);
+            }
+            case "rom" -> romList.add(new LsblkCmd.Rom(dev.get(LsblkCmd.LsblkColumn.NAME),
+                    dev.get(LsblkCmd.LsblkColumn.TRAN),
+                    dev.get(LsblkCmd.LsblkColumn.FSTYPE),
+                    dev.get(LsblkCmd.LsblkColumn.SIZE),
+                    dev.get(LsblkCmd.LsblkColumn.FSAVAIL),
+                    dev.get(LsblkCmd.LsblkColumn.MOUNT),
+                    dev.get(LsblkCmd.LsblkColumn.SERIAL),
+                    dev.get(LsblkCmd.LsblkColumn.LABEL),
+                    dev.get(LsblkCmd.LsblkColumn.UUID)));
+            default -> LOG.debug("Skip block device '{}' of type '{}'", dev.get(LsblkCmd.LsblkColumn.NAME), type);
+        }
+    }
+
+    private static void addPartitions(List<Device> devL, List<LsblkCmd.Partition> partL) {
+        for (Device dev : devL) {
+            partL.add(new LsblkCmd.Partition(dev.get(LsblkCmd.LsblkColumn.FSTYPE),
+                    dev.get(LsblkCmd.LsblkColumn.SIZE),
+                    dev.get(LsblkCmd.LsblkColumn.FSAVAIL),
+                    dev.get(LsblkCmd.LsblkColumn.MOUNT),
+                    dev.get(LsblkCmd.LsblkColumn.UUID),
+                    dev.get(LsblkCmd.LsblkColumn.LABEL),
+                    dev.get(LsblkCmd.LsblkColumn.NAME)));
+            // holders of the partition
+            addPartitions(dev.childList, partL);
+        }
+    }
+
+    private List<Device> readDevices() {
+        List<Device> devL = new ArrayList<>();
+        if (tryNull()) {
+            return devL;
+        }
+        expect('[');
+        if (!tryConsume(']')) {
+            do {
+                devL.add(readDevice());
+            } while (tryConsume(','));
+            expect(']');
+        }
+        return devL;
+    }
+
+    private Device readDevice() {
+        Device dev = new Device();
+        expect('{');
+        if (tryConsume('}')) {
+            return dev;
+        }
+        do {
+            readString();
+            expect(':');
+            if (CHILDREN.contentEquals(sb)) {
+                dev.childList = readDevices();
+                continue;
+            }
+            int col = column();
+            if (col < 0) {
+                skipValue();
+            } else {
+                dev.colMap.put(COLUMNS[col], readScalar());
+            }
+        } while (tryConsume(','));
+        expect('}');
+        return dev;
+    }
+
+    /**
+     * Return index of the column with the name in the buffer or -1.
+     */
+    private int column() {
+        for (int i = 0; i < COLUMN_NAMES.length; i++) {
+            if (COLUMN_NAMES[i].contentEquals(sb)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // -- tokenizer
+
+    private void skipWs() {
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (' ' != c && '\n' != c && '\r' != c && '\t' != c) {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean tryConsume(char c) {
+        skipWs();
+        if (pos < json.length() && json.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!tryConsume(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private boolean tryNull() {
+        skipWs();
+        if (json.startsWith("null", pos)) {
+            pos += 4;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read a string into the buffer.
+     */
+    private void readString() {
+        expect('"');
+        sb.setLength(0);
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if ('"' == c) {
+                return;
+            }
+            if ('\\' != c) {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= json.length()) {
+                break;
+            }
+            char esc = json.charAt(pos++);
+            switch (esc) {
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    if (pos + 4 > json.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(json, pos, pos + 4, 16));
+                    } catch (NumberFormatException nfE) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                }
+                default -> sb.append(esc);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Read a string, number, boolean or null as string. Null is an empty string.
+     */
+    private String readScalar() {
+        skipWs();
+        if (pos >= json.length()) {
+            throw error("Expected value");
+        }
+        char c = json.charAt(pos);
+        if ('"' == c) {
+            readString();
+            return sb.toString();
+        }
+        if (tryNull()) {
+            return "";
+        }
+        if ('{' == c || '[' == c) {
+            // e.g. 'mountpoints' of newer lsblk if requested as column
+            skipValue();
+            return "";
+        }
+        int start = pos;
+        while (pos < json.length() && ",}] \n\r\t".indexOf(json.charAt(pos)) < 0) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error("Expected value");
+        }
+        return json.substring(start, pos);
+    }
+
+    private void skipValue() {
+        skipWs();
+        if (pos >= json.length()) {
+            throw error("Expected value");
+        }
+        char c = json.charAt(pos);
+        if ('{' == c) {
+            pos++;
+            if (!tryConsume('}')) {
+                do {
+                    readString();
+                    expect(':');
+                    skipValue();
+                } while (tryConsume(','));
+                expect('}');
+            }
+        } else if ('[' == c) {
+            pos++;
+            if (!tryConsume(']')) {
+                do {
+                    skipValue();
+                } while (tryConsume(','));
+                expect(']');
+            }
+        } else if ('"' == c) {
+            readString();
+        } else {
+            readScalar();
+        }
+    }
+
+    private IllegalStateException error(String msg) {
+        return new IllegalStateException("'Lsblk' invalid json at " + pos + ": " + msg);
+    }
+
+    /**
+     * Device read from json.
+     */
+    private static final class Device {
+
+        private final EnumMap<LsblkCmd.LsblkColumn, String> colMap = new EnumMap<>(LsblkCmd.LsblkColumn.class);
+        private List<Device> childList = List.of();
+
+        private String get(LsblkCmd.LsblkColumn col) {
+            return colMap.getOrDefault(col, "");
+        }
+    }
+}
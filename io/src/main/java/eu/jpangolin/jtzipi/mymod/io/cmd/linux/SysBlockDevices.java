@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Read the block devices from the sys and proc file system without launching 'lsblk'.
+ * <p>
+ *     The result is the same model as of {@linkplain LsblkCmd}.
+ *     <ul>
+ *         <li>{@code /sys/block/<dev>} : disks, size, partitions, serial and transport type</li>
+ *         <li>{@code /proc/self/mountinfo} : mount point and file system type</li>
+ *         <li>{@code /dev/disk/by-label} and {@code /dev/disk/by-uuid} : label and UUID</li>
+ *     </ul>
+ *     Virtual devices (loop, ram, zram, device mapper) are skipped. They have no {@code device} link.
+ *     <br/>
+ *     The file system type and available size are only known for mounted partitions.
+ *     Sizes are in bytes as with {@code lsblk --bytes}. Values not known are empty strings.
+ *     <br/>
+ *     The roots of all three sources can be set. So this can be tested with a fake tree.
+ * </p>
+ * @author jTzipi
+ */
+public final class SysBlockDevices {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(SysBlockDevices.class);
+    /**
+     * Default root of block devices.
+     */
+    public static final Path SYS_BLOCK = Paths.get("/sys/block");
+    /**
+     * Default mount info.
+     */
+    public static final Path MOUNT_INFO = Paths.get("/proc/self/mountinfo");
+    /**
+     * Default root of disk links.
+     */
+    public static final Path DEV_DISK = Paths.get("/dev/disk");
+    // size in /sys is in sectors of 512 bytes independent of the device
+    private static final long SECTOR = 512L;
+    // SCSI peripheral type of CD/DVD
+    private static final String SCSI_TYPE_ROM = "5";
+
+    private final Path sysBlock;
+    private final Path mountInfo;
+    private final Path devDisk;
+
+    private SysBlockDevices(final Path sysBlockPath, final Path mountInfoPath, final Path devDiskPath) {
+        this.sysBlock = sysBlockPath;
+        this.mountInfo = mountInfoPath;
+        this.devDisk = devDiskPath;
+    }
+
+    /**
+     * Block devices of this system.
+     * @return block devices
+     */
+    public static SysBlockDevices of() {
+        return of(SYS_BLOCK, MOUNT_INFO, DEV_DISK);
+    }
+
+    /**
+     * Block devices read from the given roots.
+     * @param sysBlockPath root of block devices like {@code /sys/block}
+     * @param mountInfoPath mount info like {@code /proc/self/mountinfo}
+     * @param devDiskPath root of disk links like {@code /dev/disk}
+     * @return block devices
+     * @throws NullPointerException if any path is null
+     */
+    public static SysBlockDevices of(final Path sysBlockPath, final Path mountInfoPath, final Path devDiskPath) {
+        Objects.requireNonNull(sysBlockPath);
+        Objects.requireNonNull(mountInfoPath);
+        Objects.requireNonNull(devDiskPath);
+        return new SysBlockDevices(sysBlockPath, mountInfoPath, devDiskPath);
+    }
+
+    /**
+     * Return whether the block devices can be read.
+     * @return {@code true} if the block device root is readable
+     */
+    public boolean isAvailable() {
+        return Files.isDirectory(sysBlock) && Files.isReadable(sysBlock);
+    }
+
+    /**
+     * Read all disks and roms.
+     * @return block devices
+     * @throws IOException if the block device root can not be read
+     */
+    public LsblkCmd.Lsblk read() throws IOException {
+
+        Map<String, Mount> mountMap = readMountInfo();
+        Map<String, String> labelMap = readLinks(devDisk.resolve("by-label"));
+        Map<String, String> uuidMap = readLinks(devDisk.resolve("by-uuid"));
+
+        Map<String, LsblkCmd.Disk> diskMap = new TreeMap<>();
+        List<LsblkCmd.Rom> romList = new ArrayList<>();
+
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(sysBlock)) {
+            for (Path dev : ds) {
+                String name = dev.getFileName().toString();
+                if (!Files.exists(dev.resolve("device"))) {
+                    LOG.debug("Skip virtual block device '{}'", name);
+                    continue;
+                }
+                String tran = transport(dev);
+                String size = size(dev);
+                String serial = firstOf(dev.resolve("serial"), dev.resolve("device").resolve("serial"));
+                Mount mount = mountMap.getOrDefault(readString(dev.resolve("dev")), Mount.NONE);
+
+                if (isRom(name, dev)) {
+                    romList.add(new LsblkCmd.Rom(name,
+                            tran,
+                            mount.fsType(),
+                            size,
+                            available(mount),
+                            mount.mountPoint(),
+                            serial,
+                            labelMap.getOrDefault(name, ""),
+                            uuidMap.getOrDefault(name, "")));
+                    continue;
+                }
+
+                LsblkCmd.Disk disk = new LsblkCmd.Disk(name, tran, size, available(mount), serial, new ArrayList<>());
+                for (Path part : partitions(dev)) {
+                    String partName = part.getFileName().toString();
+                    Mount partMount = mountMap.getOrDefault(readString(part.resolve("dev")), Mount.NONE);
+                    disk.partList().add(new LsblkCmd.Partition(partMount.fsType(),
+                            size(part),
+                            available(partMount),
+                            partMount.mountPoint(),
+                            uuidMap.getOrDefault(partName, ""),
+                            labelMap.getOrDefault(partName, ""),
+                            partName));
+                }
+                diskMap.put(name, disk);
+            }
+        }
+
+        return new LsblkCmd.Lsblk(diskMap, romList);
+    }
+
+    private static boolean isRom(String name, Path dev) {
+        return name.startsWith("sr") || SCSI_TYPE_ROM.equals(readString(dev.resolve("device").resolve("type")));
+    }
+
+    private static List<Path> partitions(Path dev) throws IOException {
+        List<Path> partL = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dev, p -> Files.exists(p.resolve("partition")))) {
+            ds.forEach(partL::add);
+        }
+        partL.sort(null);
+        return partL;
+    }
+
+    private static String size(Path dev) {
+        String sectors = readString(dev.resolve("size"));
+        try {
+            return sectors.isEmpty() ? "" : Long.toString(Long.parseLong(sectors) * SECTOR);
+        } catch (NumberFormatException nfE) {
+            LOG.warn("Size of '{}' not a number '{}'", dev, sectors);
+            return "";
+        }
+    }
+
+    /**
+     * Guess the transport like 'lsblk' from the device path.
+     */
+    private static String transport(Path dev) {
+        String real;
+        try {
+            real = dev.toRealPath().toString();
+        } catch (IOException ioE) {
+            return "";
+        }
+        if (real.contains("/usb")) {
+            return "usb";
+        }
+        if (real.contains("/nvme")) {
+            return "nvme";
+        }
+        if (real.contains("/ata")) {
+            return "sata";
+        }
+        if (real.contains("/mmc")) {
+            return "mmc";
+        }
+        return "";
+    }
+
+    private Map<String, Mount> readMountInfo() {
+        Map<String, Mount> mountMap = new HashMap<>();
+        List<String> lineL;
+        try {
+            lineL = Files.readAllLines(mountInfo);
+        } catch (IOException ioE) {
+            LOG.warn("Failed to read mount info '{}'", mountInfo, ioE);
+            return mountMap;
+        }
+        for (String line : lineL) {
+            // id parent major:minor root mount-point options [optional...] - fstype source super-options
+            String[] part = line.split(" ");
+            int sep = List.of(part).indexOf("-");
+            if (part.length < 5 || sep < 0 || sep + 1 >= part.length) {
+                continue;
+            }
+            String mountPoint = unescape(part[4]);
+            // first mount of a device wins
+            mountMap.putIfAbsent(part[2], new Mount(mountPoint, part[sep + 1]));
+        }
+        return mountMap;
+    }
+
+    // only for mounted block devices. Other mounts may be slow like network file systems
+    private static String available(Mount mount) {
+        if (mount.mountPoint().isEmpty()) {
+            return "";
+        }
+        try {
+            return Long.toString(Files.getFileStore(Paths.get(mount.mountPoint())).getUsableSpace());
+        } catch (IOException | RuntimeException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Read links like {@code by-label/My\x20Stick -> ../../sdb1} as map of device name to link name.
+     */
+    private static Map<String, String> readLinks(Path dir) {
+        Map<String, String> linkMap = new HashMap<>();
+        if (!Files.isDirectory(dir)) {
+            return linkMap;
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path link : ds) {
+                if (Files.isSymbolicLink(link)) {
+                    Path target = Files.readSymbolicLink(link).getFileName();
+                    if (null != target) {
+                        linkMap.putIfAbsent(target.toString(), unescape(link.getFileName().toString()));
+                    }
+                }
+            }
+        } catch (IOException ioE) {
+            LOG.warn("Failed to read disk links '{}'", dir, ioE);
+        }
+        return linkMap;
+    }
+
+    /**
+     * Decode octal escapes like {@code \040} of mountinfo and hex escapes like {@code \x20} of udev.
+     */
+    static String unescape(String str) {
+        if (str.indexOf('\\') < 0) {
+            return str;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(str.length());
+        byte[] b = str.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < b.length; i++) {
+            if ('\\' == b[i] && i + 3 < b.length && 'x' == b[i + 1] && isHex(b[i + 2]) && isHex(b[i + 3])) {
+                bos.write(Integer.parseInt(new String(b, i + 2, 2, StandardCharsets.US_ASCII), 16));
+                i += 3;
+            } else if ('\\' == b[i] && i + 3 < b.length && isOct(b[i + 1]) && isOct(b[i + 2]) && isOct(b[i + 3])) {
+                bos.write(Integer.parseInt(new String(b, i + 1, 3, StandardCharsets.US_ASCII), 8));
+                i += 3;
+            } else {
+                bos.write(b[i]);
+            }
+        }
+        return bos.toString(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isHex(byte c) {
+        return Character.digit(c, 16) >= 0;
+    }
+
+    private static boolean isOct(byte c) {
+        return c >= '0' && c <= '7';
+    }
+
+    private static String firstOf(Path... paths) {
+        for (Path path : paths) {
+            String val = readString(path);
+            if (!val.isEmpty()) {
+                return val;
+            }
+        }
+        return "";
+    }
+
+    private static String readString(Path path) {
+        try {
+            return Files.readString(path).trim();
+        } catch (IOException | RuntimeException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Mount of a device.
+     * @param mountPoint mount point
+     * @param fsType file system type
+     */
+    private record Mount(String mountPoint, String fsType) {
+        private static final Mount NONE = new Mount("", "");
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
+
+import eu.jpangolin.jtzipi.mymod.io.cmd.CommandOutputPublisher;
+import eu.jpangolin.jtzipi.mymod.io.cmd.ICommand;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Long-running 'udevadm monitor' command.
+ * <p>
+ *     This command does not end. Use it with {@linkplain #publisher()} and cancel the subscription
+ *     to stop it.
+ *     <br/>
+ *     An event line looks like
+ *     <code>UDEV  [12345.678901] add      /devices/pci0000:00/0000:00:14.0/usb1/1-1/1-1:1.0/host0/target0:0:0/0:0:0:0/block/sdb (block)</code>
+ * </p>
+ * @author jTzipi
+ */
+public final class UdevadmMonitorCmd implements ICommand {
+
+    private static final String CMD = "udevadm";
+    /**
+     * Subsystem of block devices.
+     */
+    public static final String SUBSYSTEM_BLOCK = "block";
+    private final List<String> args;
+
+    private UdevadmMonitorCmd(final String subsystemStr) {
+        this.args = List.of("monitor", "--udev", "--subsystem-match=" + subsystemStr);
+    }
+
+    /**
+     * Monitor udev events of a subsystem.
+     * @param subsystemStr subsystem like {@linkplain #SUBSYSTEM_BLOCK}
+     * @return command
+     * @throws NullPointerException if {@code subsystemStr} is null
+     */
+    public static UdevadmMonitorCmd of(final String subsystemStr) {
+        Objects.requireNonNull(subsystemStr);
+        return new UdevadmMonitorCmd(subsystemStr);
+    }
+
+    /**
+     * Return a publisher of the output lines.
+     * @return publisher
+     */
+    public CommandOutputPublisher<String> publisher() {
+        return CommandOutputPublisher.lines(this);
+    }
+
+    @Override
+    public String getName() {
+        return CMD;
+    }
+
+    @Override
+    public List<String> getArgs() {
+        return args;
+    }
+
+    /**
+     * Parse an event line.
+     * @param line output line
+     * @return event or {@code null} if the line is no event
+     */
+    public static Event parseLine(final String line) {
+        if (null == line) {
+            return null;
+        }
+        String[] part = line.trim().split("\\s+");
+        if (part.length < 4 || !("UDEV".equals(part[0]) || "KERNEL".equals(part[0])) || !part[1].startsWith("[")) {
+            return null;
+        }
+        String subsystem = part.length > 4 ? part[4].replace("(", "").replace(")", "") : "";
+        return new Event(part[0], part[2], part[3], subsystem);
+    }
+
+    /**
+     * Udev event.
+     * @param source UDEV or KERNEL
+     * @param action action like add, remove, change
+     * @param devPath device path below /sys
+     * @param subsystem subsystem
+     */
+    public record Event(String source, String action, String devPath, String subsystem) {
+
+        /**
+         * Return the device name. That is the last part of the device path.
+         * @return device name like 'sdb1'
+         */
+        public String devName() {
+            int i = devPath.lastIndexOf('/');
+            return i < 0 ? devPath : devPath.substring(i + 1);
+        }
+    }
+}
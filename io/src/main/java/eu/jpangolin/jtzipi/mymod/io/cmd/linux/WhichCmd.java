@@ -18,17 +18,31 @@ package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
 
 import eu.jpangolin.jtzipi.mymod.io.cmd.AbstractInstantCommand;
 import eu.jpangolin.jtzipi.mymod.io.cmd.CommandResult;
+import eu.jpangolin.jtzipi.mymod.io.cmd.ExecutableIndex;
 import eu.jpangolin.jtzipi.mymod.io.cmd.ICommandResult;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
  * Run the 'which' command.
+ * <p>
+ *     If the 'which' program is not installed the programs are resolved with the
+ *     shared {@linkplain ExecutableIndex} without launching a process. The process of
+ *     this result is {@code null}.
+ *     <br/>
+ *     For a lookup without any process use {@linkplain ExecutableIndex#find(String)}.
+ * </p>
  * @author jTzipi
  */
 public final class WhichCmd extends AbstractInstantCommand<WhichCmd.Which> {
@@ -85,6 +99,60 @@ public final class WhichCmd extends AbstractInstantCommand<WhichCmd.Which> {
         return new WhichCmd(args);
     }
 
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
+    @Override
+    public CommandResult<Which> launch(long timeout, TimeUnit timeUnit) throws IOException, InterruptedException {
+        if (!ExecutableIndex.shared().contains(CMD)) {
+            return resolve(ExecutableIndex.shared());
+        }
+        return super.launch(timeout, timeUnit);
+    }
+
+    @Override
+    public CompletableFuture<CommandResult<Which>> launchAsync(long timeout, TimeUnit timeUnit, Executor executor) {
+        if (!ExecutableIndex.shared().contains(CMD)) {
+            return CompletableFuture.completedFuture(resolve(ExecutableIndex.shared()));
+        }
+        return super.launchAsync(timeout, timeUnit, executor);
+    }
+
+    /**
+     * Resolve the programs with the index like 'which' would do.
+     * <p>
+     *     Only option {@linkplain WhichOption#ALL} is supported. Other options are ignored.
+     *     <br/>
+     *     Like 'which' the result has an error if one program is not found.
+     * </p>
+     * @param index index of executables
+     * @return result without process
+     */
+    CommandResult<Which> resolve(final ExecutableIndex index) {
+        boolean all = getArgs().contains(WhichOption.ALL.get()) || getArgs().contains("-a");
+        List<String> pathL = new ArrayList<>();
+        List<String> missingL = new ArrayList<>();
+        for (String arg : getArgs()) {
+            if (arg.startsWith("-")) {
+                continue;
+            }
+            List<Path> foundL = index.findAll(arg);
+            if (foundL.isEmpty()) {
+                missingL.add(arg);
+            } else if (all) {
+                foundL.forEach(path -> pathL.add(path.toString()));
+            } else {
+                pathL.add(foundL.get(0).toString());
+            }
+        }
+        LOG.debug("Resolved {} without '{}' to {}", getArgs(), CMD, pathL);
+        String raw = String.join("\n", pathL);
+        Throwable t = missingL.isEmpty() ? null : new IOException("Not found in PATH " + missingL);
+        return new CommandResult<>(new Which(List.copyOf(pathL)), raw, null, t);
+    }
+
     @Override
     protected CommandResult<Which> parse(String rawResultStr, Throwable t, Process p) {
 
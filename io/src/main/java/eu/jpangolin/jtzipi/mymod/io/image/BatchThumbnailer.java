@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.image;
+
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Create thumbnails of many images in parallel.
+ * <p>
+ *     Each image is decoded with {@linkplain ImageUtils#createThumbnail(java.nio.file.Path, int)}.
+ *     The EXIF orientation read by {@linkplain ExifReader} is applied to the thumbnail.
+ *     <br/>
+ *     How many images are decoded at the same time is limited by
+ *     <ul>
+ *         <li>the max number of parallel images</li>
+ *         <li>the memory budget. Before an image is decoded the size of the decoded pixels is
+ *         estimated from the header. An image is only started if its memory fits in the budget
+ *         not used by the running images. An image larger than the budget runs alone.</li>
+ *     </ul>
+ *     So a folder of large photos is decoded with fewer threads than a folder of icons.
+ *     <br/>
+ *     The headers are read by one dispatcher thread in the order of the paths. The thumbnails are
+ *     passed to the callback as soon as they are done. The callback is called by the threads of the
+ *     executor. So it must be thread safe. The batch does not keep the thumbnails. So a thumbnail
+ *     not kept by the callback can be collected while the batch is running.
+ *     <br/>
+ *     By default the images are decoded by a shared pool of {@linkplain #DEF_MAX_PARALLEL} daemon threads.
+ *     <br/>
+ *     An image failing to decode is passed to the callback with the error.
+ *     If the future of the batch is cancelled no more images are started.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     BatchThumbnailer.of( 256 )
+ *         .run( dir, thumb -> LOG.info( "{} took {}", thumb.path(), thumb.workTime() ) )
+ *         .thenAccept( batch -> LOG.info( "Batch took {}", batch.elapsed() ) );
+ *     }
+ * </pre>
+ * @author jTzipi
+ */
+public final class BatchThumbnailer {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( BatchThumbnailer.class );
+    /**
+     * Default size of the longest dimension of a thumbnail.
+     */
+    public static final int DEF_SIZE = 256;
+    /**
+     * Default max images decoded at the same time.
+     */
+    public static final int DEF_MAX_PARALLEL = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+    /**
+     * Default memory budget. A quarter of the max heap.
+     */
+    public static final long DEF_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4L;
+    // permits of the memory semaphore are KiB
+    private static final int KIB = 1024;
+    // bytes per decoded pixel (int ARGB)
+    private static final int BYTES_PER_PIXEL = 4;
+    // seconds an idle decode thread is kept
+    private static final long KEEP_ALIVE_SEC = 30L;
+    private static final AtomicInteger DISPATCH_CNT = new AtomicInteger();
+
+    private final int size;
+    private final int maxParallel;
+    private final long memoryBudget;
+    private final Executor executor;
+    private final ThumbnailCreator creator;
+
+    private BatchThumbnailer( final int size, final long memoryBudget, final int maxParallel, final Executor exe, final ThumbnailCreator thumbnailCreator ) {
+        this.size = size;
+        this.memoryBudget = memoryBudget;
+        this.maxParallel = maxParallel;
+        this.executor = exe;
+        this.creator = thumbnailCreator;
+    }
+
+    /**
+     * Thumbnailer with default size, budget and parallelism.
+     *
+     * @return thumbnailer
+     */
+    public static BatchThumbnailer of() {
+        return of( DEF_SIZE );
+    }
+
+    /**
+     * Thumbnailer with default budget and parallelism.
+     *
+     * @param size size of the longest dimension of a thumbnail
+     * @return thumbnailer
+     * @throws IllegalArgumentException if {@code size} is not positive
+     */
+    public static BatchThumbnailer of( final int size ) {
+        return of( size, DEF_MEMORY_BUDGET, DEF_MAX_PARALLEL, DecodePool.EXE );
+    }
+
+    /**
+     * Thumbnailer.
+     *
+     * @param size         size of the longest dimension of a thumbnail
+     * @param memoryBudget max bytes of decoded images at the same time
+     * @param maxParallel  max images decoded at the same time
+     * @param exe          executor to decode the images and call the callback
+     * @return thumbnailer
+     * @throws IllegalArgumentException if {@code size} or {@code maxParallel} is not positive
+     *                                  or {@code memoryBudget} is less than 1 KiB
+     * @throws NullPointerException     if {@code exe} is null
+     */
+    public static BatchThumbnailer of( final int size, final long memoryBudget, final int maxParallel, final Executor exe ) {
+        return of( size, memoryBudget, maxParallel, exe, ImageUtils::createThumbnail );
+    }
+
+    /**
+     * Thumbnailer creating the thumbnails with {@code thumbnailCreator}.
+     * @see #of(int, long, int, Executor)
+     */
+    static BatchThumbnailer of( final int size, final long memoryBudget, final int maxParallel, final Executor exe, final ThumbnailCreator thumbnailCreator ) {
+        Objects.requireNonNull( exe );
+        Objects.requireNonNull( thumbnailCreator );
+        if ( size <= 0 ) {
+            throw new IllegalArgumentException( "Size must be positive" );
+        }
+        if ( maxParallel < 1 ) {
+            throw new IllegalArgumentException( "Max parallel images must be positive" );
+        }
+        if ( memoryBudget < KIB ) {
+            throw new IllegalArgumentException( "Memory budget < 1 KiB" );
+        }
+        return new BatchThumbnailer( size, memoryBudget, maxParallel, exe, thumbnailCreator );
+    }
+
+    /**
+     * Create thumbnails of all images in a directory.
+     * <p>
+     *     Only regular files with a suffix known by {@linkplain ImageIO} are read. Sub directories are not read.
+     * </p>
+     *
+     * @param dir        directory
+     * @param onComplete callback for each thumbnail
+     * @return future of the batch
+     * @throws IOException          if the directory can not be read
+     * @throws NullPointerException if {@code dir} or {@code onComplete} is null
+     */
+    public CompletableFuture<BatchResult> run( final Path dir, final Consumer<Thumbnail> onComplete ) throws IOException {
+        Objects.requireNonNull( dir );
+        Set<String> sfxS = Stream.of( ImageIO.getReaderFileSuffixes() )
+                .map( sfx -> sfx.toLowerCase( Locale.ROOT ) )
+                .collect( Collectors.toSet() );
+        List<Path> pathL = new ArrayList<>();
+        try ( DirectoryStream<Path> ds = Files.newDirectoryStream( dir, p -> Files.isRegularFile( p ) && sfxS.contains( suffix( p ) ) ) ) {
+            ds.forEach( pathL::add );
+        }
+        pathL.sort( null );
+        return run( pathL.stream(), onComplete );
+    }
+
+    /**
+     * Create thumbnails of the images.
+     * <p>
+     *     The stream is read by the dispatcher thread.
+     * </p>
+     *
+     * @param paths      paths to images
+     * @param onComplete callback for each thumbnail
+     * @return future of the batch
+     * @throws NullPointerException if {@code paths} or {@code onComplete} is null
+     */
+    public CompletableFuture<BatchResult> run( final Stream<Path> paths, final Consumer<Thumbnail> onComplete ) {
+        Objects.requireNonNull( paths );
+        Objects.requireNonNull( onComplete );
+
+        Batch batch = new Batch( onComplete );
+        Thread dispatcher = new Thread( () -> batch.dispatch( paths ), "thumbnail-dispatch-" + DISPATCH_CNT.incrementAndGet() );
+        dispatcher.setDaemon( true );
+        dispatcher.start();
+        return batch.resultF;
+    }
+
+    /**
+     * Estimate the bytes needed to decode the image and create the thumbnail.
+     */
+    long estimateBytes( final ImageDimension dim ) {
+
+        int sub = ImageUtils.subsampling( Math.max( dim.width(), dim.height() ), size );
+        long decoded = ( long ) ( ( dim.width() + sub - 1 ) / sub ) * ( ( dim.height() + sub - 1 ) / sub ) * BYTES_PER_PIXEL;
+        // decoded image, compatible copy and the steps of the downscale
+        return 2L * decoded + ( long ) size * size * BYTES_PER_PIXEL;
+    }
+
+    private static ImageDimension probe( final Path path ) throws IOException {
+
+        final Optional<ImageDimension> dimOpt = ImageHeaderProbe.probe( path );
+        if ( dimOpt.isPresent() ) {
+            return dimOpt.get();
+        }
+        try ( final ImageInputStream iis = ImageIO.createImageInputStream( path.toFile() ) ) {
+            if ( null == iis ) {
+                throw new IOException( "Path[='" + path + "'] not readable" );
+            }
+            final Iterator<ImageReader> iri = ImageIO.getImageReaders( iis );
+            if ( !iri.hasNext() ) {
+                throw new IOException( "No image reader found for image[='" + path + "']" );
+            }
+            final ImageReader ir = iri.next();
+            try {
+                ir.setInput( iis, true, true );
+                return ImageDimension.of( ir.getWidth( 0 ), ir.getHeight( 0 ) );
+            } finally {
+                ir.dispose();
+            }
+        }
+    }
+
+    private static Optional<ExifTagOrientation> orientation( final Path path ) {
+
+        try ( InputStream is = Files.newInputStream( path ) ) {
+            return ExifReader.parseTagOrientation( is );
+        } catch ( IOException | RuntimeException e ) {
+            LOG.debug( "No orientation of '{}'", path, e );
+            return Optional.empty();
+        }
+    }
+
+    private static String suffix( final Path path ) {
+        String name = path.getFileName().toString();
+        int i = name.lastIndexOf( '.' );
+        return i < 0 ? "" : name.substring( i + 1 ).toLowerCase( Locale.ROOT );
+    }
+
+    /**
+     * State of one run.
+     */
+    private final class Batch {
+
+        private final CompletableFuture<BatchResult> resultF = new CompletableFuture<>();
+        private final Consumer<Thumbnail> onComplete;
+        private final int budgetKib = ( int ) Math.min( Integer.MAX_VALUE, memoryBudget / KIB );
+        private final Semaphore memory = new Semaphore( budgetKib, true );
+        private final Semaphore parallel = new Semaphore( maxParallel, true );
+        private final AtomicInteger total = new AtomicInteger();
+        // running images and the dispatcher
+        private final AtomicInteger pending = new AtomicInteger( 1 );
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong workNanos = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+        // only the timing. The image of the slowest thumbnail must not be kept
+        private volatile Timing slowest;
+
+        private Batch( final Consumer<Thumbnail> onComplete ) {
+            this.onComplete = onComplete;
+        }
+
+        private void dispatch( final Stream<Path> paths ) {
+
+            try ( paths ) {
+                Iterator<Path> it = paths.iterator();
+                while ( it.hasNext() && !resultF.isDone() ) {
+                    Path path = it.next();
+                    long queued = System.nanoTime();
+                    total.incrementAndGet();
+
+                    ImageDimension dim;
+                    try {
+                        dim = probe( path );
+                    } catch ( IOException | RuntimeException e ) {
+                        LOG.debug( "Failed to read header of '{}'", path, e );
+                        long now = System.nanoTime();
+                        done( new Thumbnail( path, null, ImageDimension.EMPTY, 0L, 0L, now - queued, e ) );
+                        continue;
+                    }
+
+                    // an image larger than the budget waits for all permits and runs alone
+                    int permits = ( int ) Math.min( budgetKib, Math.max( 1L, estimateBytes( dim ) / KIB ) );
+                    parallel.acquire();
+                    memory.acquire( permits );
+                    long waitNanos = System.nanoTime() - queued;
+                    pending.incrementAndGet();
+                    CompletableFuture.runAsync( () -> decode( path, dim, waitNanos ), executor )
+                            .whenComplete( ( v, e ) -> {
+                                memory.release( permits );
+                                parallel.release();
+                                if ( null != e ) {
+                                    LOG.warn( "Failed to create thumbnail of '{}'", path, e );
+                                }
+                                finish();
+                            } );
+                }
+            } catch ( InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+                resultF.completeExceptionally( iE );
+                return;
+            } catch ( RuntimeException rE ) {
+                LOG.warn( "Failed to read paths", rE );
+                resultF.completeExceptionally( rE );
+                return;
+            }
+
+            finish();
+        }
+
+        /**
+         * Complete the batch if the dispatcher and all images are done.
+         */
+        private void finish() {
+            if ( 0 == pending.decrementAndGet() ) {
+                resultF.complete( new BatchResult( total.get(),
+                        failed.get(),
+                        Duration.ofNanos( System.nanoTime() - startNanos ),
+                        Duration.ofNanos( workNanos.get() ),
+                        slowest ) );
+            }
+        }
+
+        private void decode( final Path path, final ImageDimension dim, final long waitNanos ) {
+
+            long start = System.nanoTime();
+            Thumbnail thumb;
+            try {
+                BufferedImage image = creator.create( path, size );
+                Optional<ExifTagOrientation> tagOpt = orientation( path );
+                if ( tagOpt.isPresent() ) {
+                    image = ImageUtils.resetExifOrientation( image, tagOpt.get() );
+                }
+                thumb = new Thumbnail( path, image, dim, waitNanos, System.nanoTime() - start, 0L, null );
+            } catch ( IOException | RuntimeException e ) {
+                LOG.debug( "Failed to create thumbnail of '{}'", path, e );
+                thumb = new Thumbnail( path, null, dim, waitNanos, System.nanoTime() - start, 0L, e );
+            }
+            done( thumb );
+        }
+
+        private void done( final Thumbnail thumb ) {
+
+            if ( thumb.isError() ) {
+                failed.incrementAndGet();
+            }
+            workNanos.addAndGet( thumb.workNanos() + thumb.probeNanos() );
+            synchronized ( this ) {
+                if ( null == slowest || thumb.workNanos() > slowest.workNanos() ) {
+                    slowest = new Timing( thumb.path(), thumb.waitNanos(), thumb.workNanos() );
+                }
+            }
+            try {
+                onComplete.accept( thumb );
+            } catch ( RuntimeException rE ) {
+                LOG.warn( "Callback failed for '{}'", thumb.path(), rE );
+            }
+        }
+    }
+
+    /**
+     * Create the thumbnail of an image.
+     */
+    @FunctionalInterface
+    interface ThumbnailCreator {
+
+        /**
+         * Create the thumbnail.
+         *
+         * @param path path to image
+         * @param size size of the longest dimension
+         * @return thumbnail
+         * @throws IOException if the image can not be read
+         */
+        BufferedImage create( Path path, int size ) throws IOException;
+    }
+
+    /**
+     * Lazy holder of the shared decode executor.
+     */
+    private static final class DecodePool {
+
+        private static final ExecutorService EXE = create();
+
+        private static ExecutorService create() {
+            AtomicInteger cnt = new AtomicInteger();
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor( DEF_MAX_PARALLEL,
+                    DEF_MAX_PARALLEL,
+                    KEEP_ALIVE_SEC,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread t = new Thread( r, "thumbnail-decode-" + cnt.incrementAndGet() );
+                        t.setDaemon( true );
+                        return t;
+                    } );
+            // so no thread is kept if no batch is running
+            tpe.allowCoreThreadTimeOut( true );
+            return tpe;
+        }
+    }
+
+    /**
+     * Thumbnail of one image.
+     *
+     * @param path       path to image
+     * @param image      thumbnail or null if failed
+     * @param sourceDim  dimension of the image or {@linkplain ImageDimension#EMPTY} if the header is not readable
+     * @param waitNanos  time from reading the header until decoding started in ns
+     * @param workNanos  time to decode and scale in ns
+     * @param probeNanos time to read the header if failed in ns
+     * @param error      error (may be null)
+     */
+    public record Thumbnail( Path path,
+                             BufferedImage image,
+                             ImageDimension sourceDim,
+                             long waitNanos,
+                             long workNanos,
+                             long probeNanos,
+                             Throwable error ) {
+
+        /**
+         * Return whether the thumbnail failed.
+         *
+         * @return {@code true} if failed
+         */
+        public boolean isError() {
+            return null != error;
+        }
+
+        /**
+         * Return the time waiting for memory or a thread.
+         *
+         * @return wait time
+         */
+        public Duration waitTime() {
+            return Duration.ofNanos( waitNanos );
+        }
+
+        /**
+         * Return the time to decode and scale.
+         *
+         * @return work time
+         */
+        public Duration workTime() {
+            return Duration.ofNanos( workNanos );
+        }
+    }
+
+    /**
+     * Timing of one image without the thumbnail.
+     *
+     * @param path      path to image
+     * @param waitNanos time from reading the header until decoding started in ns
+     * @param workNanos time to decode and scale in ns
+     */
+    public record Timing( Path path, long waitNanos, long workNanos ) {
+
+        /**
+         * Return the time waiting for memory or a thread.
+         *
+         * @return wait time
+         */
+        public Duration waitTime() {
+            return Duration.ofNanos( waitNanos );
+        }
+
+        /**
+         * Return the time to decode and scale.
+         *
+         * @return work time
+         */
+        public Duration workTime() {
+            return Duration.ofNanos( workNanos );
+        }
+    }
+
+    /**
+     * Result of a batch.
+     *
+     * @param total    number of images
+     * @param failed   number of images failed
+     * @param elapsed  time of the batch
+     * @param workTime sum of the work time of all images
+     * @param slowest  timing of the image with the longest work time or null if no image
+     */
+    public record BatchResult( int total, int failed, Duration elapsed, Duration workTime, Timing slowest ) {
+
+        /**
+         * Return how much faster the batch was than one image after the other.
+         *
+         * @return work time / elapsed
+         */
+        public double speedUp() {
+            return elapsed.isZero() ? 1D : ( double ) workTime.toNanos() / elapsed.toNanos();
+        }
+    }
+}
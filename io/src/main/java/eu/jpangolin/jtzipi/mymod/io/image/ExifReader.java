@@ -93,7 +93,7 @@ public final class ExifReader {
 
         // keine Exif Metadaten oder kein Orientation Tag
         if (null == directory || !directory.containsTag(ExifDirectoryBase.TAG_ORIENTATION)) {
-            LOG.warn("Keine Metadaten oder kein Tag 'Orientation'");
+            LOG.debug("Keine Metadaten oder kein Tag 'Orientation'");
             return Optional.empty();
         }
 
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.image;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Read the dimension of an image from its header.
+ * <p>
+ *     Only the header is read. No {@linkplain javax.imageio.ImageReader} is created.
+ *     <ul>
+ *         <li>PNG : chunk {@code IHDR}</li>
+ *         <li>JPEG : marker {@code SOFn}. The segments before are skipped without reading them</li>
+ *         <li>GIF : logical screen descriptor</li>
+ *         <li>BMP : {@code BITMAPCOREHEADER} or {@code BITMAPINFOHEADER}</li>
+ *         <li>WebP : chunk {@code VP8 }, {@code VP8L} or {@code VP8X}</li>
+ *     </ul>
+ *     The dimension is the stored dimension. The EXIF orientation is not applied. This is the same as
+ *     the dimension read by {@linkplain javax.imageio.ImageReader#getWidth(int)}.
+ *     <br/>
+ *     This class has no state. So it can be used by many threads.
+ * </p>
+ * @author jTzipi
+ */
+public final class ImageHeaderProbe {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( ImageHeaderProbe.class );
+    /**
+     * Max segments of a JPEG skipped until a SOF marker is found.
+     */
+    public static final int MAX_JPEG_SEGMENTS = 64;
+    // enough for the header of PNG, GIF, BMP and WebP
+    private static final int HEAD = 32;
+
+    private ImageHeaderProbe() {
+        throw new AssertionError( "What do you want" );
+    }
+
+    /**
+     * Read the dimension of an image.
+     *
+     * @param path path to image
+     * @return dimension or empty if the format is not known or the header is not valid
+     * @throws IOException          if the image is not readable
+     * @throws NullPointerException if {@code path} is null
+     */
+    public static Optional<ImageDimension> probe( final Path path ) throws IOException {
+        Objects.requireNonNull( path );
+        try ( SeekableByteChannel sbc = Files.newByteChannel( path ) ) {
+            return probe( sbc );
+        }
+    }
+
+    /**
+     * Read the dimension of an image from a channel at position 0.
+     *
+     * @param sbc channel
+     * @return dimension or empty if the format is not known or the header is not valid
+     * @throws IOException if the channel is not readable
+     */
+    static Optional<ImageDimension> probe( final SeekableByteChannel sbc ) throws IOException {
+
+        ByteBuffer head = read( sbc, 0L, HEAD );
+        if ( head.remaining() < 2 ) {
+            return Optional.empty();
+        }
+        ImageDimension dim;
+        if ( isPng( head ) ) {
+            dim = png( head );
+        } else if ( u8( head, 0 ) == 0xFF && u8( head, 1 ) == 0xD8 ) {
+            dim = jpeg( sbc );
+        } else if ( startsWith( head, 0, "GIF8" ) ) {
+            dim = gif( head );
+        } else if ( startsWith( head, 0, "BM" ) ) {
+            dim = bmp( head );
+        } else if ( startsWith( head, 0, "RIFF" ) && startsWith( head, 8, "WEBP" ) ) {
+            dim = webp( head );
+        } else {
+            dim = null;
+        }
+        if ( null == dim || dim.width() <= 0 || dim.height() <= 0 ) {
+            return Optional.empty();
+        }
+        return Optional.of( dim );
+    }
+
+    private static boolean isPng( ByteBuffer bb ) {
+        return bb.remaining() >= 24
+                && u8( bb, 0 ) == 0x89
+                && startsWith( bb, 1, "PNG\r\n\u001A\n" )
+                && startsWith( bb, 12, "IHDR" );
+    }
+
+    private static ImageDimension png( ByteBuffer bb ) {
+        bb.order( ByteOrder.BIG_ENDIAN );
+        return ImageDimension.of( bb.getInt( 16 ), bb.getInt( 20 ) );
+    }
+
+    private static ImageDimension gif( ByteBuffer bb ) {
+        if ( bb.remaining() < 10 ) {
+            return null;
+        }
+        bb.order( ByteOrder.LITTLE_ENDIAN );
+        return ImageDimension.of( bb.getShort( 6 ) & 0xFFFF, bb.getShort( 8 ) & 0xFFFF );
+    }
+
+    private static ImageDimension bmp( ByteBuffer bb ) {
+        if ( bb.remaining() < 26 ) {
+            return null;
+        }
+        bb.order( ByteOrder.LITTLE_ENDIAN );
+        int dibSize = bb.getInt( 14 );
+        if ( 12 == dibSize ) {
+            return ImageDimension.of( bb.getShort( 18 ) & 0xFFFF, bb.getShort( 20 ) & 0xFFFF );
+        }
+        // height is negative for top down bitmaps
+        return ImageDimension.of( bb.getInt( 18 ), Math.abs( bb.getInt( 22 ) ) );
+    }
+
+    private static ImageDimension webp( ByteBuffer bb ) {
+        if ( bb.remaining() < 30 ) {
+            return null;
+        }
+        bb.order( ByteOrder.LITTLE_ENDIAN );
+        if ( startsWith( bb, 12, "VP8 " ) ) {
+            // frame tag (3) and start code 9D 01 2A
+            if ( u8( bb, 23 ) != 0x9D || u8( bb, 24 ) != 0x01 || u8( bb, 25 ) != 0x2A ) {
+                return null;
+            }
+            return ImageDimension.of( bb.getShort( 26 ) & 0x3FFF, bb.getShort( 28 ) & 0x3FFF );
+        }
+        if ( startsWith( bb, 12, "VP8L" ) ) {
+            if ( u8( bb, 20 ) != 0x2F ) {
+                return null;
+            }
+            int bits = bb.getInt( 21 );
+            return ImageDimension.of( ( bits & 0x3FFF ) + 1, ( ( bits >>> 14 ) & 0x3FFF ) + 1 );
+        }
+        if ( startsWith( bb, 12, "VP8X" ) ) {
+            return ImageDimension.of( u24( bb, 24 ) + 1, u24( bb, 27 ) + 1 );
+        }
+        return null;
+    }
+
+    /**
+     * Walk the segments until a SOF marker. Only the marker and length of each segment are read.
+     */
+    private static ImageDimension jpeg( SeekableByteChannel sbc ) throws IOException {
+
+        long pos = 2L;
+        for ( int seg = 0; seg < MAX_JPEG_SEGMENTS; seg++ ) {
+            ByteBuffer bb = read( sbc, pos, 9 );
+            if ( bb.remaining() < 4 || u8( bb, 0 ) != 0xFF ) {
+                return null;
+            }
+            int marker = u8( bb, 1 );
+            if ( 0xFF == marker ) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if ( 0x01 == marker || ( marker >= 0xD0 && marker <= 0xD7 ) ) {
+                // no length
+                pos += 2L;
+                continue;
+            }
+            if ( 0xD9 == marker || 0xDA == marker ) {
+                // end of image or start of scan without frame
+                return null;
+            }
+            bb.order( ByteOrder.BIG_ENDIAN );
+            int len = bb.getShort( 2 ) & 0xFFFF;
+            if ( isSof( marker ) ) {
+                if ( bb.remaining() < 9 ) {
+                    return null;
+                }
+                return ImageDimension.of( bb.getShort( 7 ) & 0xFFFF, bb.getShort( 5 ) & 0xFFFF );
+            }
+            if ( len < 2 ) {
+                return null;
+            }
+            pos += 2L + len;
+        }
+        LOG.debug( "No SOF marker in the first {} segments", MAX_JPEG_SEGMENTS );
+        return null;
+    }
+
+    /**
+     * SOF0 .. SOF15 without DHT (C4), JPG (C8) and DAC (CC).
+     */
+    private static boolean isSof( int marker ) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ByteBuffer read( SeekableByteChannel sbc, long pos, int len ) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate( len );
+        sbc.position( pos );
+        while ( bb.hasRemaining() && sbc.read( bb ) > 0 ) {
+            // read until full or end
+        }
+        bb.flip();
+        return bb;
+    }
+
+    private static int u8( ByteBuffer bb, int i ) {
+        return bb.get( i ) & 0xFF;
+    }
+
+    private static int u24( ByteBuffer bb, int i ) {
+        return u8( bb, i ) | u8( bb, i + 1 ) << 8 | u8( bb, i + 2 ) << 16;
+    }
+
+    private static boolean startsWith( ByteBuffer bb, int off, String ascii ) {
+        if ( bb.remaining() < off + ascii.length() ) {
+            return false;
+        }
+        for ( int i = 0; i < ascii.length(); i++ ) {
+            if ( u8( bb, off + i ) != ascii.charAt( i ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,8 +20,10 @@ import eu.jpangolin.jtzipi.mymod.io.ModIO;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
@@ -34,7 +36,6 @@ import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.WeakHashMap;
 
 /**
  * ImageUtils.
@@ -103,22 +104,21 @@ public final class ImageUtils {
 
     public static final double ROTATE_DEG_270_CW = 270D;
 
-    // cache for image reader
-    private static final WeakHashMap<String, ImageReader> IMG_READER_MAP = new WeakHashMap<>();
-    // Default device GraphicsConfiguration
-    private static final GraphicsConfiguration CONFIGURATION =
-            GraphicsEnvironment.getLocalGraphicsEnvironment().
-                    getDefaultScreenDevice().getDefaultConfiguration();
-
     private ImageUtils() {
 
     }
 
     /**
      * Try to read the image dimension of an image.
+     * <p>
+     *     The dimension is read from the header by {@linkplain ImageHeaderProbe}.
+     *     If the format is not known a new image reader for the suffix is used.
+     *     <br/>
+     *     Image reader are not thread safe. So they are not cached.
+     * </p>
      *
      * @param path path to image
-     * @return image dimension or {@link }
+     * @return image dimension or {@link ImageDimension#EMPTY} if the image reader failed
      * @throws IOException          if {@code path} is not readable or no image reader can be found
      * @throws NullPointerException if {@code path} is null
      */
@@ -130,28 +130,23 @@ public final class ImageUtils {
             throw new IOException( "Path[='" + path + "'] not readable" );
         }
 
-        final String sfx = ModIO.getFileNameSuffixSafe( path );
+        final Optional<ImageDimension> dimOpt = ImageHeaderProbe.probe( path );
+        if ( dimOpt.isPresent() ) {
 
-        LOG.debug( "... try to get image reader for '" + sfx + "' image type" );
+            return dimOpt.get();
+        }
 
-        if ( !IMG_READER_MAP.containsKey( sfx ) ) {
+        final String sfx = ModIO.getFileNameSuffixSafe( path );
 
-            LOG.debug( "...No reader cached..." );
-            Iterator<ImageReader> iri = ImageIO.getImageReadersBySuffix( sfx );
+        LOG.debug( "... try to get image reader for '" + sfx + "' image type" );
 
-            if ( iri.hasNext() ) {
-                IMG_READER_MAP.put( sfx, iri.next() );
-                LOG.debug( "... found reader" );
-            } else {
+        Iterator<ImageReader> iri = ImageIO.getImageReadersBySuffix( sfx );
+        if ( !iri.hasNext() ) {
 
-                throw new IOException( "No image reader found for image[='" + path + "']" );
-            }
+            throw new IOException( "No image reader found for image[='" + path + "']" );
         }
 
-
-        ImageReader ir = IMG_READER_MAP.get( sfx );
-
-        return tryReadDim( path.toFile(), ir );
+        return tryReadDim( path.toFile(), iri.next() );
     }
 
     /**
@@ -231,7 +226,7 @@ public final class ImageUtils {
     public static BufferedImage createCompatibleImage( final BufferedImage image,
                                                        final int width, final int height ) {
 
-        return CONFIGURATION.createCompatibleImage( width, height,
+        return Screen.CONFIGURATION.createCompatibleImage( width, height,
                 image.getTransparency() );
     }
 
@@ -252,7 +247,7 @@ public final class ImageUtils {
     public static BufferedImage createCompatibleImage( final int width, final int height ) {
 
 
-        return CONFIGURATION.createCompatibleImage( width, height );
+        return Screen.CONFIGURATION.createCompatibleImage( width, height );
     }
 
     /**
@@ -272,7 +267,7 @@ public final class ImageUtils {
     public static BufferedImage createTranslucentCompatibleImage( final int width,
                                                                   final int height ) {
 
-        return CONFIGURATION.createCompatibleImage( width, height,
+        return Screen.CONFIGURATION.createCompatibleImage( width, height,
                 Transparency.TRANSLUCENT );
     }
 
@@ -314,11 +309,11 @@ public final class ImageUtils {
      */
     public static BufferedImage toCompatibleImage( final BufferedImage image ) {
 
-        if ( image.getColorModel().equals( CONFIGURATION.getColorModel() ) ) {
+        if ( image.getColorModel().equals( Screen.CONFIGURATION.getColorModel() ) ) {
             return image;
         }
 
-        final BufferedImage compatibleImage = CONFIGURATION.createCompatibleImage(
+        final BufferedImage compatibleImage = Screen.CONFIGURATION.createCompatibleImage(
                 image.getWidth(), image.getHeight(), image.getTransparency() );
         final Graphics g = compatibleImage.getGraphics();
         g.drawImage( image, 0, 0, null );
@@ -515,6 +510,123 @@ public final class ImageUtils {
         return thumb;
     }
 
+    /**
+     * <p>Returns a thumbnail of an image file. <code>newSize</code> defines
+     * the length of the longest dimension of the thumbnail.</p>
+     * <p>The image is not decoded in full size. The reader skips pixels with
+     * {@link ImageReadParam#setSourceSubsampling(int, int, int, int)} so the decoded
+     * image is about twice the size of the thumbnail. This is scaled down with
+     * {@link #createThumbnail(BufferedImage, int)}.
+     * So a 48 MP photo needs a few MB instead of about 190 MB of memory.</p>
+     * <p>If the image is smaller than <code>newSize</code> it is not scaled.</p>
+     *
+     * @param path    path to image
+     * @param newSize the length of the largest dimension of the thumbnail
+     * @return a new compatible <code>BufferedImage</code> containing a
+     * thumbnail of the image
+     * @throws IOException              if the image can not be read or no reader is found
+     * @throws IllegalArgumentException if <code>newSize</code> is &lt;= 0
+     * @throws NullPointerException     if <code>path</code> is null
+     * @see #createThumbnail(Path, Rectangle, int)
+     */
+    public static BufferedImage createThumbnail( final Path path, final int newSize ) throws IOException {
+
+        return createThumbnail( path, null, newSize );
+    }
+
+    /**
+     * <p>Returns a thumbnail of a region of an image file. <code>newSize</code> defines
+     * the length of the longest dimension of the thumbnail.</p>
+     * <p>Only the region is decoded. Like {@link #createThumbnail(Path, int)} the
+     * region is decoded with subsampling.</p>
+     *
+     * @param path    path to image
+     * @param region  region of the image or null for the whole image
+     * @param newSize the length of the largest dimension of the thumbnail
+     * @return a new compatible <code>BufferedImage</code> containing a
+     * thumbnail of the region
+     * @throws IOException              if the image can not be read or no reader is found
+     * @throws IllegalArgumentException if <code>newSize</code> is &lt;= 0 or the region is not inside the image
+     * @throws NullPointerException     if <code>path</code> is null
+     */
+    public static BufferedImage createThumbnail( final Path path, final Rectangle region, final int newSize ) throws IOException {
+
+        final BufferedImage image = decodeSubsampled( path, region, newSize );
+        if ( newSize >= Math.max( image.getWidth(), image.getHeight() ) ) {
+            return toCompatibleImage( image );
+        }
+        return createThumbnail( image, newSize );
+    }
+
+    /**
+     * Decode a region of an image file with subsampling.
+     * <p>
+     * The decoded image is about twice the new size. It is not compatible to the screen.
+     * </p>
+     *
+     * @param path    path to image
+     * @param region  region of the image or null for the whole image
+     * @param newSize the length of the largest dimension of the thumbnail
+     * @return decoded image
+     * @throws IOException              if the image can not be read or no reader is found
+     * @throws IllegalArgumentException if <code>newSize</code> is &lt;= 0 or the region is not inside the image
+     * @throws NullPointerException     if <code>path</code> is null
+     */
+    static BufferedImage decodeSubsampled( final Path path, final Rectangle region, final int newSize ) throws IOException {
+
+        Objects.requireNonNull( path );
+        if ( newSize <= 0 ) {
+            throw new IllegalArgumentException( "newSize must" +
+                    " be greater than 0" );
+        }
+
+        try ( final ImageInputStream iis = ImageIO.createImageInputStream( path.toFile() ) ) {
+
+            if ( null == iis ) {
+                throw new IOException( "Path[='" + path + "'] not readable" );
+            }
+            final Iterator<ImageReader> iri = ImageIO.getImageReaders( iis );
+            if ( !iri.hasNext() ) {
+                throw new IOException( "No image reader found for image[='" + path + "']" );
+            }
+
+            final ImageReader ir = iri.next();
+            try {
+                ir.setInput( iis, true, true );
+                final int width = ir.getWidth( 0 );
+                final int height = ir.getHeight( 0 );
+
+                final ImageReadParam param = ir.getDefaultReadParam();
+                Rectangle src = new Rectangle( 0, 0, width, height );
+                if ( null != region ) {
+                    src = src.intersection( region );
+                    if ( src.isEmpty() ) {
+                        throw new IllegalArgumentException( "Region " + region + " not inside image " + width + "x" + height );
+                    }
+                    param.setSourceRegion( src );
+                }
+                // decode about twice the size, so the last step is a bilinear scale
+                final int sub = subsampling( Math.max( src.width, src.height ), newSize );
+                if ( sub > 1 ) {
+                    param.setSourceSubsampling( sub, sub, 0, 0 );
+                }
+                LOG.debug( "Decode '{}' {}x{} with subsampling {}", path, src.width, src.height, sub );
+
+                return ir.read( 0, param );
+            } finally {
+                ir.dispose();
+            }
+        }
+    }
+
+    /**
+     * Return the subsampling so that the decoded size is at least twice the new size.
+     */
+    static int subsampling( final int size, final int newSize ) {
+
+        return Math.max( 1, size / ( 2 * newSize ) );
+    }
+
     /**
      * <p>Returns a thumbnail of a source image.</p>
      * <p>This method offers a good trade-off between speed and quality.
@@ -753,7 +865,7 @@ public final class ImageUtils {
         return resetImageExifTransformation( Files.newInputStream( file.toPath() ));
     }
 
-    private static BufferedImage resetExifOrientation(BufferedImage bufImage, ExifTagOrientation tag) {
+    static BufferedImage resetExifOrientation(BufferedImage bufImage, ExifTagOrientation tag) {
         assert null != bufImage;
 
         // Alle Fälle.
@@ -795,4 +907,14 @@ public final class ImageUtils {
         }
 
     }
+    /**
+     * Lazy holder of the default device GraphicsConfiguration.
+     * So methods without a compatible image work without a screen.
+     */
+    private static final class Screen {
+
+        private static final GraphicsConfiguration CONFIGURATION =
+                GraphicsEnvironment.getLocalGraphicsEnvironment().
+                        getDefaultScreenDevice().getDefaultConfiguration();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,651 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.image;
+
+import eu.jpangolin.jtzipi.mymod.io.OS;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of thumbnails on disk and in memory.
+ * <p>
+ *     The thumbnails are stored like the
+ *     <a href="https://specifications.freedesktop.org/thumbnail-spec/latest/">freedesktop thumbnail spec</a>.
+ *     So thumbnails created by file managers are used and ours are used by them.
+ *     <ul>
+ *         <li>the directory of a size is {@code <root>/normal}, {@code large}, {@code x-large} or {@code xx-large}</li>
+ *         <li>the file name is the MD5 of the URI of the image like {@code file:///home/tim/a%20b.jpg} in hex with suffix {@code .png}</li>
+ *         <li>the PNG has the text chunks {@code Thumb::URI} and {@code Thumb::MTime} (seconds)</li>
+ *     </ul>
+ *     A thumbnail is only valid if its {@code Thumb::MTime} is the modification time of the image.
+ *     <br/>
+ *     The default root is {@code $XDG_CACHE_HOME/thumbnails} or {@code ~/.cache/thumbnails}.
+ *     <br/>
+ *     In front of the disk the last used thumbnails are kept in memory.
+ *     <br/>
+ *     If the files of all sizes are larger than the max bytes the least recently used files are deleted
+ *     until they are not larger than {@linkplain #LOW_WATER_PERCENT} of the max bytes. So not every
+ *     following store reads the directories again.
+ *     The modification time of the thumbnail file is its last use. It is updated if the thumbnail is read from disk.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     ThumbnailCache cache = ThumbnailCache.of();
+ *     BufferedImage thumb = cache.getOrCreate( path, ThumbnailCache.ThumbnailSize.LARGE,
+ *                                              ( p, size ) -> ImageUtils.createThumbnail( p, size ) );
+ *     }
+ * </pre>
+ * @author jTzipi
+ */
+public final class ThumbnailCache {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( ThumbnailCache.class );
+    /**
+     * Default max bytes of the files on disk.
+     */
+    public static final long DEF_MAX_BYTES = 512L * 1024L * 1024L;
+    /**
+     * Default max thumbnails in memory.
+     */
+    public static final int DEF_MEMORY_ENTRIES = 256;
+    /**
+     * Percent of the max bytes left after a cleanup.
+     */
+    public static final int LOW_WATER_PERCENT = 80;
+    /**
+     * Key of the URI text chunk.
+     */
+    static final String KEY_URI = "Thumb::URI";
+    /**
+     * Key of the modification time text chunk.
+     */
+    static final String KEY_MTIME = "Thumb::MTime";
+    private static final String PNG_FORMAT = "javax_imageio_png_1.0";
+    private static final String SFX = ".png";
+
+    private final Path root;
+    private final long maxBytes;
+    private final Map<String, Entry> memoryMap;
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // bytes on disk. Read on first write
+    private long diskBytes = -1L;
+
+    private ThumbnailCache( final Path root, final long maxBytes, final int memoryEntries ) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.memoryMap = new LinkedHashMap<>( 16, 0.75F, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Cache in the default root with default limits.
+     *
+     * @return cache
+     */
+    public static ThumbnailCache of() {
+        return of( defaultRoot(), DEF_MAX_BYTES, DEF_MEMORY_ENTRIES );
+    }
+
+    /**
+     * Cache.
+     *
+     * @param root          root directory
+     * @param maxBytes      max bytes of the files on disk
+     * @param memoryEntries max thumbnails in memory [0 .. ]
+     * @return cache
+     * @throws NullPointerException     if {@code root} is null
+     * @throws IllegalArgumentException if {@code maxBytes} is not positive or {@code memoryEntries} is negative
+     */
+    public static ThumbnailCache of( final Path root, final long maxBytes, final int memoryEntries ) {
+        Objects.requireNonNull( root );
+        if ( maxBytes <= 0L ) {
+            throw new IllegalArgumentException( "Max bytes must be positive" );
+        }
+        if ( memoryEntries < 0 ) {
+            throw new IllegalArgumentException( "Memory entries is negative" );
+        }
+        return new ThumbnailCache( root, maxBytes, memoryEntries );
+    }
+
+    /**
+     * Return the default root {@code $XDG_CACHE_HOME/thumbnails} or {@code ~/.cache/thumbnails}.
+     *
+     * @return default root
+     */
+    public static Path defaultRoot() {
+        String xdg = System.getenv( "XDG_CACHE_HOME" );
+        Path cache = null == xdg || xdg.isBlank() ? OS.getHomeDir().resolve( ".cache" ) : Paths.get( xdg );
+        return cache.resolve( "thumbnails" );
+    }
+
+    /**
+     * Return the URI of the image like in the thumbnail.
+     *
+     * @param image path to image
+     * @return URI
+     */
+    static String uriOf( final Path image ) {
+        return image.toAbsolutePath().normalize().toUri().toString();
+    }
+
+    /**
+     * Return the path of the thumbnail of an image.
+     *
+     * @param image path to image
+     * @param size  size
+     * @return path of thumbnail, which may not exist
+     * @throws NullPointerException if {@code image} or {@code size} is null
+     */
+    public Path thumbnailPath( final Path image, final ThumbnailSize size ) {
+        Objects.requireNonNull( image );
+        Objects.requireNonNull( size );
+        return root.resolve( size.getDirName() ).resolve( DigestUtils.md5Hex( uriOf( image ) ) + SFX );
+    }
+
+    /**
+     * Return a valid thumbnail of the image.
+     *
+     * @param image path to image
+     * @param size  size
+     * @return thumbnail or empty if not cached or the image is modified
+     * @throws NullPointerException if {@code image} or {@code size} is null
+     */
+    public Optional<BufferedImage> get( final Path image, final ThumbnailSize size ) {
+
+        Path thumbPath = thumbnailPath( image, size );
+        long mtime;
+        try {
+            mtime = mtimeSec( image );
+        } catch ( IOException ioE ) {
+            LOG.debug( "Image '{}' not readable", image, ioE );
+            misses.increment();
+            return Optional.empty();
+        }
+
+        String key = thumbPath.toString();
+        synchronized ( memoryMap ) {
+            Entry entry = memoryMap.get( key );
+            if ( null != entry && entry.mtime() == mtime ) {
+                memoryHits.increment();
+                return Optional.of( entry.image() );
+            }
+        }
+
+        Optional<BufferedImage> thumbOpt = readValid( thumbPath, uriOf( image ), mtime );
+        if ( thumbOpt.isEmpty() ) {
+            misses.increment();
+            return thumbOpt;
+        }
+        diskHits.increment();
+        touch( thumbPath );
+        synchronized ( memoryMap ) {
+            memoryMap.put( key, new Entry( thumbOpt.get(), mtime ) );
+        }
+        return thumbOpt;
+    }
+
+    /**
+     * Store a thumbnail of the image.
+     *
+     * @param image path to image
+     * @param size  size
+     * @param thumb thumbnail
+     * @throws IOException          if the image or the thumbnail directory is not readable or writable
+     * @throws NullPointerException if any argument is null
+     */
+    public void put( final Path image, final ThumbnailSize size, final BufferedImage thumb ) throws IOException {
+        Objects.requireNonNull( thumb );
+        Path thumbPath = thumbnailPath( image, size );
+        long mtime = mtimeSec( image );
+
+        Path dir = thumbPath.getParent();
+        createDir( dir );
+        Path tmp = Files.createTempFile( dir, "mymod-", SFX );
+        boolean clean;
+        try {
+            write( tmp, thumb, uriOf( image ), mtime );
+            synchronized ( this ) {
+                // a replaced thumbnail is no longer on disk
+                long oldBytes = Files.isRegularFile( thumbPath ) ? Files.size( thumbPath ) : 0L;
+                Files.move( tmp, thumbPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+                if ( diskBytes < 0L ) {
+                    diskBytes = diskBytes();
+                } else {
+                    diskBytes += Files.size( thumbPath ) - oldBytes;
+                }
+                clean = diskBytes > maxBytes;
+            }
+        } finally {
+            Files.deleteIfExists( tmp );
+        }
+        synchronized ( memoryMap ) {
+            memoryMap.put( thumbPath.toString(), new Entry( thumb, mtime ) );
+        }
+
+        if ( clean ) {
+            cleanup();
+        }
+    }
+
+    /**
+     * Return a valid thumbnail or create and store it.
+     * <p>
+     *     If the thumbnail can not be stored it is returned anyway.
+     * </p>
+     *
+     * @param image   path to image
+     * @param size    size
+     * @param creator creator of the thumbnail
+     * @return thumbnail
+     * @throws IOException          if the thumbnail can not be created
+     * @throws NullPointerException if any argument is null
+     */
+    public BufferedImage getOrCreate( final Path image, final ThumbnailSize size, final IThumbnailCreator creator ) throws IOException {
+        Objects.requireNonNull( creator );
+        Optional<BufferedImage> thumbOpt = get( image, size );
+        if ( thumbOpt.isPresent() ) {
+            return thumbOpt.get();
+        }
+        BufferedImage thumb = creator.create( image, size.getSize() );
+        try {
+            put( image, size, thumb );
+        } catch ( IOException ioE ) {
+            LOG.warn( "Failed to store thumbnail of '{}'", image, ioE );
+        }
+        return thumb;
+    }
+
+    /**
+     * Remove the thumbnails of all sizes of an image.
+     *
+     * @param image path to image
+     * @throws NullPointerException if {@code image} is null
+     */
+    public void invalidate( final Path image ) {
+        for ( ThumbnailSize size : ThumbnailSize.values() ) {
+            Path thumbPath = thumbnailPath( image, size );
+            synchronized ( memoryMap ) {
+                memoryMap.remove( thumbPath.toString() );
+            }
+            try {
+                Files.deleteIfExists( thumbPath );
+            } catch ( IOException ioE ) {
+                LOG.warn( "Failed to delete '{}'", thumbPath, ioE );
+            }
+        }
+        synchronized ( this ) {
+            diskBytes = -1L;
+        }
+    }
+
+    /**
+     * Clear the thumbnails in memory.
+     */
+    public void clearMemory() {
+        synchronized ( memoryMap ) {
+            memoryMap.clear();
+        }
+    }
+
+    /**
+     * Delete the least recently used thumbnails until the files are not larger than
+     * {@linkplain #LOW_WATER_PERCENT} of max bytes.
+     *
+     * @return number of deleted files
+     */
+    public synchronized int cleanup() {
+
+        List<Map.Entry<Path, BasicFileAttributes>> fileL = new ArrayList<>();
+        for ( ThumbnailSize size : ThumbnailSize.values() ) {
+            Path dir = root.resolve( size.getDirName() );
+            if ( !Files.isDirectory( dir ) ) {
+                continue;
+            }
+            try ( DirectoryStream<Path> ds = Files.newDirectoryStream( dir, "*" + SFX ) ) {
+                for ( Path path : ds ) {
+                    fileL.add( Map.entry( path, Files.readAttributes( path, BasicFileAttributes.class ) ) );
+                }
+            } catch ( IOException ioE ) {
+                LOG.warn( "Failed to read '{}'", dir, ioE );
+            }
+        }
+
+        long bytes = fileL.stream().mapToLong( e -> e.getValue().size() ).sum();
+        fileL.sort( Map.Entry.comparingByValue( ( a, b ) -> a.lastModifiedTime().compareTo( b.lastModifiedTime() ) ) );
+
+        // percent of max bytes without overflow
+        long lowWater = maxBytes / 100L * LOW_WATER_PERCENT + maxBytes % 100L * LOW_WATER_PERCENT / 100L;
+        int deleted = 0;
+        Iterator<Map.Entry<Path, BasicFileAttributes>> it = fileL.iterator();
+        while ( bytes > lowWater && it.hasNext() ) {
+            Map.Entry<Path, BasicFileAttributes> e = it.next();
+            try {
+                Files.deleteIfExists( e.getKey() );
+                bytes -= e.getValue().size();
+                deleted++;
+            } catch ( IOException ioE ) {
+                LOG.warn( "Failed to delete '{}'", e.getKey(), ioE );
+            }
+        }
+        diskBytes = bytes;
+        LOG.debug( "Cleanup deleted {} thumbnails, {} bytes left", deleted, bytes );
+        return deleted;
+    }
+
+    /**
+     * Return the number of thumbnails found in memory.
+     *
+     * @return memory hits
+     */
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    /**
+     * Return the number of thumbnails read from disk.
+     *
+     * @return disk hits
+     */
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    /**
+     * Return the number of thumbnails not found or not valid.
+     *
+     * @return misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the root directory.
+     *
+     * @return root
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    private long diskBytes() {
+        long bytes = 0L;
+        for ( ThumbnailSize size : ThumbnailSize.values() ) {
+            Path dir = root.resolve( size.getDirName() );
+            if ( !Files.isDirectory( dir ) ) {
+                continue;
+            }
+            try ( DirectoryStream<Path> ds = Files.newDirectoryStream( dir, "*" + SFX ) ) {
+                for ( Path path : ds ) {
+                    bytes += Files.size( path );
+                }
+            } catch ( IOException ioE ) {
+                LOG.warn( "Failed to read '{}'", dir, ioE );
+            }
+        }
+        return bytes;
+    }
+
+    private static long mtimeSec( final Path image ) throws IOException {
+        return Files.getLastModifiedTime( image ).to( TimeUnit.SECONDS );
+    }
+
+    private static void touch( final Path thumbPath ) {
+        try {
+            Files.setLastModifiedTime( thumbPath, FileTime.fromMillis( System.currentTimeMillis() ) );
+        } catch ( IOException ioE ) {
+            LOG.debug( "Failed to touch '{}'", thumbPath, ioE );
+        }
+    }
+
+    /**
+     * The spec wants the directories only readable by the user.
+     */
+    private static void createDir( final Path dir ) throws IOException {
+        if ( Files.isDirectory( dir ) ) {
+            return;
+        }
+        try {
+            if ( OS.WINDOWS == OS.getSystemOS() ) {
+                Files.createDirectories( dir );
+            } else {
+                Files.createDirectories( dir, PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rwx------" ) ) );
+            }
+        } catch ( FileAlreadyExistsException faee ) {
+            // created by other thread
+            LOG.debug( "Dir '{}' created", dir );
+        }
+    }
+
+    /**
+     * Read the thumbnail if URI and modification time match.
+     */
+    private static Optional<BufferedImage> readValid( final Path thumbPath, final String uri, final long mtime ) {
+        if ( !Files.isRegularFile( thumbPath ) ) {
+            return Optional.empty();
+        }
+        try ( ImageInputStream iis = ImageIO.createImageInputStream( thumbPath.toFile() ) ) {
+            Iterator<ImageReader> iri = ImageIO.getImageReadersByFormatName( "png" );
+            if ( null == iis || !iri.hasNext() ) {
+                return Optional.empty();
+            }
+            ImageReader ir = iri.next();
+            try {
+                ir.setInput( iis, true, false );
+                Map<String, String> textMap = readText( ir.getImageMetadata( 0 ) );
+                if ( !uri.equals( textMap.get( KEY_URI ) ) || !Long.toString( mtime ).equals( textMap.get( KEY_MTIME ) ) ) {
+                    LOG.debug( "Thumbnail '{}' not valid", thumbPath );
+                    return Optional.empty();
+                }
+                return Optional.of( ir.read( 0 ) );
+            } finally {
+                ir.dispose();
+            }
+        } catch ( IOException | RuntimeException e ) {
+            LOG.debug( "Failed to read thumbnail '{}'", thumbPath, e );
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Return the text chunks of a PNG.
+     */
+    static Map<String, String> readText( final IIOMetadata meta ) {
+        Map<String, String> textMap = new HashMap<>();
+        Node tree = meta.getAsTree( PNG_FORMAT );
+        for ( Node node = tree.getFirstChild(); null != node; node = node.getNextSibling() ) {
+            if ( !"tEXt".equals( node.getNodeName() ) && !"iTXt".equals( node.getNodeName() ) ) {
+                continue;
+            }
+            for ( Node text = node.getFirstChild(); null != text; text = text.getNextSibling() ) {
+                NamedNodeMap attr = text.getAttributes();
+                Node keyword = attr.getNamedItem( "keyword" );
+                Node value = attr.getNamedItem( "tEXtEntry".equals( text.getNodeName() ) ? "value" : "text" );
+                if ( null != keyword && null != value ) {
+                    textMap.put( keyword.getNodeValue(), value.getNodeValue() );
+                }
+            }
+        }
+        return textMap;
+    }
+
+    /**
+     * Write the thumbnail as PNG with URI and modification time.
+     */
+    private static void write( final Path path, final BufferedImage thumb, final String uri, final long mtime ) throws IOException {
+        Iterator<ImageWriter> iwi = ImageIO.getImageWritersByFormatName( "png" );
+        if ( !iwi.hasNext() ) {
+            throw new IOException( "No png writer" );
+        }
+        ImageWriter iw = iwi.next();
+        try ( ImageOutputStream ios = ImageIO.createImageOutputStream( path.toFile() ) ) {
+            IIOMetadata meta = iw.getDefaultImageMetadata( ImageTypeSpecifier.createFromRenderedImage( thumb ), null );
+            IIOMetadataNode text = new IIOMetadataNode( "tEXt" );
+            text.appendChild( textEntry( KEY_URI, uri ) );
+            text.appendChild( textEntry( KEY_MTIME, Long.toString( mtime ) ) );
+            IIOMetadataNode tree = new IIOMetadataNode( PNG_FORMAT );
+            tree.appendChild( text );
+            meta.mergeTree( PNG_FORMAT, tree );
+
+            iw.setOutput( ios );
+            iw.write( new IIOImage( thumb, null, meta ) );
+        } catch ( IIOInvalidTreeException iite ) {
+            throw new IOException( "Failed to write text chunks", iite );
+        } finally {
+            iw.dispose();
+        }
+    }
+
+    private static IIOMetadataNode textEntry( final String key, final String value ) {
+        IIOMetadataNode entry = new IIOMetadataNode( "tEXtEntry" );
+        entry.setAttribute( "keyword", key );
+        entry.setAttribute( "value", value );
+        entry.setAttribute( "compression", "none" );
+        return entry;
+    }
+
+    /**
+     * Thumbnail in memory.
+     *
+     * @param image thumbnail
+     * @param mtime modification time of the image in seconds
+     */
+    private record Entry( BufferedImage image, long mtime ) {
+    }
+
+    /**
+     * Sizes of the freedesktop spec.
+     */
+    public enum ThumbnailSize {
+
+        /**
+         * 128 pixel.
+         */
+        NORMAL( 128, "normal" ),
+        /**
+         * 256 pixel.
+         */
+        LARGE( 256, "large" ),
+        /**
+         * 512 pixel.
+         */
+        X_LARGE( 512, "x-large" ),
+        /**
+         * 1024 pixel.
+         */
+        XX_LARGE( 1024, "xx-large" );
+
+        private final int size;
+        private final String dirName;
+
+        ThumbnailSize( final int size, final String dirName ) {
+            this.size = size;
+            this.dirName = dirName;
+        }
+
+        /**
+         * Return the smallest size not smaller than the pixel.
+         *
+         * @param pixel longest dimension
+         * @return size or {@linkplain #XX_LARGE} if larger
+         */
+        public static ThumbnailSize forSize( final int pixel ) {
+            for ( ThumbnailSize ts : values() ) {
+                if ( pixel <= ts.size ) {
+                    return ts;
+                }
+            }
+            return XX_LARGE;
+        }
+
+        /**
+         * Return the longest dimension.
+         *
+         * @return pixel
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Return the name of the directory.
+         *
+         * @return directory name
+         */
+        public String getDirName() {
+            return dirName;
+        }
+    }
+
+    /**
+     * Creator of a thumbnail.
+     */
+    @FunctionalInterface
+    public interface IThumbnailCreator {
+
+        /**
+         * Create a thumbnail.
+         *
+         * @param image path to image
+         * @param size  longest dimension
+         * @return thumbnail
+         * @throws IOException if the image can not be read
+         */
+        BufferedImage create( Path image, int size ) throws IOException;
+    }
+}
@@ -17,14 +17,13 @@
 package eu.jpangolin.jtzipi.mymod.io.watcher;
 
 import eu.jpangolin.jtzipi.mymod.io.async.AbstractBackgroundService;
+import eu.jpangolin.jtzipi.mymod.io.async.BackgroundServiceRegistry;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -39,8 +38,11 @@ import static java.nio.file.StandardWatchEventKinds.*;
  *     For one or more path's we create the FileSystemWatcher.
  *     with option to trace path changes.
  *     <br/>
- *     An ExecutorService is in charge of the service.
- *
+ *     The watch loop runs on the blocking executor of a {@linkplain BackgroundServiceRegistry}.
+ *     Default is the shared registry.
+ *     <br/>
+ *     The watcher can be stopped and started again. On start we create a new watch service
+ *     and register the paths again.
  *
  * </p>
  * @author jTzipi
@@ -48,9 +50,9 @@ import static java.nio.file.StandardWatchEventKinds.*;
 public final class FileSystemWatcher extends AbstractBackgroundService {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( "FSW" );
-    private static final ExecutorService EXEC = Executors.newSingleThreadExecutor();
     // -- Attribute
-    private final WatchService ws;
+    private final BackgroundServiceRegistry registry;
+    private volatile WatchService ws;
     private final Set<Path> rootSet = new HashSet<>();
     private final Set<Path> unregPathSet = new HashSet<>();
     private final Map<WatchKey, Path> keyMap = new HashMap<>();
@@ -58,9 +60,10 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
     private final boolean trace;
     private Future<?> task; // control the background task
 
-    FileSystemWatcher( final WatchService ws, final Set<Path> rootSet, final boolean trace ) {
+    FileSystemWatcher( final WatchService ws, final Set<Path> rootSet, final boolean trace, final BackgroundServiceRegistry registry ) {
         super("File System Watcher");
         this.ws = ws;
+        this.registry = registry;
         this.rootSet.addAll( rootSet );
         this.trace = trace;
     }
@@ -76,6 +79,22 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
      * @throws NullPointerException if {@code roots}
      */
     public static FileSystemWatcher of( final boolean trace, final Path... roots ) throws IOException {
+        return of( BackgroundServiceRegistry.shared(), trace, roots );
+    }
+
+    /**
+     * Create new instance for one or more root folder running on a registry.
+     *
+     * @param registry registry
+     * @param trace trace changed watch key
+     * @param roots one or more root paths [1 .. ]
+     * @return FileSystem Watcher
+     * @throws IOException          fail to create watch service
+     * @throws IllegalArgumentException if {@code roots.length} is 0.
+     * @throws NullPointerException if {@code registry} | {@code roots}
+     */
+    public static FileSystemWatcher of( final BackgroundServiceRegistry registry, final boolean trace, final Path... roots ) throws IOException {
+        Objects.requireNonNull( registry, "Registry is null" );
         Objects.requireNonNull( roots, "Path to watch is null" );
         if( 0 == roots.length ) {
             throw new IllegalArgumentException("At least on path to watch needed!");
@@ -83,7 +102,7 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
 
         WatchService watchService = FileSystems.getDefault().newWatchService();
         Set<Path> rootS = Stream.of(roots).filter(Objects::nonNull).collect(Collectors.toSet());
-        return new FileSystemWatcher( watchService, rootS, trace );
+        return new FileSystemWatcher( watchService, rootS, trace, registry );
     }
 
     /**
@@ -141,20 +160,19 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
 
     @Override
     public boolean iStopped() {
-        return EXEC.isShutdown();
-    }
-
-    @Override
-    protected void preStart() {
-        init();
+        return registry.isShutdown();
     }
 
-
     @Override
     protected void startService() throws IOException {
 
         LOG.info( "Start Watch Service" );
-        task = EXEC.submit( this::watch );
+        // a closed watch service can not be used again
+        if ( null == ws ) {
+            ws = FileSystems.getDefault().newWatchService();
+        }
+        init();
+        task = registry.submitBlocking( this, this::watch );
 
     }
 
@@ -187,9 +205,14 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
         
 
         // we don't need result so we can
-        EXEC.shutdownNow();
+        task.cancel( true );
         // close watch service
         ws.close();
+        ws = null;
+        // register all paths again on next start
+        rootSet.addAll( keyMap.values() );
+        keyMap.clear();
+        registry.release( this );
     }
 
 
@@ -197,7 +220,7 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
     public boolean isRunning() {
 
         // -
-        return !EXEC.isShutdown()
+        return !registry.isShutdown()
                 && null != task
                 && !task.isDone()
                 && !task.isCancelled();
@@ -273,6 +296,11 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
         // try to add the path to the watch service
         // with all 3 watch event types for Path
         // TDO : OVERFLOW??
+        if ( null == ws ) {
+            // not running: register on next start
+            rootSet.add( path );
+            return;
+        }
         try {
             WatchKey key = path.register( ws, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY );
 
@@ -301,11 +329,13 @@ public final class FileSystemWatcher extends AbstractBackgroundService {
 
     private void watch() {
 
+        // the field is null after stop
+        final WatchService service = ws;
         for ( ; ; ) {
             WatchKey watchKey;
             try {
                 // blocked waiting for event
-                watchKey = ws.take();
+                watchKey = service.take();
             } catch ( InterruptedException ie ) {
                 LOG.warn( "Was interrupted close this watcher" );
                 Thread.currentThread().interrupt();
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Preload Memo Test.
+ *
+ * @author jTzipi
+ */
+class AbstractPreloadMemoTest {
+
+    private FailingMemo memo;
+
+    @AfterEach
+    void tearDown() {
+        memo.stopNow();
+    }
+
+    @DisplayName("A failed computation is evicted")
+    @Test
+    void evictOnFailure() throws InterruptedException {
+
+        memo = new FailingMemo( Integer.MAX_VALUE );
+        Future<String> f = memo.start( "a" );
+
+        assertThrows( ExecutionException.class, () -> f.get( 1L, TimeUnit.SECONDS ) );
+        assertFalse( memo.isMemoized( "a" ) );
+    }
+
+    @DisplayName("Evicted keys are reported")
+    @Test
+    void onEvicted() throws Exception {
+
+        memo = new FailingMemo( 1 );
+        assertThrows( ExecutionException.class, () -> memo.start( "a" ).get( 1L, TimeUnit.SECONDS ) );
+        memo.start( "b" ).get( 1L, TimeUnit.SECONDS );
+        memo.start( "c" ).get( 1L, TimeUnit.SECONDS );
+        assertEquals( List.of( "a" ), memo.evictedL );
+
+        memo.remove( "b" );
+        memo.removeAll();
+        assertEquals( List.of( "a", "b", "c" ), memo.evictedL );
+    }
+
+    @DisplayName("Listeners are told about cached and evicted keys")
+    @Test
+    void listener() throws Exception {
+
+        memo = new FailingMemo( 1 );
+        List<String> cachedL = new CopyOnWriteArrayList<>();
+        List<String> evictedL = new CopyOnWriteArrayList<>();
+        IPreloadMemoListener<Object> listener = new IPreloadMemoListener<>() {
+            @Override
+            public void onCached( Object key ) {
+                cachedL.add( key.toString() );
+                throw new IllegalStateException( "must not break the memo" );
+            }
+
+            @Override
+            public void onEvicted( Object key ) {
+                evictedL.add( key.toString() );
+            }
+        };
+        memo.addListener( listener );
+        assertThrows( ExecutionException.class, () -> memo.start( "a" ).get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( "B", memo.start( "b" ).get( 1L, TimeUnit.SECONDS ) );
+        memo.remove( "b" );
+        assertEquals( List.of( "b" ), cachedL );
+        assertEquals( List.of( "a", "b" ), evictedL );
+
+        assertTrue( memo.removeListener( listener ) );
+        memo.start( "c" ).get( 1L, TimeUnit.SECONDS );
+        assertEquals( List.of( "b" ), cachedL );
+    }
+
+    @DisplayName("A failed computation is cached until the ttl expired")
+    @Test
+    void negativeCache() throws InterruptedException {
+
+        memo = new FailingMemo( Integer.MAX_VALUE );
+        memo.setFailurePolicy( FailurePolicy.negativeCache( Duration.ofMillis( 50L ) ) );
+        Future<String> f = memo.start( "a" );
+
+        assertThrows( ExecutionException.class, () -> f.get( 1L, TimeUnit.SECONDS ) );
+        assertTrue( memo.isMemoized( "a" ) );
+        assertSame( f, memo.start( "a" ) );
+
+        TimeUnit.MILLISECONDS.sleep( 100L );
+        assertFalse( memo.isMemoized( "a" ) );
+        assertThrows( IllegalArgumentException.class, () -> memo.get( "a" ) );
+    }
+
+    @DisplayName("A failed computation with a very long ttl is cached")
+    @Test
+    void negativeCacheLongTtl() {
+
+        memo = new FailingMemo( Integer.MAX_VALUE );
+        memo.setFailurePolicy( FailurePolicy.negativeCache( Duration.ofDays( 365L * 300L ) ) );
+        Future<String> f = memo.start( "a" );
+
+        assertThrows( ExecutionException.class, () -> f.get( 1L, TimeUnit.SECONDS ) );
+        assertTrue( memo.isMemoized( "a" ) );
+        assertTrue( memo.getFailurePolicy().isKeepForever() );
+        assertEquals( Long.MAX_VALUE, FailurePolicy.retry( 16, Duration.ofDays( 365L * 300L ) ).backoffNanos( 16 ) );
+    }
+
+    @DisplayName("A failed computation is retried")
+    @Test
+    void retry() throws Exception {
+
+        memo = new FailingMemo( 2 );
+        memo.setFailurePolicy( FailurePolicy.retry( 2, Duration.ofMillis( 1L ) ) );
+
+        assertEquals( "A", memo.start( "a" ).get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( 3, memo.calls.get() );
+        assertTrue( memo.isMemoized( "a" ) );
+    }
+
+    @DisplayName("A stage completes without blocking and is independent of the cached computation")
+    @Test
+    void startAsync() throws Exception {
+
+        memo = new FailingMemo( 0 );
+        memo.gate = new CountDownLatch( 1 );
+        CompletableFuture<String> stage = memo.startAsync( "a" ).toCompletableFuture();
+        CompletableFuture<String> other = memo.startAsync( "a" ).toCompletableFuture();
+
+        // the computation is blocked so both stages are pending
+        assertTrue( other.cancel( true ) );
+        assertFalse( stage.isDone() );
+        assertTrue( memo.isMemoized( "a" ) );
+
+        memo.gate.countDown();
+        assertEquals( "A", stage.get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( "A", memo.getAsync( "a" ).toCompletableFuture().get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( 1, memo.calls.get() );
+    }
+
+    @DisplayName("A stage completes exceptionally if the computation failed")
+    @Test
+    void startAsyncFailed() {
+
+        memo = new FailingMemo( Integer.MAX_VALUE );
+        CompletableFuture<String> stage = memo.startAsync( "a" ).toCompletableFuture();
+
+        ExecutionException eE = assertThrows( ExecutionException.class, () -> stage.get( 1L, TimeUnit.SECONDS ) );
+        assertInstanceOf( IllegalStateException.class, eE.getCause() );
+    }
+
+    @DisplayName("Values evicted from cache are promoted back from the second tier")
+    @Test
+    void secondTier() throws Exception {
+
+        memo = new FailingMemo( 0 );
+        memo.setMaxStrongSize( 1 );
+        assertEquals( "A", memo.start( "a" ).get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( "B", memo.start( "b" ).get( 1L, TimeUnit.SECONDS ) );
+
+        assertEquals( 1, memo.getSoftSize() );
+        assertTrue( memo.isMemoized( "a" ) );
+        // a query does not promote
+        assertEquals( 1, memo.getSoftSize() );
+        assertEquals( "A", memo.get( "a" ).get() );
+        assertEquals( 2, memo.calls.get() );
+    }
+
+    @DisplayName("A running computation does not stop moving older values to the second tier")
+    @Test
+    void secondTierSkipsRunning() throws Exception {
+
+        memo = new FailingMemo( 0 );
+        memo.setMaxStrongSize( 2 );
+        assertEquals( "A", memo.start( "a" ).get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( "B", memo.start( "b" ).get( 1L, TimeUnit.SECONDS ) );
+
+        // recompute 'a' and block it
+        memo.remove( "a" );
+        memo.gate = new CountDownLatch( 1 );
+        Future<String> a = memo.start( "a" );
+        memo.setMaxStrongSize( 1 );
+
+        assertEquals( 1, memo.getSoftSize() );
+        assertTrue( memo.isMemoized( "b" ) );
+        memo.gate.countDown();
+        assertEquals( "A", a.get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( 3, memo.calls.get() );
+    }
+
+    @DisplayName("Hits, misses and loads are counted")
+    @Test
+    void stats() throws Exception {
+
+        memo = new FailingMemo( 1 );
+        assertThrows( ExecutionException.class, () -> memo.start( "a" ).get( 1L, TimeUnit.SECONDS ) );
+        memo.start( "b" ).get( 1L, TimeUnit.SECONDS );
+        memo.start( "b" ).get( 1L, TimeUnit.SECONDS );
+        memo.get( "b" );
+
+        PreloadMemoStats.Snapshot snap = memo.getStats();
+        assertEquals( 2L, snap.misses() );
+        assertEquals( 2L, snap.hits() );
+        assertEquals( 1L, snap.loads() );
+        assertEquals( 1L, snap.loadFailures() );
+        assertEquals( 1L, snap.evictions() );
+        assertEquals( 1, snap.size() );
+        assertEquals( 0.5D, snap.hitRate() );
+        assertTrue( snap.p50Load().compareTo( snap.maxLoad() ) <= 0 );
+        assertFalse( snap.maxLoad().isZero() );
+    }
+
+    @DisplayName("A snapshot restores computed values without computing again")
+    @Test
+    void snapshot( @TempDir Path dir ) throws Exception {
+
+        Path file = dir.resolve( "memo.snap" );
+        memo = new FailingMemo( 1 );
+        memo.setFailurePolicy( FailurePolicy.KEEP );
+        assertThrows( ExecutionException.class, () -> memo.start( "a" ).get( 1L, TimeUnit.SECONDS ) );
+        memo.start( "b" ).get( 1L, TimeUnit.SECONDS );
+        assertEquals( 1, memo.writeSnapshot( file, IPreloadSnapshotCodec.serializable( String.class, String.class ) ) );
+        memo.stopNow();
+
+        memo = new FailingMemo( 0 );
+        assertEquals( 1, memo.readSnapshot( file, IPreloadSnapshotCodec.serializable( String.class, String.class ) ) );
+        assertTrue( memo.isMemoized( "b" ) );
+        assertFalse( memo.isMemoized( "a" ) );
+        assertEquals( "B", memo.get( "b" ).get( 1L, TimeUnit.SECONDS ) );
+        assertEquals( 0, memo.calls.get() );
+    }
+
+    @DisplayName("A snapshot with a class not allowed is not read")
+    @Test
+    void snapshotFilter( @TempDir Path dir ) throws Exception {
+
+        Path file = dir.resolve( "memo.snap" );
+        memo = new FailingMemo( 0 );
+        memo.start( "b" ).get( 1L, TimeUnit.SECONDS );
+        // write a value of another class than expected
+        memo.writeSnapshot( file, new IPreloadSnapshotCodec<>() {
+            @Override
+            public void write( ObjectOutput out, String key, String value ) throws IOException {
+                out.writeObject( key );
+                out.writeObject( new ArrayList<>( List.of( value ) ) );
+            }
+
+            @Override
+            public Map.Entry<String, String> read( ObjectInput in ) {
+                throw new UnsupportedOperationException();
+            }
+        } );
+        memo.stopNow();
+
+        memo = new FailingMemo( 0 );
+        assertThrows( InvalidClassException.class, () -> memo.readSnapshot( file, IPreloadSnapshotCodec.serializable( String.class, String.class ) ) );
+        assertFalse( memo.isMemoized( "b" ) );
+    }
+
+    /**
+     * Memo failing the first n calls.
+     */
+    private static final class FailingMemo extends AbstractPreloadMemo<String, String> {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final List<String> evictedL = new CopyOnWriteArrayList<>();
+        private final int fails;
+        // compute waits until open
+        private volatile CountDownLatch gate = new CountDownLatch( 0 );
+
+        private FailingMemo( int failCount ) {
+            super( Executors.newSingleThreadExecutor() );
+            this.fails = failCount;
+        }
+
+        @Override
+        protected String compute( String arg ) {
+            try {
+                gate.await();
+            } catch ( InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( iE );
+            }
+            if ( calls.incrementAndGet() <= fails ) {
+                throw new IllegalStateException( "fail " + arg );
+            }
+            return arg.toUpperCase();
+        }
+
+        @Override
+        protected void onEvicted( String key ) {
+            evictedL.add( key );
+        }
+    }
+}
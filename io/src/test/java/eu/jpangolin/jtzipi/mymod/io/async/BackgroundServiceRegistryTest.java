@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Background Service Registry Test.
+ *
+ * @author jTzipi
+ */
+class BackgroundServiceRegistryTest {
+
+    private final List<String> eventL = new CopyOnWriteArrayList<>();
+    private BackgroundServiceRegistry registry;
+    private TickService a;
+    private TickService b;
+    private TickService c;
+
+    @BeforeEach
+    void setUp() {
+        registry = new BackgroundServiceRegistry( 1 );
+        a = new TickService( "a" );
+        b = new TickService( "b" );
+        c = new TickService( "c" );
+        registry.register( a );
+        registry.register( b, a );
+        registry.register( c, b );
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.shutdown();
+    }
+
+    @DisplayName("Services are started in dependency order and stopped in reverse order")
+    @Test
+    void startStopAll() {
+
+        registry.startAll();
+        registry.stopAll();
+
+        assertEquals( List.of( "start a", "start b", "start c", "stop c", "stop b", "stop a" ), eventL );
+    }
+
+    @DisplayName("Starting a service starts its dependencies")
+    @Test
+    void startDependencies() {
+
+        assertTrue( registry.start( c ) );
+        assertTrue( a.isRunning() );
+        assertTrue( b.isRunning() );
+    }
+
+    @DisplayName("Restart stops and starts dependents")
+    @Test
+    void restart() {
+
+        registry.startAll();
+        eventL.clear();
+
+        assertTrue( registry.restart( a ) );
+        assertEquals( List.of( "stop c", "stop b", "stop a", "start a", "start b", "start c" ), eventL );
+        assertTrue( c.isRunning() );
+    }
+
+    @DisplayName("Health reports state and runs")
+    @Test
+    void health() throws InterruptedException {
+
+        assertEquals( BackgroundServiceRegistry.State.NEW, registry.health( a ).state() );
+        registry.start( a );
+        TimeUnit.MILLISECONDS.sleep( 50L );
+
+        BackgroundServiceRegistry.ServiceHealth health = registry.health( a );
+        assertEquals( BackgroundServiceRegistry.State.RUNNING, health.state() );
+        assertTrue( 0L < health.runs() );
+        assertNotNull( health.lastRun() );
+
+        registry.stop( a );
+        assertEquals( BackgroundServiceRegistry.State.STOPPED, registry.health( a ).state() );
+    }
+
+    @DisplayName("A dependency must be registered before")
+    @Test
+    void unknownDependency() {
+
+        assertThrows( IllegalArgumentException.class, () -> registry.register( new TickService( "d" ), new TickService( "e" ) ) );
+    }
+
+    @DisplayName("A service scheduling before it is registered can be registered")
+    @Test
+    void registerTracked() throws InterruptedException {
+
+        TickService d = new TickService( "d" );
+        d.start();
+        TimeUnit.MILLISECONDS.sleep( 20L );
+        assertFalse( registry.isRegistered( d ) );
+        assertThrows( IllegalArgumentException.class, () -> registry.register( new TickService( "e" ), d ) );
+
+        registry.register( d, a );
+        assertTrue( registry.isRegistered( d ) );
+        assertTrue( 0L < registry.health( d ).runs() );
+
+        // registered services are kept when stopped
+        d.stop();
+        assertTrue( registry.isRegistered( d ) );
+    }
+
+    @DisplayName("A service only tracked is removed when it stops")
+    @Test
+    void releaseTracked() {
+
+        TickService d = new TickService( "d" );
+        d.start();
+        assertEquals( 4, registry.healthAll().size() );
+
+        d.stop();
+        assertEquals( 3, registry.healthAll().size() );
+        assertThrows( IllegalArgumentException.class, () -> registry.health( d ) );
+    }
+
+    /**
+     * Service ticking every millisecond.
+     */
+    private final class TickService extends AbstractScheduledBackgroundService {
+
+        private TickService( String name ) {
+            super( name, 0L, 1L, TimeUnit.MILLISECONDS, registry );
+        }
+
+        @Override
+        protected void startService() {
+            eventL.add( "start " + getDescription() );
+            startScheduledServiceFixed( () -> {
+            } );
+        }
+
+        @Override
+        protected void stopService() {
+            eventL.add( "stop " + getDescription() );
+            super.stopService();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.async;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Priority Preload Executor Test.
+ *
+ * @author jTzipi
+ */
+class PriorityPreloadExecutorTest {
+
+    private final List<String> runL = new CopyOnWriteArrayList<>();
+    private final CountDownLatch gate = new CountDownLatch( 1 );
+    private PriorityPreloadExecutor exec;
+
+    @BeforeEach
+    void setUp() {
+        exec = new PriorityPreloadExecutor( 1 );
+        // block the only thread
+        exec.execute( () -> {
+            try {
+                gate.await();
+            } catch ( InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+            }
+        }, PreloadPriority.FOREGROUND );
+    }
+
+    @AfterEach
+    void tearDown() {
+        exec.shutdownNow();
+    }
+
+    @DisplayName("Foreground tasks are run before background tasks")
+    @Test
+    void foregroundFirst() throws InterruptedException {
+
+        exec.execute( record( "bg1" ), PreloadPriority.BACKGROUND );
+        exec.execute( record( "bg2" ), PreloadPriority.BACKGROUND );
+        exec.execute( record( "fg" ), PreloadPriority.FOREGROUND );
+
+        assertEquals( 2, exec.getStats( PreloadPriority.BACKGROUND ).queued() );
+        assertEquals( 1, exec.getStats( PreloadPriority.FOREGROUND ).queued() );
+
+        awaitAll();
+        assertEquals( List.of( "fg", "bg1", "bg2" ), runL );
+        assertEquals( 2L, exec.getStats( PreloadPriority.BACKGROUND ).started() );
+    }
+
+    @DisplayName("A queued background task is promoted")
+    @Test
+    void promote() throws InterruptedException {
+
+        Runnable bg2 = record( "bg2" );
+        exec.execute( record( "bg1" ), PreloadPriority.BACKGROUND );
+        exec.execute( bg2, PreloadPriority.BACKGROUND );
+
+        assertTrue( exec.promote( bg2 ) );
+        assertFalse( exec.promote( bg2 ) );
+
+        awaitAll();
+        assertEquals( List.of( "bg2", "bg1" ), runL );
+    }
+
+    @DisplayName("A queued task is not promoted and not lost after shutdown")
+    @Test
+    void promoteAfterShutdown() throws InterruptedException {
+
+        Runnable bg2 = record( "bg2" );
+        exec.execute( record( "bg1" ), PreloadPriority.BACKGROUND );
+        exec.execute( bg2, PreloadPriority.BACKGROUND );
+        exec.shutdown();
+
+        assertFalse( exec.promote( bg2 ) );
+
+        awaitAll();
+        assertEquals( List.of( "bg1", "bg2" ), runL );
+    }
+
+    @DisplayName("No task is promoted after shutdown now")
+    @Test
+    void promoteAfterShutdownNow() {
+
+        Runnable bg = record( "bg" );
+        exec.execute( bg, PreloadPriority.BACKGROUND );
+
+        assertEquals( 1, exec.shutdownNow().size() );
+        assertFalse( exec.promote( bg ) );
+        assertTrue( runL.isEmpty() );
+    }
+
+    private Runnable record( String name ) {
+        return () -> runL.add( name );
+    }
+
+    private void awaitAll() throws InterruptedException {
+        gate.countDown();
+        exec.shutdown();
+        assertTrue( exec.awaitTermination( 1L, TimeUnit.SECONDS ) );
+    }
+}
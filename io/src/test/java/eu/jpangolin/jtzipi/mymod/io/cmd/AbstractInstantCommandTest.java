@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Instant Command Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class AbstractInstantCommandTest {
+
+    @DisplayName("Async launch returns the output")
+    @Test
+    void launchAsync() throws Exception {
+
+        CommandResult<String> result = new ShCmd("echo hello").launchAsync().get(5L, TimeUnit.SECONDS);
+
+        assertFalse(result.isError());
+        assertEquals("hello", result.object());
+    }
+
+    @DisplayName("Async launch destroys the command on timeout")
+    @Test
+    void launchAsyncTimeout() throws Exception {
+
+        CommandResult<String> result = new ShCmd("sleep 10")
+                .launchAsync(200L, TimeUnit.MILLISECONDS, ForkJoinPool.commonPool())
+                .get(5L, TimeUnit.SECONDS);
+
+        assertTrue(result.isError());
+        assertInstanceOf(TimeoutException.class, result.getError());
+        assertFalse(result.getProcess().onExit().get(5L, TimeUnit.SECONDS).isAlive());
+    }
+
+    @DisplayName("Cancel destroys the command")
+    @Test
+    void launchAsyncCancel() throws Exception {
+
+        ShCmd sh = new ShCmd("sleep 10");
+        CompletableFuture<CommandResult<String>> cf = sh.launchAsync();
+        assertTrue(cf.cancel(true));
+
+        assertThrows(CancellationException.class, cf::get);
+        // the process is not reachable from the cancelled future, so we wait for the sleep to be gone
+        assertFalse(ProcessHandle.current().descendants()
+                .anyMatch(ph -> ph.isAlive() && ph.info().commandLine().orElse("").contains("sleep 10")
+                        && !waitExit(ph)));
+    }
+
+    @DisplayName("Large output is truncated")
+    @Test
+    void launchTruncated() throws Exception {
+
+        ShCmd sh = new ShCmd("seq 1 100000");
+        sh.setMaxOutputBytes(1000);
+
+        CommandResult<String> result = sh.launch();
+        assertFalse(result.isError());
+        assertTrue(result.isTruncated());
+        assertTrue(result.object().startsWith("1\n2\n"));
+        assertTrue(result.object().endsWith("100000"));
+
+        CommandResult<String> asyncResult = sh.launchAsync().get(5L, TimeUnit.SECONDS);
+        assertTrue(asyncResult.isTruncated());
+        assertFalse(new ShCmd("echo hello").launch().isTruncated());
+    }
+
+    @DisplayName("Many commands with large output do not wait for each other")
+    @Test
+    void launchManyLargeOutput() throws Exception {
+
+        // each output is larger than the pipe buffer and the stream is open for one second.
+        // With a pool of 16 threads this would take 4 rounds and time out
+        int n = 32;
+        List<CompletableFuture<CommandResult<String>>> cfL = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            cfL.add(new ShCmd("seq 1 50000; sleep 1")
+                    .launchAsync(3L, TimeUnit.SECONDS, ForkJoinPool.commonPool()));
+        }
+
+        for (CompletableFuture<CommandResult<String>> cf : cfL) {
+            CommandResult<String> result = cf.get(10L, TimeUnit.SECONDS);
+            assertFalse(result.isError(), () -> String.valueOf(result.getError()));
+            assertTrue(result.object().endsWith("50000"));
+        }
+    }
+
+    private static boolean waitExit(ProcessHandle ph) {
+        try {
+            ph.onExit().get(5L, TimeUnit.SECONDS);
+            return true;
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Run a shell script and return the trimmed output.
+     */
+    private static final class ShCmd extends AbstractInstantCommand<String> {
+
+        private ShCmd(String script) {
+            super("sh", "-c", script);
+        }
+
+        @Override
+        protected CommandResult<String> parse(String rawResultStr, Throwable t, Process proc) {
+            return new CommandResult<>(null == t ? rawResultStr.trim() : null, rawResultStr, proc, t);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Bounded Capture Test.
+ *
+ * @author jTzipi
+ */
+class BoundedCaptureTest {
+
+    private static BoundedCapture capture(String str, int maxBytes) {
+        InputStream is = new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8));
+        return BoundedCapture.of(is, maxBytes, StandardCharsets.UTF_8).call();
+    }
+
+    @DisplayName("Output smaller than max is kept and each line ends with newline")
+    @Test
+    void small() {
+
+        assertEquals("a\nb\n", capture("a\r\nb", 16).getText());
+        assertEquals("", capture("", 16).getText());
+
+        BoundedCapture bc = capture("0123456789abcdef", 16);
+        assertFalse(bc.isTruncated());
+        assertEquals(16L, bc.getTotalBytes());
+        assertEquals("0123456789abcdef\n", bc.getText());
+    }
+
+    @DisplayName("Head and tail of large output are kept")
+    @Test
+    void truncated() {
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            sb.append(i).append('\n');
+        }
+        BoundedCapture bc = capture(sb.toString(), 1000);
+
+        assertTrue(bc.isTruncated());
+        assertEquals(sb.length(), bc.getTotalBytes());
+        String text = bc.getText();
+        assertTrue(text.startsWith("0\n1\n2\n"));
+        assertTrue(text.endsWith("99998\n99999\n"));
+        long dropped = sb.length() - 1000L;
+        assertTrue(text.contains("\n[... " + dropped + " bytes truncated ...]\n"));
+    }
+
+    @DisplayName("Tail does not start in the middle of a char")
+    @Test
+    void utf8() {
+
+        // 'ä' is two bytes, so the tail of 8 bytes starts with the second byte
+        BoundedCapture bc = capture("abcdefgh" + "xxxxxxx" + "ääää", 16);
+
+        assertTrue(bc.isTruncated());
+        assertTrue(bc.getText().endsWith("]\nääää\n"));
+    }
+
+    @DisplayName("Text of an unread stream is not available")
+    @Test
+    void notRead() {
+
+        BoundedCapture bc = BoundedCapture.of(new ByteArrayInputStream(new byte[0]), 16);
+        assertThrows(IllegalStateException.class, bc::getText);
+        assertThrows(IllegalArgumentException.class, () -> BoundedCapture.of(new ByteArrayInputStream(new byte[0]), 15));
+    }
+}
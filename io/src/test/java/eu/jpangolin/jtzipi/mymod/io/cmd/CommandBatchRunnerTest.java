@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Command Batch Runner Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class CommandBatchRunnerTest {
+
+    @DisplayName("Commands run in parallel and are reported in completion order")
+    @Test
+    void run() throws Exception {
+
+        List<ShCmd> cmdL = List.of(new ShCmd("sleep 0.6; echo a"),
+                new ShCmd("sleep 0.1; echo b"),
+                new ShCmd("sleep 0.3; echo c"),
+                new ShCmd("echo d"));
+        List<String> callbackL = new CopyOnWriteArrayList<>();
+
+        CommandBatchRunner.BatchResult<String> batch = CommandBatchRunner.of(4, 5L, TimeUnit.SECONDS)
+                .run(cmdL, done -> callbackL.add(done.result().object()))
+                .get(5L, TimeUnit.SECONDS);
+
+        assertEquals(List.of("d", "b", "c", "a"), callbackL);
+        assertEquals(callbackL, batch.completedList().stream().map(done -> done.result().object()).toList());
+        assertEquals(0, batch.errors());
+        assertTrue(batch.elapsed().compareTo(Duration.ofMillis(900L)) < 0);
+        assertTrue(batch.total().compareTo(batch.slowest()) > 0);
+    }
+
+    @DisplayName("No more than max commands run at the same time")
+    @Test
+    void maxParallel() throws Exception {
+
+        List<ShCmd> cmdL = List.of(new ShCmd("sleep 0.2"), new ShCmd("sleep 0.2"), new ShCmd("sleep 0.2"), new ShCmd("sleep 0.2"));
+
+        CommandBatchRunner.BatchResult<String> batch = CommandBatchRunner.of(2, 5L, TimeUnit.SECONDS).run(cmdL).get(5L, TimeUnit.SECONDS);
+
+        assertEquals(4, batch.completedList().size());
+        assertTrue(batch.elapsed().compareTo(Duration.ofMillis(400L)) >= 0);
+    }
+
+    @DisplayName("A command exceeding the timeout is an error")
+    @Test
+    void timeout() throws Exception {
+
+        CommandBatchRunner.BatchResult<String> batch = CommandBatchRunner.of(2, 200L, TimeUnit.MILLISECONDS)
+                .run(List.of(new ShCmd("sleep 5"), new ShCmd("echo ok")))
+                .get(5L, TimeUnit.SECONDS);
+
+        assertEquals(1, batch.errors());
+        assertInstanceOf(TimeoutException.class, batch.completedList().get(1).result().getError());
+    }
+
+    @DisplayName("A command without result is an error")
+    @Test
+    void noResult() throws Exception {
+
+        CommandBatchRunner.BatchResult<String> batch = CommandBatchRunner.of(2, 5L, TimeUnit.SECONDS)
+                .run(List.of(new NoResultCmd(), new ShCmd("echo ok")))
+                .get(5L, TimeUnit.SECONDS);
+
+        assertEquals(2, batch.completedList().size());
+        assertEquals(1, batch.errors());
+        assertTrue(batch.completedList().stream().allMatch(done -> null != done.result()));
+    }
+
+    @DisplayName("An empty batch completes")
+    @Test
+    void empty() throws Exception {
+
+        assertTrue(CommandBatchRunner.of().run(List.<ShCmd>of()).get(1L, TimeUnit.SECONDS).completedList().isEmpty());
+    }
+
+    /**
+     * Parse no result.
+     */
+    private static final class NoResultCmd extends AbstractInstantCommand<String> {
+
+        private NoResultCmd() {
+            super("true");
+        }
+
+        @Override
+        protected CommandResult<String> parse(String rawResultStr, Throwable t, Process proc) {
+            return null;
+        }
+    }
+
+    /**
+     * Run a shell script and return the trimmed output.
+     */
+    private static final class ShCmd extends AbstractInstantCommand<String> {
+
+        private ShCmd(String script) {
+            super("sh", "-c", script);
+        }
+
+        @Override
+        protected CommandResult<String> parse(String rawResultStr, Throwable t, Process proc) {
+            return new CommandResult<>(null == t ? rawResultStr.trim() : null, rawResultStr, proc, t);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Command Metrics Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class CommandMetricsTest {
+
+    private final List<CommandExecution> execL = new CopyOnWriteArrayList<>();
+    private final List<Integer> runningL = new CopyOnWriteArrayList<>();
+    private final ICommandMetrics metrics = new ICommandMetrics() {
+        @Override
+        public void onStart(ICommand cmd, long spawnNanos, int running) {
+            runningL.add(running);
+        }
+
+        @Override
+        public void onExecution(CommandExecution execution) {
+            execL.add(execution);
+        }
+    };
+
+    @BeforeEach
+    void setUp() {
+        CommandMetrics.register(metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        CommandMetrics.unregister(metrics);
+    }
+
+    @DisplayName("Exit code, bytes and times of a launch are measured")
+    @Test
+    void launch() throws Exception {
+
+        new MetricsCmd("sh", "-c", "printf abc; printf de >&2; exit 3").launch();
+
+        assertEquals(1, execL.size());
+        CommandExecution exec = execL.get(0);
+        assertEquals("sh", exec.command());
+        assertEquals(3, exec.exitCode());
+        assertFalse(exec.timeout());
+        assertFalse(exec.isSuccess());
+        assertTrue(exec.isStarted());
+        assertEquals(3L, exec.outputBytes());
+        assertEquals(2L, exec.errorBytes());
+        assertTrue(exec.spawnNanos() > 0L);
+        assertTrue(exec.wallNanos() >= exec.spawnNanos());
+        assertEquals(List.of(1), runningL);
+        assertEquals(0, CommandMetrics.getRunning());
+    }
+
+    @DisplayName("Timeout of an async launch is measured")
+    @Test
+    void launchAsyncTimeout() throws Exception {
+
+        new MetricsCmd("sleep", "10").launchAsync(200L, TimeUnit.MILLISECONDS, ForkJoinPool.commonPool()).get(5L, TimeUnit.SECONDS);
+
+        assertEquals(1, execL.size());
+        assertTrue(execL.get(0).timeout());
+        assertFalse(execL.get(0).isSuccess());
+        assertEquals(0, CommandMetrics.getRunning());
+    }
+
+    @DisplayName("Timeout of a launch is measured")
+    @Test
+    void launchTimeout() throws Exception {
+
+        CommandResult<String> result = new MetricsCmd("sleep", "10").launch(200L, TimeUnit.MILLISECONDS);
+
+        assertTrue(result.isError());
+        assertEquals(1, execL.size());
+        assertTrue(execL.get(0).timeout());
+        assertEquals(0, CommandMetrics.getRunning());
+    }
+
+    @DisplayName("Interrupted launch is measured")
+    @Test
+    void launchInterrupted() throws Exception {
+
+        AtomicReference<Throwable> errorRef = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                new MetricsCmd("sleep", "10").launch(10L, TimeUnit.SECONDS);
+            } catch (IOException | InterruptedException e) {
+                errorRef.set(e);
+            }
+        });
+        t.start();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (runningL.isEmpty() && System.nanoTime() < end) {
+            TimeUnit.MILLISECONDS.sleep(5L);
+        }
+        t.interrupt();
+        t.join(5000L);
+
+        try {
+            assertInstanceOf(InterruptedException.class, errorRef.get());
+            assertEquals(1, execL.size());
+            assertInstanceOf(InterruptedException.class, execL.get(0).error());
+            assertEquals(0, CommandMetrics.getRunning());
+        } finally {
+            ProcessHandle.current().descendants()
+                    .filter(ph -> ph.info().commandLine().orElse("").contains("sleep 10"))
+                    .forEach(ProcessHandle::destroyForcibly);
+        }
+    }
+
+    @DisplayName("Failed start is measured and summed up")
+    @Test
+    void failedStart() {
+
+        assertThrows(IOException.class, () -> new MetricsCmd("no-such-program-4711").launch());
+
+        assertEquals(1, execL.size());
+        CommandExecution exec = execL.get(0);
+        assertFalse(exec.isStarted());
+        assertEquals(CommandExecution.NO_EXIT, exec.exitCode());
+        assertInstanceOf(IOException.class, exec.error());
+        assertTrue(runningL.isEmpty());
+
+        CommandMetrics.Summary sum = CommandMetrics.getSummaries().stream()
+                .filter(s -> "no-such-program-4711".equals(s.command()))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(sum.count() >= 1L);
+        assertEquals(sum.count(), sum.failures());
+    }
+
+    /**
+     * Return the raw output.
+     */
+    private static final class MetricsCmd extends AbstractInstantCommand<String> {
+
+        private MetricsCmd(String cmd, String... args) {
+            super(cmd, args);
+        }
+
+        @Override
+        protected CommandResult<String> parse(String rawResultStr, Throwable t, Process proc) {
+            return new CommandResult<>(rawResultStr, rawResultStr, proc, t);
+        }
+    }
+}
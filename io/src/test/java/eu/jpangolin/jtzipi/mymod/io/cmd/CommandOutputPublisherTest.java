@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Command Output Publisher Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class CommandOutputPublisherTest {
+
+    @DisplayName("All lines are published one by one and mapped")
+    @Test
+    void lines() throws Exception {
+
+        CommandOutputPublisher<Integer> pub = CommandOutputPublisher.of(sh("seq 1 1000"), Integer::valueOf, ForkJoinPool.commonPool(), 4);
+        OneByOne<Integer> sub = new OneByOne<>(Long.MAX_VALUE);
+        pub.subscribe(sub);
+
+        sub.doneF.get(5L, TimeUnit.SECONDS);
+        assertEquals(1000, sub.itemL.size());
+        assertEquals(500, sub.itemL.get(499));
+    }
+
+    @DisplayName("Exit code other than 0 is an error after all lines")
+    @Test
+    void exitCode() throws Exception {
+
+        // nothing is requested until the process is gone. So all lines are buffered when the error is known
+        OneByOne<String> sub = new OneByOne<>(Long.MAX_VALUE, false);
+        CommandOutputPublisher.lines(sh("seq 1 100; echo oops >&2; exit 3")).subscribe(sub);
+        TimeUnit.MILLISECONDS.sleep(300L);
+        sub.sub.request(1L);
+
+        Exception e = assertThrows(Exception.class, () -> sub.doneF.get(5L, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertTrue(e.getCause().getMessage().contains("oops"));
+        assertEquals(100, sub.itemL.size());
+        assertEquals("100", sub.itemL.get(99));
+    }
+
+    @DisplayName("Cancel destroys the process")
+    @Test
+    void cancel() throws Exception {
+
+        OneByOne<String> sub = new OneByOne<>(10L);
+        CommandOutputPublisher.lines(sh("yes")).subscribe(sub);
+
+        assertThrows(TimeoutException.class, () -> sub.doneF.get(500L, TimeUnit.MILLISECONDS));
+        assertEquals(10, sub.itemL.size());
+        for (ProcessHandle ph : ProcessHandle.current().descendants().toList()) {
+            if (ph.info().command().orElse("").endsWith("yes")) {
+                ph.onExit().get(5L, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static ICommand sh(String script) {
+        return new ICommand() {
+            @Override
+            public String getName() {
+                return "sh";
+            }
+
+            @Override
+            public List<String> getArgs() {
+                return List.of("-c", script);
+            }
+        };
+    }
+
+    /**
+     * Subscriber requesting one item after the other and cancel after max items.
+ * The first item is requested on subscribe or by the test.
+     * @param <T> type
+     */
+    private static final class OneByOne<T> implements Flow.Subscriber<T> {
+
+        private final List<T> itemL = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<Void> doneF = new CompletableFuture<>();
+        private final long max;
+        private final boolean requestOnSubscribe;
+        private volatile Flow.Subscription sub;
+
+        private OneByOne(long maxItems) {
+            this(maxItems, true);
+        }
+
+        private OneByOne(long maxItems, boolean request) {
+            this.max = maxItems;
+            this.requestOnSubscribe = request;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.sub = subscription;
+            if (requestOnSubscribe) {
+                sub.request(1L);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            itemL.add(item);
+            if (itemL.size() >= max) {
+                sub.cancel();
+            } else {
+                sub.request(1L);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            doneF.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            doneF.complete(null);
+        }
+    }
+}
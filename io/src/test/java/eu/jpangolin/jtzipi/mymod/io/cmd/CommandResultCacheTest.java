@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Command Result Cache Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class CommandResultCacheTest {
+
+    private final AtomicInteger launchCnt = new AtomicInteger();
+
+    @DisplayName("Concurrent launches of the same command share one process")
+    @Test
+    void collapse() throws Exception {
+
+        CommandResultCache cache = new CommandResultCache(Duration.ofMinutes(1L));
+        List<CompletableFuture<CommandResult<String>>> cfL = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            cfL.add(cache.launchAsync(new ShCmd("sleep 0.2; echo $$", true)));
+        }
+        String pid = cfL.get(0).get(5L, TimeUnit.SECONDS).object();
+        for (CompletableFuture<CommandResult<String>> cf : cfL) {
+            assertEquals(pid, cf.get(5L, TimeUnit.SECONDS).object());
+        }
+
+        assertEquals(1, launchCnt.get());
+        assertEquals(pid, cache.launch(new ShCmd("sleep 0.2; echo $$", true)).object());
+        assertEquals(1L, cache.getLaunches());
+        assertEquals(10L, cache.getHits());
+    }
+
+    @DisplayName("A result expires after the ttl and can be invalidated")
+    @Test
+    void ttlAndInvalidate() throws Exception {
+
+        CommandResultCache cache = new CommandResultCache(Duration.ofMillis(100L));
+        cache.launch(new ShCmd("echo a", true));
+        cache.launch(new ShCmd("echo a", true));
+        assertEquals(1, launchCnt.get());
+
+        TimeUnit.MILLISECONDS.sleep(150L);
+        cache.launch(new ShCmd("echo a", true));
+        assertEquals(2, launchCnt.get());
+
+        cache.invalidate(new ShCmd("echo a", true));
+        cache.launch(new ShCmd("echo a", true));
+        assertEquals(3, launchCnt.get());
+    }
+
+    @DisplayName("Errors and commands not idempotent are not cached")
+    @Test
+    void notCached() throws Exception {
+
+        CommandResultCache cache = new CommandResultCache(Duration.ofMinutes(1L));
+        cache.launch(new ShCmd("echo a", false));
+        cache.launch(new ShCmd("echo a", false));
+        assertEquals(2, launchCnt.get());
+
+        assertTrue(cache.launch(new ShCmd("exit 1", true)).isError());
+        assertTrue(cache.launch(new ShCmd("exit 1", true)).isError());
+        assertEquals(4, launchCnt.get());
+        assertEquals(0, cache.size());
+    }
+
+    @DisplayName("No result is not cached")
+    @Test
+    void noResult() throws Exception {
+
+        CommandResultCache cache = new CommandResultCache(Duration.ofMinutes(1L));
+        assertNull(cache.launchAsync(new ShCmd("exit 7", true)).get(5L, TimeUnit.SECONDS));
+        assertNull(cache.launch(new ShCmd("exit 7", true)));
+        assertEquals(2, launchCnt.get());
+        assertEquals(0, cache.size());
+    }
+
+    @DisplayName("Cancel of a returned future does not affect the other callers")
+    @Test
+    void cancelCopy() throws Exception {
+
+        CommandResultCache cache = new CommandResultCache(Duration.ofMinutes(1L));
+        CompletableFuture<CommandResult<String>> first = cache.launchAsync(new ShCmd("sleep 0.2; echo a", true));
+        CompletableFuture<CommandResult<String>> second = cache.launchAsync(new ShCmd("sleep 0.2; echo a", true));
+        assertTrue(first.cancel(true));
+
+        assertEquals("a", second.get(5L, TimeUnit.SECONDS).object());
+        assertEquals("a", cache.launch(new ShCmd("sleep 0.2; echo a", true)).object());
+        assertEquals(1, launchCnt.get());
+    }
+
+    @DisplayName("Expired results are removed on launch")
+    @Test
+    void pruneExpired() throws Exception {
+
+        CommandResultCache cache = new CommandResultCache(Duration.ofMillis(100L));
+        cache.launch(new ShCmd("echo a", true));
+        cache.launch(new ShCmd("echo b", true));
+        assertEquals(2, cache.size());
+
+        TimeUnit.MILLISECONDS.sleep(150L);
+        cache.launch(new ShCmd("echo c", true));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Run a shell script and count the launches.
+     * A script with exit code other than 0 is an error.
+     * Exit code 7 parses no result.
+     */
+    private final class ShCmd extends AbstractInstantCommand<String> {
+
+        private final boolean idempotent;
+
+        private ShCmd(String script, boolean idempotentCmd) {
+            super("sh", "-c", script);
+            this.idempotent = idempotentCmd;
+        }
+
+        @Override
+        public boolean isIdempotent() {
+            return idempotent;
+        }
+
+        @Override
+        public CompletableFuture<CommandResult<String>> launchAsync(long timeout, TimeUnit timeUnit, Executor executor) {
+            launchCnt.incrementAndGet();
+            return super.launchAsync(timeout, timeUnit, executor);
+        }
+
+        @Override
+        public CommandResult<String> launch(long timeout, TimeUnit timeUnit) throws IOException, InterruptedException {
+            launchCnt.incrementAndGet();
+            return super.launch(timeout, timeUnit);
+        }
+
+        @Override
+        protected CommandResult<String> parse(String rawResultStr, Throwable t, Process proc) {
+            if (null == t && 7 == proc.exitValue()) {
+                return null;
+            }
+            if (null == t && 0 != proc.exitValue()) {
+                t = new IllegalStateException("exit " + proc.exitValue());
+            }
+            return new CommandResult<>(null == t ? rawResultStr.trim() : null, rawResultStr, proc, t);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Executable Index Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class ExecutableIndexTest {
+
+    @TempDir
+    Path root;
+    private Path bin;
+    private Path local;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        local = Files.createDirectories(root.resolve("local"));
+        bin = Files.createDirectories(root.resolve("bin"));
+        exe(local.resolve("tool"));
+        exe(bin.resolve("tool"));
+        exe(bin.resolve("other"));
+        Files.writeString(bin.resolve("readme"), "not executable");
+        Files.createDirectories(bin.resolve("subdir"));
+    }
+
+    private static void exe(Path path) throws IOException {
+        Files.writeString(path, "#!/bin/sh\n");
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwxr-xr-x"));
+    }
+
+    @DisplayName("Executables are found in order of the directories")
+    @Test
+    void find() {
+
+        ExecutableIndex index = ExecutableIndex.of(List.of(local, bin, root.resolve("missing")));
+
+        assertEquals(2, index.size());
+        assertEquals(Optional.of(local.resolve("tool")), index.find("tool"));
+        assertEquals(List.of(local.resolve("tool"), bin.resolve("tool")), index.findAll("tool"));
+        assertTrue(index.contains("other"));
+        assertFalse(index.contains("readme"));
+        assertFalse(index.contains("subdir"));
+        assertEquals(Optional.of(bin.resolve("other")), index.find(bin.resolve("other").toString()));
+        assertEquals(Optional.empty(), index.find(bin.resolve("readme").toString()));
+    }
+
+    @DisplayName("Index is read again if a directory changed")
+    @Test
+    void changed() throws IOException {
+
+        ExecutableIndex index = ExecutableIndex.of(List.of(local, bin), 0L);
+        assertFalse(index.contains("new"));
+
+        exe(bin.resolve("new"));
+        // make sure the time differs on file systems with coarse time
+        Files.setLastModifiedTime(bin, FileTime.fromMillis(Files.getLastModifiedTime(bin).toMillis() + 2000L));
+        assertTrue(index.contains("new"));
+
+        Files.delete(local.resolve("tool"));
+        Files.setLastModifiedTime(local, FileTime.fromMillis(Files.getLastModifiedTime(local).toMillis() + 2000L));
+        assertEquals(Optional.of(bin.resolve("tool")), index.find("tool"));
+    }
+
+    @DisplayName("Changes are not seen until the check interval passed")
+    @Test
+    void interval() throws IOException {
+
+        ExecutableIndex index = ExecutableIndex.of(List.of(bin), 60_000L);
+        assertFalse(index.contains("new"));
+        exe(bin.resolve("new"));
+        assertFalse(index.contains("new"));
+
+        index.invalidate();
+        assertTrue(index.contains("new"));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Shell Coprocess Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class ShellCoprocessTest {
+
+    @DisplayName("Many commands are run in one shell with the same output as launch")
+    @Test
+    void run() throws Exception {
+
+        try (ShellCoprocess sh = ShellCoprocess.start()) {
+            for (int i = 0; i < 50; i++) {
+                CommandResult<String> result = sh.run(new RawCmd("printf", "%s\\n", "a" + i, "b"));
+                assertFalse(result.isError());
+                assertEquals("a" + i + "\nb\n", result.object());
+            }
+            // no newline at end and empty output
+            assertEquals("x\n", sh.run(new RawCmd("printf", "x")).object());
+            assertEquals("", sh.run(new RawCmd("true")).object());
+            assertEquals(new RawCmd("echo", "same").launch().object(), sh.run(new RawCmd("echo", "same")).object());
+
+            assertEquals(1L, sh.getStarts());
+            assertEquals(53L, sh.getCommands());
+        }
+    }
+
+    @DisplayName("Arguments are not evaluated by the shell")
+    @Test
+    void quote() throws Exception {
+
+        List<String> argL = List.of("it's", "$HOME", "a b", "\"q\"", "`id`;exit");
+        try (ShellCoprocess sh = ShellCoprocess.start()) {
+            for (String arg : argL) {
+                assertEquals(arg + "\n", sh.run(new RawCmd("echo", arg)).object());
+            }
+            assertTrue(sh.isAlive());
+        }
+    }
+
+    @DisplayName("Exit code other than 0 is an error")
+    @Test
+    void exitCode() throws Exception {
+
+        try (ShellCoprocess sh = ShellCoprocess.start()) {
+            CommandResult<String> result = sh.run(new RawCmd("ls", "/no/such/dir/4711"));
+            assertTrue(result.isError());
+            assertInstanceOf(IOException.class, result.getError());
+            // shell is still usable
+            assertEquals("ok\n", sh.run(new RawCmd("echo", "ok")).object());
+        }
+    }
+
+    @DisplayName("Large output on both streams is read")
+    @Test
+    void largeOutput() throws Exception {
+
+        try (ShellCoprocess sh = ShellCoprocess.start()) {
+            String out = sh.run(new RawCmd("sh", "-c", "seq 1 100000 >&2; seq 1 100000"), 5L, TimeUnit.SECONDS).object();
+            assertTrue(out.startsWith("1\n2\n"));
+            assertTrue(out.endsWith("\n100000\n"));
+            assertEquals("ok\n", sh.run(new RawCmd("echo", "ok")).object());
+        }
+    }
+
+    @DisplayName("Shell is started again after a timeout")
+    @Test
+    void timeout() throws Exception {
+
+        try (ShellCoprocess sh = ShellCoprocess.start()) {
+            CommandResult<String> result = sh.run(new RawCmd("sleep", "10"), 200L, TimeUnit.MILLISECONDS);
+            assertTrue(result.isError());
+            assertInstanceOf(TimeoutException.class, result.getError());
+
+            assertEquals("ok\n", sh.run(new RawCmd("echo", "ok")).object());
+            assertEquals(2L, sh.getStarts());
+        }
+    }
+
+    @DisplayName("Closed shell can not run commands")
+    @Test
+    void close() throws Exception {
+
+        ShellCoprocess sh = ShellCoprocess.start();
+        sh.close();
+        assertFalse(sh.isAlive());
+        assertThrows(IOException.class, () -> sh.run(new RawCmd("true")));
+    }
+
+    @DisplayName("Close lets the shell exit")
+    @Test
+    void closeGraceful(@TempDir Path dir) throws Exception {
+
+        Path file = dir.resolve("exited");
+        ShellCoprocess sh = ShellCoprocess.start();
+        // the exit trap takes a while and is not run if the shell is destroyed
+        sh.run(new RawCmd("trap", "sleep 0.2; touch '" + file + "'", "EXIT"));
+        sh.close();
+
+        assertTrue(Files.exists(file));
+    }
+
+    /**
+     * Return the raw output.
+     */
+    private static final class RawCmd extends AbstractInstantCommand<String> {
+
+        private RawCmd(String cmd, String... args) {
+            super(cmd, args);
+        }
+
+        @Override
+        protected CommandResult<String> parse(String rawResultStr, Throwable t, Process proc) {
+            return new CommandResult<>(null == t ? rawResultStr : null, rawResultStr, proc, t);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lsblk Json Parser Test.
+ *
+ * @author jTzipi
+ */
+class LsblkJsonParserTest {
+
+    private static final String LSBLK = """
+            {
+               "blockdevices": [
+                  {"type":"loop", "tran":null, "fstype":"squashfs", "fsavail":0, "size":4096, "mountpoint":"/snap/core/1", "serial":null, "name":"loop0", "label":null, "uuid":null},
+                  {"type":"disk", "tran":"sata", "fstype":null, "fsavail":null, "size":500107862016, "mountpoint":null, "serial":"S3Z9NB0K", "name":"sda", "label":null, "uuid":null, "rm":false,
+                     "children": [
+                        {"type":"part", "tran":null, "fstype":"vfat", "fsavail":530579456, "size":536870912, "mountpoint":"/boot/efi", "serial":null, "name":"sda1", "label":null, "uuid":"1A2B-3C4D"},
+                        {"type":"part", "tran":null, "fstype":"crypto_LUKS", "fsavail":null, "size":"499570991104", "mountpoint":null, "serial":null, "name":"sda2", "label":null, "uuid":"f00",
+                           "children": [
+                              {"type":"crypt", "tran":null, "fstype":"LVM2_member", "fsavail":null, "size":499553165312, "mountpoint":null, "serial":null, "name":"sda2_crypt", "label":null, "uuid":"abc",
+                                 "children": [
+                                    {"type":"lvm", "tran":null, "fstype":"ext4", "fsavail":123, "size":456, "mountpoint":"/", "serial":null, "name":"vg-root", "label":"root \\"fs\\"\\u00e4", "uuid":"def"}
+                                 ]
+                              }
+                           ]
+                        }
+                     ]
+                  },
+                  {"type":"rom", "tran":"usb", "fstype":"iso9660", "fsavail":0, "size":1073741312, "mountpoint":"/media/tim/My DVD", "serial":"123", "name":"sr0", "label":"My DVD", "uuid":"2020", "mountpoints":["/media/tim/My DVD"]}
+               ]
+            }
+            """;
+
+    @DisplayName("Disks, nested partitions and roms are parsed")
+    @Test
+    void parse() {
+
+        LsblkCmd.Lsblk lsblk = LsblkJsonParser.parse(LSBLK);
+
+        assertEquals(1, lsblk.diskMap().size());
+        LsblkCmd.Disk sda = lsblk.diskMap().get("sda");
+        assertEquals("sata", sda.tranTypeStr());
+        assertEquals("500107862016", sda.sizeStr());
+        assertEquals("", sda.fsAvailStr());
+        assertEquals("S3Z9NB0K", sda.serialStr());
+
+        assertEquals(List.of("sda1", "sda2", "sda2_crypt", "vg-root"),
+                sda.partList().stream().map(LsblkCmd.Partition::nameStr).toList());
+        LsblkCmd.Partition root = sda.partList().get(3);
+        assertEquals("/", root.mountpointStr());
+        assertEquals("ext4", root.fsTypeStr());
+        assertEquals("root \"fs\"ä", root.labelStr());
+        assertEquals("499570991104", sda.partList().get(1).sizeStr());
+
+        assertEquals(1, lsblk.romList().size());
+        LsblkCmd.Rom sr0 = lsblk.romList().get(0);
+        assertEquals("/media/tim/My DVD", sr0.mountStr());
+        assertEquals("My DVD", sr0.labelStr());
+    }
+
+    @DisplayName("Empty and invalid output")
+    @Test
+    void invalid() {
+
+        assertTrue(LsblkJsonParser.parse("{\"blockdevices\": []}").diskMap().isEmpty());
+        assertThrows(IllegalStateException.class, () -> LsblkJsonParser.parse("{\"blockdevices\": [{\"name\":\"sda\""));
+        assertThrows(IllegalStateException.class, () -> LsblkJsonParser.parse(""));
+    }
+}
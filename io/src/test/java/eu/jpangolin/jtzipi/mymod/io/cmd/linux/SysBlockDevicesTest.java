@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sys Block Devices Test.
+ * <p>
+ *     We build a fake /sys/block, mountinfo and /dev/disk tree.
+ * </p>
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs(OS.LINUX)
+class SysBlockDevicesTest {
+
+    @TempDir
+    Path root;
+    private SysBlockDevices sbd;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        Path devices = root.resolve("devices");
+        Path sysBlock = Files.createDirectories(root.resolve("sys/block"));
+
+        // usb stick with one mounted partition
+        Path sdb = device(devices.resolve("pci0/usb1/1-1/host0/block/sdb"), "8:16", 2048L);
+        Files.writeString(sdb.resolve("device/serial"), "ABC123\n");
+        Path sdb1 = Files.createDirectories(sdb.resolve("sdb1"));
+        Files.writeString(sdb1.resolve("dev"), "8:17\n");
+        Files.writeString(sdb1.resolve("size"), "1024\n");
+        Files.writeString(sdb1.resolve("partition"), "1\n");
+        Files.createSymbolicLink(sysBlock.resolve("sdb"), sdb);
+
+        // dvd drive
+        Path sr0 = device(devices.resolve("pci0/ata2/host1/block/sr0"), "11:0", 0L);
+        Files.writeString(sr0.resolve("device/type"), "5\n");
+        Files.createSymbolicLink(sysBlock.resolve("sr0"), sr0);
+
+        // loop device without device link
+        Path loop = Files.createDirectories(devices.resolve("virtual/block/loop0"));
+        Files.writeString(loop.resolve("dev"), "7:0\n");
+        Files.createSymbolicLink(sysBlock.resolve("loop0"), loop);
+
+        Path mountInfo = root.resolve("mountinfo");
+        Files.writeString(mountInfo, "23 28 0:22 / /proc rw,relatime - proc proc rw\n"
+                + "40 28 8:17 / " + root.toString().replace(" ", "\\040") + "/My\\040Stick rw,nosuid shared:1 - vfat /dev/sdb1 rw\n");
+        Files.createDirectories(root.resolve("My Stick"));
+
+        Path byLabel = Files.createDirectories(root.resolve("dev/disk/by-label"));
+        Files.createSymbolicLink(byLabel.resolve("My\\x20Stick"), Paths.get("../../sdb1"));
+        Path byUuid = Files.createDirectories(root.resolve("dev/disk/by-uuid"));
+        Files.createSymbolicLink(byUuid.resolve("1234-ABCD"), Paths.get("../../sdb1"));
+
+        sbd = SysBlockDevices.of(sysBlock, mountInfo, root.resolve("dev/disk"));
+    }
+
+    private static Path device(Path dev, String majMin, long sectors) throws IOException {
+        Files.createDirectories(dev.resolve("device"));
+        Files.writeString(dev.resolve("dev"), majMin + "\n");
+        Files.writeString(dev.resolve("size"), sectors + "\n");
+        return dev;
+    }
+
+    @DisplayName("Disks, partitions and roms are read")
+    @Test
+    void read() throws IOException {
+
+        assertTrue(sbd.isAvailable());
+        LsblkCmd.Lsblk lsblk = sbd.read();
+
+        assertEquals(1, lsblk.diskMap().size());
+        LsblkCmd.Disk sdb = lsblk.diskMap().get("sdb");
+        assertEquals("usb", sdb.tranTypeStr());
+        assertEquals("1048576", sdb.sizeStr());
+        assertEquals("ABC123", sdb.serialStr());
+        assertEquals("", sdb.fsAvailStr());
+
+        assertEquals(1, sdb.partList().size());
+        LsblkCmd.Partition sdb1 = sdb.partList().get(0);
+        assertEquals("sdb1", sdb1.nameStr());
+        assertEquals("524288", sdb1.sizeStr());
+        assertEquals("vfat", sdb1.fsTypeStr());
+        assertEquals(root.resolve("My Stick").toString(), sdb1.mountpointStr());
+        assertEquals("My Stick", sdb1.labelStr());
+        assertEquals("1234-ABCD", sdb1.uuidStr());
+        assertFalse(sdb1.fsAvailStr().isEmpty());
+
+        assertEquals(1, lsblk.romList().size());
+        LsblkCmd.Rom sr0 = lsblk.romList().get(0);
+        assertEquals("sr0", sr0.nameStr());
+        assertEquals("sata", sr0.tranTypeStr());
+        assertEquals("", sr0.mountStr());
+    }
+
+    @DisplayName("Escapes of mountinfo and udev are decoded")
+    @Test
+    void unescape() {
+
+        assertEquals("a b", SysBlockDevices.unescape("a\\040b"));
+        assertEquals("a b", SysBlockDevices.unescape("a\\x20b"));
+        assertEquals("a\\b", SysBlockDevices.unescape("a\\b"));
+        assertEquals("Ä", SysBlockDevices.unescape("\\xc3\\x84"));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Udevadm Monitor Command Test.
+ *
+ * @author jTzipi
+ */
+class UdevadmMonitorCmdTest {
+
+    @DisplayName("Event lines are parsed and other lines are skipped")
+    @Test
+    void parseLine() {
+
+        UdevadmMonitorCmd.Event event = UdevadmMonitorCmd.parseLine("UDEV  [12345.678901] add      /devices/pci0000:00/usb1/1-1/host0/block/sdb/sdb1 (block)");
+
+        assertNotNull(event);
+        assertEquals("UDEV", event.source());
+        assertEquals("add", event.action());
+        assertEquals("block", event.subsystem());
+        assertEquals("sdb1", event.devName());
+
+        assertNull(UdevadmMonitorCmd.parseLine("monitor will print the received events for:"));
+        assertNull(UdevadmMonitorCmd.parseLine("UDEV - the event which udev sends out after rule processing"));
+        assertNull(UdevadmMonitorCmd.parseLine(""));
+    }
+}
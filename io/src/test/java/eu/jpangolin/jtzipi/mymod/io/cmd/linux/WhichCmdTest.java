@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.cmd.linux;
+
+import eu.jpangolin.jtzipi.mymod.io.cmd.CommandResult;
+import eu.jpangolin.jtzipi.mymod.io.cmd.ExecutableIndex;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Which Command Test.
+ *
+ * @author jTzipi
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class WhichCmdTest {
+
+    @DisplayName("Programs are resolved with the index like 'which'")
+    @Test
+    void resolve() {
+
+        ExecutableIndex index = ExecutableIndex.of(List.of(Paths.get("/bin"), Paths.get("/usr/bin")));
+        Path sh = index.find("sh").orElseThrow();
+
+        CommandResult<WhichCmd.Which> result = WhichCmd.of("sh").resolve(index);
+        assertFalse(result.isError());
+        assertEquals(List.of(sh.toString()), result.object().resultList());
+        assertEquals(sh.toString(), result.getRawResult());
+
+        CommandResult<WhichCmd.Which> missing = WhichCmd.of("no-such-program-4711").resolve(index);
+        assertTrue(missing.isError());
+        assertInstanceOf(IOException.class, missing.getError());
+        assertTrue(missing.object().resultList().isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.image;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Batch Thumbnailer Test.
+ * <p>
+ * The thumbnails are created by a fake creator counting the images decoded at the same time.
+ * So no screen is needed.
+ * </p>
+ *
+ * @author jTzipi
+ */
+class BatchThumbnailerTest {
+
+    private static final int SIZE = 64;
+    private static final int IMAGES = 6;
+    @TempDir
+    Path dir;
+    private final ExecutorService exe = Executors.newFixedThreadPool( 4 );
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final List<BatchThumbnailer.Thumbnail> thumbL = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        BufferedImage bi = new BufferedImage( 1024, 1024, BufferedImage.TYPE_INT_RGB );
+        for ( int i = 0; i < IMAGES; i++ ) {
+            ImageIO.write( bi, "png", dir.resolve( "img" + i + ".png" ).toFile() );
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        exe.shutdownNow();
+    }
+
+    private BufferedImage create( Path path, int size ) throws IOException {
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet( now, Math::max );
+        try {
+            TimeUnit.MILLISECONDS.sleep( 100L );
+        } catch ( InterruptedException iE ) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.decrementAndGet();
+        }
+        if ( path.getFileName().toString().equals( "img0.png" ) ) {
+            throw new IOException( "Failed to decode" );
+        }
+        return new BufferedImage( size, size, BufferedImage.TYPE_INT_ARGB );
+    }
+
+    private BatchThumbnailer.BatchResult run( long budget, int maxParallel ) throws Exception {
+        return BatchThumbnailer.of( SIZE, budget, maxParallel, exe, this::create )
+                .run( dir, thumbL::add )
+                .get( 10L, TimeUnit.SECONDS );
+    }
+
+    @DisplayName("The memory budget limits the images decoded at the same time")
+    @Test
+    void memoryBudget() throws Exception {
+
+        BatchThumbnailer bt = BatchThumbnailer.of( SIZE, 1024L, 1, exe, this::create );
+        long bytes = bt.estimateBytes( ImageDimension.of( 1024, 1024 ) );
+        // budget for two images
+        BatchThumbnailer.BatchResult result = run( 2L * bytes + bytes / 2L, 4 );
+
+        assertEquals( 2, maxRunning.get() );
+        assertEquals( IMAGES, result.total() );
+        assertEquals( IMAGES, thumbL.size() );
+    }
+
+    @DisplayName("An image larger than the budget runs alone")
+    @Test
+    void largerThanBudget() throws Exception {
+
+        BatchThumbnailer.BatchResult result = run( 8L * 1024L, 4 );
+
+        assertEquals( 1, maxRunning.get() );
+        assertEquals( IMAGES, result.total() );
+    }
+
+    @DisplayName("Max parallel limits the images decoded at the same time")
+    @Test
+    void maxParallel() throws Exception {
+
+        BatchThumbnailer.BatchResult result = run( Long.MAX_VALUE, 3 );
+
+        assertEquals( 3, maxRunning.get() );
+        assertEquals( IMAGES, result.total() );
+    }
+
+    @DisplayName("Failed images are passed to the callback and counted")
+    @Test
+    void failed() throws Exception {
+
+        Files.writeString( dir.resolve( "broken.png" ), "no image" );
+        BatchThumbnailer.BatchResult result = run( Long.MAX_VALUE, 4 );
+
+        assertEquals( IMAGES + 1, result.total() );
+        assertEquals( 2, result.failed() );
+        assertEquals( IMAGES + 1, thumbL.size() );
+        assertEquals( 2L, thumbL.stream().filter( BatchThumbnailer.Thumbnail::isError ).count() );
+        assertTrue( thumbL.stream().filter( t -> !t.isError() ).allMatch( t -> SIZE == t.image().getWidth() ) );
+        long maxWork = thumbL.stream().mapToLong( BatchThumbnailer.Thumbnail::workNanos ).max().orElseThrow();
+        assertEquals( maxWork, result.slowest().workNanos() );
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Image Header Probe Test.
+ *
+ * @author jTzipi
+ */
+class ImageHeaderProbeTest {
+
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 21;
+
+    @TempDir
+    Path dir;
+
+    private Path write( String format ) throws IOException {
+        BufferedImage bi = new BufferedImage( WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB );
+        bi.setRGB( 3, 4, 0xFF8800 );
+        Path path = dir.resolve( "image." + format );
+        assertTrue( ImageIO.write( bi, format, path.toFile() ) );
+        return path;
+    }
+
+    private static ImageDimension readerDim( Path path ) throws IOException {
+        try ( ImageInputStream iis = ImageIO.createImageInputStream( path.toFile() ) ) {
+            ImageReader ir = ImageIO.getImageReaders( iis ).next();
+            try {
+                ir.setInput( iis );
+                return ImageDimension.of( ir.getWidth( 0 ), ir.getHeight( 0 ) );
+            } finally {
+                ir.dispose();
+            }
+        }
+    }
+
+    private Path file( String name, byte[] bytes ) throws IOException {
+        return Files.write( dir.resolve( name ), bytes );
+    }
+
+    private static ByteBuffer le( int size ) {
+        return ByteBuffer.allocate( size ).order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    @DisplayName("Dimension is the same as read by ImageIO")
+    @Test
+    void imageIO() throws IOException {
+
+        for ( String format : new String[]{ "png", "jpg", "gif", "bmp" } ) {
+            Path path = write( format );
+            Optional<ImageDimension> dimOpt = ImageHeaderProbe.probe( path );
+            assertTrue( dimOpt.isPresent(), format );
+            assertEquals( ImageDimension.of( WIDTH, HEIGHT ), dimOpt.get(), format );
+            assertEquals( readerDim( path ), dimOpt.get(), format );
+        }
+    }
+
+    @DisplayName("JPEG segments before the frame are skipped")
+    @Test
+    void jpegSegments() throws IOException {
+
+        byte[] jpg = Files.readAllBytes( write( "jpg" ) );
+        // SOI, APP1 of 60000 bytes, fill byte, rest of jpeg
+        int appLen = 60_000;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write( jpg, 0, 2 );
+        bos.write( 0xFF );
+        bos.write( 0xE1 );
+        bos.write( appLen >>> 8 );
+        bos.write( appLen & 0xFF );
+        bos.write( new byte[appLen - 2], 0, appLen - 2 );
+        bos.write( 0xFF );
+        bos.write( jpg, 2, jpg.length - 2 );
+
+        Path path = file( "large app.jpg", bos.toByteArray() );
+        assertEquals( Optional.of( ImageDimension.of( WIDTH, HEIGHT ) ), ImageHeaderProbe.probe( path ) );
+    }
+
+    @DisplayName("BMP core header and top down bitmap")
+    @Test
+    void bmp() throws IOException {
+
+        ByteBuffer core = le( 26 ).put( ( byte ) 'B' ).put( ( byte ) 'M' );
+        core.putInt( 14, 12 ).putShort( 18, ( short ) 640 ).putShort( 20, ( short ) 480 );
+        assertEquals( Optional.of( ImageDimension.of( 640, 480 ) ), ImageHeaderProbe.probe( file( "core.bmp", core.array() ) ) );
+
+        ByteBuffer info = le( 54 ).put( ( byte ) 'B' ).put( ( byte ) 'M' );
+        info.putInt( 14, 40 ).putInt( 18, 800 ).putInt( 22, -600 );
+        assertEquals( Optional.of( ImageDimension.of( 800, 600 ) ), ImageHeaderProbe.probe( file( "info.bmp", info.array() ) ) );
+    }
+
+    private static ByteBuffer webp( String chunk ) {
+        ByteBuffer bb = le( 40 );
+        bb.put( "RIFF".getBytes() ).putInt( 32 ).put( "WEBP".getBytes() ).put( chunk.getBytes() ).putInt( 20 );
+        return bb;
+    }
+
+    @DisplayName("WebP lossy, lossless and extended")
+    @Test
+    void webp() throws IOException {
+
+        ByteBuffer lossy = webp( "VP8 " );
+        lossy.put( 23, ( byte ) 0x9D ).put( 24, ( byte ) 0x01 ).put( 25, ( byte ) 0x2A );
+        // upper two bits are the scale
+        lossy.putShort( 26, ( short ) ( 0xC000 | 1920 ) ).putShort( 28, ( short ) 1080 );
+        assertEquals( Optional.of( ImageDimension.of( 1920, 1080 ) ), ImageHeaderProbe.probe( file( "lossy.webp", lossy.array() ) ) );
+
+        ByteBuffer lossless = webp( "VP8L" );
+        lossless.put( 20, ( byte ) 0x2F ).putInt( 21, ( 400 - 1 ) | ( 300 - 1 ) << 14 );
+        assertEquals( Optional.of( ImageDimension.of( 400, 300 ) ), ImageHeaderProbe.probe( file( "lossless.webp", lossless.array() ) ) );
+
+        ByteBuffer ext = webp( "VP8X" );
+        int w = 20_000 - 1;
+        int h = 70_000 - 1;
+        ext.put( 24, ( byte ) w ).put( 25, ( byte ) ( w >>> 8 ) ).put( 26, ( byte ) ( w >>> 16 ) );
+        ext.put( 27, ( byte ) h ).put( 28, ( byte ) ( h >>> 8 ) ).put( 29, ( byte ) ( h >>> 16 ) );
+        assertEquals( Optional.of( ImageDimension.of( 20_000, 70_000 ) ), ImageHeaderProbe.probe( file( "ext.webp", ext.array() ) ) );
+    }
+
+    @DisplayName("Unknown or broken header is empty")
+    @Test
+    void unknown() throws IOException {
+
+        assertTrue( ImageHeaderProbe.probe( file( "empty.png", new byte[0] ) ).isEmpty() );
+        assertTrue( ImageHeaderProbe.probe( file( "text.png", "not an image".getBytes() ) ).isEmpty() );
+
+        byte[] png = Files.readAllBytes( write( "png" ) );
+        byte[] cut = new byte[20];
+        System.arraycopy( png, 0, cut, 0, cut.length );
+        assertTrue( ImageHeaderProbe.probe( file( "cut.png", cut ) ).isEmpty() );
+
+        byte[] jpg = Files.readAllBytes( write( "jpg" ) );
+        byte[] noFrame = new byte[]{ jpg[0], jpg[1], ( byte ) 0xFF, ( byte ) 0xD9 };
+        assertTrue( ImageHeaderProbe.probe( file( "eoi.jpg", noFrame ) ).isEmpty() );
+
+        assertThrows( IOException.class, () -> ImageHeaderProbe.probe( dir.resolve( "missing.png" ) ) );
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.image;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+/**
+ * Image Utils Test.
+ * <p>
+ * Thumbnails are compatible images of the screen. So these tests need a screen.
+ * <br/>
+ * The subsampled decode before is tested without a screen.
+ * </p>
+ *
+ * @author jTzipi
+ */
+class ImageUtilsTest {
+
+    private static final int RED = 0xFF0000;
+    private static final int BLUE = 0x0000FF;
+    @TempDir
+    Path dir;
+    private Path image;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // left half red and right half blue
+        BufferedImage bi = new BufferedImage( 800, 400, BufferedImage.TYPE_INT_RGB );
+        for ( int x = 0; x < bi.getWidth(); x++ ) {
+            for ( int y = 0; y < bi.getHeight(); y++ ) {
+                bi.setRGB( x, y, x < 400 ? RED : BLUE );
+            }
+        }
+        image = dir.resolve( "image.png" );
+        ImageIO.write( bi, "png", image.toFile() );
+    }
+
+    @DisplayName("Thumbnail of the whole image keeps the aspect ratio")
+    @Test
+    void thumbnail() throws IOException {
+        assumeFalse( GraphicsEnvironment.isHeadless() );
+
+        BufferedImage thumb = ImageUtils.createThumbnail( image, 100 );
+
+        assertEquals( 100, thumb.getWidth() );
+        assertEquals( 50, thumb.getHeight() );
+        assertEquals( RED, thumb.getRGB( 10, 25 ) & 0xFFFFFF );
+        assertEquals( BLUE, thumb.getRGB( 90, 25 ) & 0xFFFFFF );
+    }
+
+    @DisplayName("Thumbnail of a region contains only the region")
+    @Test
+    void thumbnailRegion() throws IOException {
+        assumeFalse( GraphicsEnvironment.isHeadless() );
+
+        BufferedImage thumb = ImageUtils.createThumbnail( image, new Rectangle( 400, 0, 400, 400 ), 50 );
+
+        assertEquals( 50, thumb.getWidth() );
+        assertEquals( 50, thumb.getHeight() );
+        assertEquals( BLUE, thumb.getRGB( 0, 0 ) & 0xFFFFFF );
+        assertEquals( BLUE, thumb.getRGB( 49, 49 ) & 0xFFFFFF );
+    }
+
+    @DisplayName("Subsampling decodes at least twice the new size")
+    @Test
+    void subsampling() {
+
+        assertEquals( 4, ImageUtils.subsampling( 800, 100 ) );
+        assertEquals( 3, ImageUtils.subsampling( 799, 100 ) );
+        assertEquals( 1, ImageUtils.subsampling( 300, 100 ) );
+        assertEquals( 1, ImageUtils.subsampling( 50, 100 ) );
+    }
+
+    @DisplayName("The whole image is decoded subsampled")
+    @Test
+    void decodeSubsampled() throws IOException {
+
+        BufferedImage decoded = ImageUtils.decodeSubsampled( image, null, 100 );
+
+        assertEquals( 200, decoded.getWidth() );
+        assertEquals( 100, decoded.getHeight() );
+        assertEquals( RED, decoded.getRGB( 10, 50 ) & 0xFFFFFF );
+        assertEquals( BLUE, decoded.getRGB( 190, 50 ) & 0xFFFFFF );
+    }
+
+    @DisplayName("Only the region is decoded subsampled")
+    @Test
+    void decodeSubsampledRegion() throws IOException {
+
+        BufferedImage decoded = ImageUtils.decodeSubsampled( image, new Rectangle( 400, 0, 400, 400 ), 50 );
+
+        assertEquals( 100, decoded.getWidth() );
+        assertEquals( 100, decoded.getHeight() );
+        assertEquals( BLUE, decoded.getRGB( 0, 0 ) & 0xFFFFFF );
+        assertEquals( BLUE, decoded.getRGB( 99, 99 ) & 0xFFFFFF );
+        // a region smaller than twice the new size is not subsampled
+        BufferedImage small = ImageUtils.decodeSubsampled( image, new Rectangle( 390, 0, 20, 10 ), 50 );
+        assertEquals( 20, small.getWidth() );
+        assertEquals( RED, small.getRGB( 9, 5 ) & 0xFFFFFF );
+        assertEquals( BLUE, small.getRGB( 10, 5 ) & 0xFFFFFF );
+    }
+
+    @DisplayName("A region outside of the image or a size not positive is rejected")
+    @Test
+    void thumbnailRegionInvalid() {
+
+        assertThrows( IllegalArgumentException.class,
+                () -> ImageUtils.createThumbnail( image, new Rectangle( 900, 0, 10, 10 ), 50 ) );
+        assertThrows( IllegalArgumentException.class,
+                () -> ImageUtils.createThumbnail( image, new Rectangle( 0, 0, 10, 10 ), 0 ) );
+        assertThrows( NullPointerException.class,
+                () -> ImageUtils.createThumbnail( null, null, 50 ) );
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.io.image;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Thumbnail Cache Test.
+ *
+ * @author jTzipi
+ */
+class ThumbnailCacheTest {
+
+    @TempDir
+    Path dir;
+    private Path root;
+    private Path image;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = dir.resolve( "thumbnails" );
+        image = dir.resolve( "my image.png" );
+        Files.writeString( image, "not read by the cache" );
+        Files.setLastModifiedTime( image, FileTime.fromMillis( 1_700_000_000_000L ) );
+    }
+
+    private static BufferedImage thumb( int rgb ) {
+        BufferedImage bi = new BufferedImage( 16, 8, BufferedImage.TYPE_INT_RGB );
+        bi.setRGB( 0, 0, rgb );
+        return bi;
+    }
+
+    @DisplayName("Thumbnail is stored in the freedesktop layout")
+    @Test
+    void layout() throws IOException {
+
+        ThumbnailCache cache = ThumbnailCache.of( root, 1_000_000L, 8 );
+        cache.put( image, ThumbnailCache.ThumbnailSize.LARGE, thumb( 0x123456 ) );
+
+        String uri = image.toUri().toString();
+        assertTrue( uri.startsWith( "file:///" ) );
+        assertTrue( uri.endsWith( "my%20image.png" ) );
+        Path thumbPath = root.resolve( "large" ).resolve( DigestUtils.md5Hex( uri ) + ".png" );
+        assertEquals( thumbPath, cache.thumbnailPath( image, ThumbnailCache.ThumbnailSize.LARGE ) );
+        assertTrue( Files.isRegularFile( thumbPath ) );
+
+        try ( ImageInputStream iis = ImageIO.createImageInputStream( thumbPath.toFile() ) ) {
+            ImageReader ir = ImageIO.getImageReaders( iis ).next();
+            ir.setInput( iis );
+            Map<String, String> textMap = ThumbnailCache.readText( ir.getImageMetadata( 0 ) );
+            assertEquals( uri, textMap.get( ThumbnailCache.KEY_URI ) );
+            assertEquals( "1700000000", textMap.get( ThumbnailCache.KEY_MTIME ) );
+            ir.dispose();
+        }
+    }
+
+    @DisplayName("Thumbnail is read from memory and disk and is invalid if the image is modified")
+    @Test
+    void get() throws IOException {
+
+        ThumbnailCache cache = ThumbnailCache.of( root, 1_000_000L, 8 );
+        assertEquals( Optional.empty(), cache.get( image, ThumbnailCache.ThumbnailSize.NORMAL ) );
+        cache.put( image, ThumbnailCache.ThumbnailSize.NORMAL, thumb( 0x123456 ) );
+
+        assertTrue( cache.get( image, ThumbnailCache.ThumbnailSize.NORMAL ).isPresent() );
+        assertEquals( 1L, cache.getMemoryHits() );
+
+        ThumbnailCache other = ThumbnailCache.of( root, 1_000_000L, 8 );
+        BufferedImage read = other.get( image, ThumbnailCache.ThumbnailSize.NORMAL ).orElseThrow();
+        assertEquals( 16, read.getWidth() );
+        assertEquals( 0x123456, read.getRGB( 0, 0 ) & 0xFFFFFF );
+        assertEquals( 1L, other.getDiskHits() );
+        assertEquals( Optional.empty(), other.get( image, ThumbnailCache.ThumbnailSize.LARGE ) );
+
+        Files.setLastModifiedTime( image, FileTime.fromMillis( 1_700_000_100_000L ) );
+        assertEquals( Optional.empty(), cache.get( image, ThumbnailCache.ThumbnailSize.NORMAL ) );
+        assertEquals( Optional.empty(), other.get( image, ThumbnailCache.ThumbnailSize.NORMAL ) );
+    }
+
+    @DisplayName("Thumbnail is only created if missing")
+    @Test
+    void getOrCreate() throws IOException {
+
+        ThumbnailCache cache = ThumbnailCache.of( root, 1_000_000L, 0 );
+        AtomicInteger created = new AtomicInteger();
+        ThumbnailCache.IThumbnailCreator creator = ( p, size ) -> {
+            created.incrementAndGet();
+            assertEquals( 256, size );
+            return thumb( 0 );
+        };
+
+        cache.getOrCreate( image, ThumbnailCache.ThumbnailSize.LARGE, creator );
+        cache.getOrCreate( image, ThumbnailCache.ThumbnailSize.LARGE, creator );
+        assertEquals( 1, created.get() );
+        assertEquals( 1L, cache.getDiskHits() );
+    }
+
+    @DisplayName("Least recently used thumbnails are deleted if the cache is full")
+    @Test
+    void cleanup() throws IOException {
+
+        ThumbnailCache cache = ThumbnailCache.of( root, 1_000_000L, 8 );
+        Path[] images = new Path[4];
+        for ( int i = 0; i < images.length; i++ ) {
+            images[i] = Files.writeString( dir.resolve( i + ".png" ), "" );
+            cache.put( images[i], ThumbnailCache.ThumbnailSize.NORMAL, thumb( i ) );
+            Files.setLastModifiedTime( cache.thumbnailPath( images[i], ThumbnailCache.ThumbnailSize.NORMAL ), FileTime.fromMillis( 1_000_000L * ( i + 1 ) ) );
+        }
+        long fileSize = Files.size( cache.thumbnailPath( images[0], ThumbnailCache.ThumbnailSize.NORMAL ) );
+
+        // two files are below the low water mark
+        ThumbnailCache small = ThumbnailCache.of( root, 3 * fileSize, 8 );
+        assertEquals( 2, small.cleanup() );
+        assertFalse( Files.exists( small.thumbnailPath( images[0], ThumbnailCache.ThumbnailSize.NORMAL ) ) );
+        assertFalse( Files.exists( small.thumbnailPath( images[1], ThumbnailCache.ThumbnailSize.NORMAL ) ) );
+        assertTrue( Files.exists( small.thumbnailPath( images[3], ThumbnailCache.ThumbnailSize.NORMAL ) ) );
+    }
+
+    @DisplayName("Cleanup deletes down to the low water mark")
+    @Test
+    void cleanupLowWater() throws IOException {
+
+        ThumbnailCache cache = ThumbnailCache.of( root, 1_000_000L, 8 );
+        Path[] images = new Path[4];
+        for ( int i = 0; i < images.length; i++ ) {
+            images[i] = Files.writeString( dir.resolve( i + ".png" ), "" );
+            cache.put( images[i], ThumbnailCache.ThumbnailSize.NORMAL, thumb( 7 ) );
+            Files.setLastModifiedTime( cache.thumbnailPath( images[i], ThumbnailCache.ThumbnailSize.NORMAL ), FileTime.fromMillis( 1_000_000L * ( i + 1 ) ) );
+        }
+        long fileSize = Files.size( cache.thumbnailPath( images[0], ThumbnailCache.ThumbnailSize.NORMAL ) );
+
+        // room for three files but the low water mark is below three
+        ThumbnailCache small = ThumbnailCache.of( root, 3 * fileSize + fileSize / 2, 8 );
+        assertEquals( 2, small.cleanup() );
+        assertTrue( Files.exists( small.thumbnailPath( images[2], ThumbnailCache.ThumbnailSize.NORMAL ) ) );
+        assertTrue( Files.exists( small.thumbnailPath( images[3], ThumbnailCache.ThumbnailSize.NORMAL ) ) );
+    }
+
+    @DisplayName("A replaced thumbnail does not count twice")
+    @Test
+    void replace() throws IOException {
+
+        Path a = Files.writeString( dir.resolve( "a.png" ), "" );
+        Path b = Files.writeString( dir.resolve( "b.png" ), "" );
+        ThumbnailCache probe = ThumbnailCache.of( root, 1_000_000L, 0 );
+        probe.put( a, ThumbnailCache.ThumbnailSize.NORMAL, thumb( 7 ) );
+        long fileSize = Files.size( probe.thumbnailPath( a, ThumbnailCache.ThumbnailSize.NORMAL ) );
+        probe.invalidate( a );
+
+        // room for both files, a cleanup would delete one
+        ThumbnailCache cache = ThumbnailCache.of( root, 2 * fileSize + fileSize / 10, 0 );
+        cache.put( a, ThumbnailCache.ThumbnailSize.NORMAL, thumb( 7 ) );
+        cache.put( b, ThumbnailCache.ThumbnailSize.NORMAL, thumb( 7 ) );
+        for ( int i = 0; i < 5; i++ ) {
+            cache.put( a, ThumbnailCache.ThumbnailSize.NORMAL, thumb( 7 ) );
+        }
+
+        assertTrue( Files.exists( cache.thumbnailPath( a, ThumbnailCache.ThumbnailSize.NORMAL ) ) );
+        assertTrue( Files.exists( cache.thumbnailPath( b, ThumbnailCache.ThumbnailSize.NORMAL ) ) );
+    }
+
+    @DisplayName("Size is found for pixel")
+    @Test
+    void forSize() {
+
+        assertEquals( ThumbnailCache.ThumbnailSize.NORMAL, ThumbnailCache.ThumbnailSize.forSize( 100 ) );
+        assertEquals( ThumbnailCache.ThumbnailSize.LARGE, ThumbnailCache.ThumbnailSize.forSize( 256 ) );
+        assertEquals( ThumbnailCache.ThumbnailSize.XX_LARGE, ThumbnailCache.ThumbnailSize.forSize( 4000 ) );
+    }
+}
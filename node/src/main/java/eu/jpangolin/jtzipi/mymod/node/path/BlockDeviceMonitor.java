@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.node.path;
+
+import eu.jpangolin.jtzipi.mymod.io.OS;
+import eu.jpangolin.jtzipi.mymod.io.async.AbstractBackgroundService;
+import eu.jpangolin.jtzipi.mymod.io.async.BackgroundServiceRegistry;
+import eu.jpangolin.jtzipi.mymod.io.cmd.CommandResultCache;
+import eu.jpangolin.jtzipi.mymod.io.cmd.LinuxCmds;
+import eu.jpangolin.jtzipi.mymod.io.cmd.linux.UdevadmMonitorCmd;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Background service noticing added, removed, mounted and unmounted drives.
+ * <p>
+ * We subscribe to the output of {@code udevadm monitor --udev --subsystem-match=block}.
+ * Each add, remove or change event of a block device starts a timer. If no other event
+ * follows within the debounce time we read the drives again and compare them to the last drives.
+ * So plugging in a stick with many partitions results in one read.
+ * <br/>
+ * Mounting a device usually does not create a udev event. Automounters mount shortly after the
+ * add event. So after an add event we read the drives a second time after the settle time.
+ * Other mounts are noticed on the next event or on {@linkplain #refresh()}.
+ * <br/>
+ * Drives are compared by the {@linkplain DrivePathNode#getDeviceName() device name}.
+ * <br/>
+ * The event source and the drive source can be replaced. E.g. by a fake publisher in a test.
+ * </p>
+ * Example
+ * <pre>
+ *     {@code
+ *     BlockDeviceMonitor bdm = BlockDeviceMonitor.of( rootNode );
+ *     bdm.addListener( change -> LOG.info( "{} {}", change.kind(), change.drive().getName() ) );
+ *     BackgroundServiceRegistry.shared().register( bdm );
+ *     bdm.start();
+ *     }
+ * </pre>
+ *
+ * @author jTzipi
+ */
+public final class BlockDeviceMonitor extends AbstractBackgroundService {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( BlockDeviceMonitor.class );
+    /**
+     * Default time without events before we read the drives [ms].
+     */
+    public static final long DEF_DEBOUNCE_MS = 300L;
+    /**
+     * Default time after an add event to read the drives again [ms].
+     */
+    public static final long DEF_SETTLE_MS = 3000L;
+    private static final String ACTION_ADD = "add";
+
+    private final Supplier<? extends Flow.Publisher<String>> eventSource;
+    private final Callable<List<DrivePathNode>> driveSource;
+    private final BackgroundServiceRegistry registry;
+    private final List<Consumer<? super DriveChange>> listenerL = new CopyOnWriteArrayList<>();
+    private final long debounceMs;
+    private final long settleMs;
+
+    private volatile Map<String, DrivePathNode> driveMap = Collections.emptyMap();
+    private volatile Flow.Subscription subscription;
+    // event source completed or failed
+    private volatile boolean sourceDone;
+    private Future<?> debounceF;
+    private Future<?> settleF;
+
+    /**
+     * Kind of drive change.
+     */
+    public enum Kind {
+        /**
+         * Drive found.
+         */
+        ADDED,
+        /**
+         * Drive gone.
+         */
+        REMOVED,
+        /**
+         * Known drive is now mounted.
+         */
+        MOUNTED,
+        /**
+         * Known drive is no longer mounted.
+         */
+        UNMOUNTED
+    }
+
+    /**
+     * Change of a drive.
+     *
+     * @param kind  kind
+     * @param drive drive after the change or the removed drive
+     */
+    public record DriveChange( Kind kind, DrivePathNode drive ) {
+    }
+
+    private BlockDeviceMonitor( final Supplier<? extends Flow.Publisher<String>> events,
+                                final Callable<List<DrivePathNode>> drives,
+                                final BackgroundServiceRegistry serviceRegistry,
+                                final long debounce,
+                                final long settle ) {
+        super( "Block Device Monitor" );
+        this.eventSource = events;
+        this.driveSource = drives;
+        this.registry = serviceRegistry;
+        this.debounceMs = debounce;
+        this.settleMs = settle;
+    }
+
+    /**
+     * Monitor of the drives of the linux system root using 'udevadm' and the shared registry.
+     *
+     * @param systemRoot system root node as parent of the drives
+     * @return monitor
+     * @throws NullPointerException if {@code systemRoot} is null
+     */
+    public static BlockDeviceMonitor of( final IPathNode systemRoot ) {
+        Objects.requireNonNull( systemRoot );
+        UdevadmMonitorCmd cmd = LinuxCmds.udevadmMonitorBlock();
+        return of( cmd::publisher,
+                () -> Nodes.drives( systemRoot, OS.LINUX ),
+                BackgroundServiceRegistry.shared(),
+                DEF_DEBOUNCE_MS,
+                DEF_SETTLE_MS );
+    }
+
+    /**
+     * Monitor.
+     *
+     * @param events          supplier of a publisher of udev monitor lines. Called on each start
+     * @param drives          source of the current drives
+     * @param serviceRegistry registry for the debounce timer
+     * @param debounce        time without events before the drives are read [ms]
+     * @param settle          time after an add event to read the drives again [ms]. 0 to disable
+     * @return monitor
+     * @throws NullPointerException if {@code events}, {@code drives} or {@code serviceRegistry} is null
+     */
+    public static BlockDeviceMonitor of( final Supplier<? extends Flow.Publisher<String>> events,
+                                         final Callable<List<DrivePathNode>> drives,
+                                         final BackgroundServiceRegistry serviceRegistry,
+                                         final long debounce,
+                                         final long settle ) {
+        Objects.requireNonNull( events );
+        Objects.requireNonNull( drives );
+        Objects.requireNonNull( serviceRegistry );
+        return new BlockDeviceMonitor( events, drives, serviceRegistry, Math.max( 0L, debounce ), Math.max( 0L, settle ) );
+    }
+
+    /**
+     * Add a listener.
+     * Listeners are called on a thread of the registry scheduler.
+     *
+     * @param listener listener
+     * @throws NullPointerException if {@code listener} is null
+     */
+    public void addListener( final Consumer<? super DriveChange> listener ) {
+        Objects.requireNonNull( listener );
+        listenerL.add( listener );
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener listener
+     * @return {@code true} if removed
+     */
+    public boolean removeListener( final Consumer<? super DriveChange> listener ) {
+        return listenerL.remove( listener );
+    }
+
+    /**
+     * Return the drives of the last read.
+     *
+     * @return drives
+     */
+    public List<DrivePathNode> getDrives() {
+        return List.copyOf( driveMap.values() );
+    }
+
+    /**
+     * Read the drives now and notify the listeners of changes.
+     *
+     * @return changes
+     */
+    public synchronized List<DriveChange> refresh() {
+
+        // the fallback of reading drives is cached
+        CommandResultCache.shared().invalidate( LinuxCmds.lsblkJson() );
+
+        List<DrivePathNode> driveL;
+        try {
+            driveL = driveSource.call();
+        } catch ( InterruptedException iE ) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        } catch ( Exception e ) {
+            LOG.warn( "Failed to read drives", e );
+            return List.of();
+        }
+
+        Map<String, DrivePathNode> newMap = keyed( driveL );
+        List<DriveChange> changeL = diff( driveMap, newMap );
+        driveMap = newMap;
+
+        for ( DriveChange change : changeL ) {
+            LOG.info( "Drive {} '{}'", change.kind(), change.drive().getName() );
+            for ( Consumer<? super DriveChange> listener : listenerL ) {
+                try {
+                    listener.accept( change );
+                } catch ( RuntimeException rE ) {
+                    LOG.warn( "Listener failed", rE );
+                }
+            }
+        }
+        return changeL;
+    }
+
+    private static List<DriveChange> diff( Map<String, DrivePathNode> oldMap, Map<String, DrivePathNode> newMap ) {
+        List<DriveChange> changeL = new ArrayList<>();
+        for ( Map.Entry<String, DrivePathNode> old : oldMap.entrySet() ) {
+            if ( !newMap.containsKey( old.getKey() ) ) {
+                changeL.add( new DriveChange( Kind.REMOVED, old.getValue() ) );
+            }
+        }
+        for ( Map.Entry<String, DrivePathNode> cur : newMap.entrySet() ) {
+            DrivePathNode old = oldMap.get( cur.getKey() );
+            if ( null == old ) {
+                changeL.add( new DriveChange( Kind.ADDED, cur.getValue() ) );
+            } else if ( old.isMounted() != cur.getValue().isMounted() ) {
+                changeL.add( new DriveChange( cur.getValue().isMounted() ? Kind.MOUNTED : Kind.UNMOUNTED, cur.getValue() ) );
+            }
+        }
+        return changeL;
+    }
+
+    /**
+     * Key the drives by the device name which is the same if mounted or not.
+     */
+    private static Map<String, DrivePathNode> keyed( List<DrivePathNode> driveL ) {
+        Map<String, DrivePathNode> map = new LinkedHashMap<>();
+        for ( DrivePathNode drive : driveL ) {
+            DrivePathNode other = map.putIfAbsent( drive.getDeviceName(), drive );
+            if ( null != other ) {
+                LOG.warn( "Device '{}' found twice as '{}' and '{}'", drive.getDeviceName(), other.getName(), drive.getName() );
+            }
+        }
+        return map;
+    }
+
+    private void onEvent( String line ) {
+        UdevadmMonitorCmd.Event event = UdevadmMonitorCmd.parseLine( line );
+        if ( null == event ) {
+            return;
+        }
+        LOG.debug( "Udev event {} '{}'", event.action(), event.devName() );
+        synchronized ( this ) {
+            if ( null != debounceF ) {
+                debounceF.cancel( false );
+            }
+            debounceF = registry.schedule( this, this::refresh, debounceMs, TimeUnit.MILLISECONDS );
+            if ( ACTION_ADD.equals( event.action() ) && settleMs > 0L ) {
+                if ( null != settleF ) {
+                    settleF.cancel( false );
+                }
+                settleF = registry.schedule( this, this::refresh, settleMs, TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+    @Override
+    protected void startService() throws IOException {
+        refresh();
+        Flow.Publisher<String> pub = eventSource.get();
+        if ( null == pub ) {
+            throw new IOException( "No udev event source" );
+        }
+        sourceDone = false;
+        pub.subscribe( new EventSubscriber() );
+    }
+
+    @Override
+    protected void stopService() {
+        Flow.Subscription sub = subscription;
+        subscription = null;
+        if ( null != sub ) {
+            sub.cancel();
+        }
+        synchronized ( this ) {
+            if ( null != debounceF ) {
+                debounceF.cancel( false );
+            }
+            if ( null != settleF ) {
+                settleF.cancel( false );
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return iStarted() && !sourceDone;
+    }
+
+    @Override
+    public boolean iStopped() {
+        return registry.isShutdown();
+    }
+
+    /**
+     * Subscriber of the udev lines.
+     */
+    private final class EventSubscriber implements Flow.Subscriber<String> {
+
+        @Override
+        public void onSubscribe( Flow.Subscription sub ) {
+            subscription = sub;
+            sub.request( 1L );
+        }
+
+        @Override
+        public void onNext( String item ) {
+            onEvent( item );
+            Flow.Subscription sub = subscription;
+            if ( null != sub ) {
+                sub.request( 1L );
+            }
+        }
+
+        @Override
+        public void onError( Throwable throwable ) {
+            LOG.warn( "Udev event source failed", throwable );
+            subscription = null;
+            sourceDone = true;
+        }
+
+        @Override
+        public void onComplete() {
+            LOG.info( "Udev event source completed" );
+            subscription = null;
+            sourceDone = true;
+        }
+    }
+}
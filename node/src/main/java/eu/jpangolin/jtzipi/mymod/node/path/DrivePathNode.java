@@ -64,6 +64,7 @@ public final class DrivePathNode implements IBlockDeviceNode {
 
 
     // -- IBlockDeviceNode Prop
+    private final String devName;
     private final boolean mounted;
     private final long sizeAvail;
     private final String fsType;
@@ -74,6 +75,7 @@ public final class DrivePathNode implements IBlockDeviceNode {
     DrivePathNode(final IPathNode parentPathNode,
                   final Path drivePath,
                   final String nameStr,
+                  final String deviceStr,
                   final String labelStr,
                   final LogicalType logicalType,
                   final PhysicalDisk physicalDisk,
@@ -84,6 +86,7 @@ public final class DrivePathNode implements IBlockDeviceNode {
         this.parent = parentPathNode;
         this.path = drivePath;
         this.name = nameStr + "(" + labelStr + ")";
+        this.devName = deviceStr;
         this.type = logicalType.get() + ":"+ physicalDisk.get() + ":" + fsFormatTypeStr;
         this.fs = fsByte;
         this.depth = drivePath.getNameCount();
@@ -226,6 +229,18 @@ public final class DrivePathNode implements IBlockDeviceNode {
     }
 
 
+    /**
+     * Return the name of the device.
+     * <p>
+     *     On linux this is the kernel name like 'sda1' or 'sr0'. This does not change if the device is
+     *     mounted or unmounted. On windows this is the name of the drive.
+     * </p>
+     * @return device name
+     */
+    public String getDeviceName() {
+        return devName;
+    }
+
     @Override
     public boolean isMounted() {
         return mounted;
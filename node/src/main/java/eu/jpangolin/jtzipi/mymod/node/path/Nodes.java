@@ -20,8 +20,10 @@ import eu.jpangolin.jtzipi.mymod.io.ModIO;
 import eu.jpangolin.jtzipi.mymod.io.OS;
 import eu.jpangolin.jtzipi.mymod.io.PathInfo;
 import eu.jpangolin.jtzipi.mymod.io.cmd.CommandResult;
+import eu.jpangolin.jtzipi.mymod.io.cmd.CommandResultCache;
 import eu.jpangolin.jtzipi.mymod.io.cmd.LinuxCmds;
 import eu.jpangolin.jtzipi.mymod.io.cmd.linux.LsblkCmd;
+import eu.jpangolin.jtzipi.mymod.io.cmd.linux.SysBlockDevices;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
@@ -65,22 +67,39 @@ public final class Nodes {
 
     }
 
-    private static List<DrivePathNode> linuxDrives(IPathNode sysRoot) throws IOException, InterruptedException {
-
-
+    /**
+     * Read the block devices from /sys and /proc.
+     * If this is not possible launch 'lsblk'.
+     *
+     * @return block devices or {@code null} if not found
+     */
+    private static LsblkCmd.Lsblk readLinuxBlockDevices() throws IOException, InterruptedException {
+
+        SysBlockDevices sbd = SysBlockDevices.of();
+        if( sbd.isAvailable() ) {
+            try {
+                return sbd.read();
+            } catch (IOException ioE) {
+                LOG.warn("Failed to read block devices from /sys, try 'lsblk'", ioE);
+            }
+        }
 
-        CommandResult<LsblkCmd.Lsblk> result = LinuxCmds.lsblk().launch();
+        // cached for a few seconds. Every root node and block device parent asks for the drives
+        CommandResult<LsblkCmd.Lsblk> result = CommandResultCache.shared().launch(LinuxCmds.lsblkJson());
+        return result.isError() ? null : result.object();
+    }
 
+    private static List<DrivePathNode> linuxDrives(IPathNode sysRoot) throws IOException, InterruptedException {
 
         List<DrivePathNode> driveList = new ArrayList<>();
+        LsblkCmd.Lsblk lsblk = readLinuxBlockDevices();
         // Did not find anything or error
-        if(result.isError())  {
+        if(null == lsblk)  {
 
             LOG.warn("No drives found");
             return driveList;
         }
 
-        LsblkCmd.Lsblk lsblk = result.object();
         String userName = OS.getUser();
 
         // parent path where all linux media devices are mount
@@ -93,8 +112,8 @@ public final class Nodes {
 
             String tranType = disk.tranTypeStr();
             String nameDisk = disk.nameStr();
-            long sizeDisk = Long.parseLong( disk.sizeStr() );
-            long availableDisk = Long.parseLong(disk.fsAvailStr());
+            long sizeDisk = parseLong( disk.sizeStr() );
+            long availableDisk = parseLong(disk.fsAvailStr());
             DrivePathNode.PhysicalDisk pd = DrivePathNode.PhysicalDisk.of(tranType);
 
             //
@@ -105,8 +124,8 @@ public final class Nodes {
                 String label = part.labelStr();
                 String namePart = part.nameStr();
                 boolean mounted = !mountPoint.isEmpty();
-                long partSize = Long.parseLong( part.sizeStr() );
-                long availablePart = Long.parseLong(part.fsAvailStr());
+                long partSize = parseLong( part.sizeStr() );
+                long availablePart = parseLong(part.fsAvailStr());
 
 
                 // if not mounted we have maybe a path with is mountable but
@@ -119,6 +138,7 @@ public final class Nodes {
                         DrivePathNode notMountedDrive = new DrivePathNode(sysRoot,
                                 ModIO.PATH_LINUX_NOT_FOUND,
                                 nameDisk,
+                                namePart,
                                 label,
                                 DrivePathNode.LogicalType.DISK,
                                 pd,
@@ -167,6 +187,7 @@ public final class Nodes {
                     DrivePathNode partNode = new DrivePathNode( driveParentNode,
                             mountPath,
                             nameDisk + "[" + namePart + "]",
+                            namePart,
                             label,
 
                             DrivePathNode.LogicalType.PART,
@@ -187,13 +208,13 @@ public final class Nodes {
         for ( LsblkCmd.Rom rom : lsblk.romList() ) {
 
             String tranType = rom.tranTypeStr();
-            long availableRom = Long.parseLong(rom.fsAvailStr());
+            long availableRom = parseLong(rom.fsAvailStr());
             DrivePathNode.PhysicalDisk pd = DrivePathNode.PhysicalDisk.of(tranType);
             String mountPoint = rom.mountStr();
             String fsType = rom.fsTypeStr();
             String label = rom.labelStr();
             String nameRom = rom.nameStr();
-            long sizeRom = Long.parseLong(rom.sizeStr());
+            long sizeRom = parseLong(rom.sizeStr());
             boolean mounted = !mountPoint.isEmpty();
 
 
@@ -206,6 +227,7 @@ public final class Nodes {
                 DrivePathNode notMountedRom = new DrivePathNode(sysRoot,
                         ModIO.PATH_LINUX_NOT_FOUND,
                         nameRom,
+                        nameRom,
                         label,
 
                         DrivePathNode.LogicalType.ROM,
@@ -241,6 +263,7 @@ public final class Nodes {
                 DrivePathNode romNode  = new DrivePathNode(driveParentNode,
                         mountPath,
                         nameRom,
+                        nameRom,
                         label,
 
                         DrivePathNode.LogicalType.ROM,
@@ -260,6 +283,24 @@ public final class Nodes {
 
 
 
+    /**
+     * Parse a size. Sizes of not mounted devices are empty.
+     *
+     * @param sizeStr size
+     * @return size or 0 if not a number
+     */
+    private static long parseLong(String sizeStr) {
+        if( null == sizeStr || sizeStr.isEmpty() ) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(sizeStr);
+        } catch (NumberFormatException nfE) {
+            LOG.warn("Size '{}' not a number", sizeStr);
+            return 0L;
+        }
+    }
+
     private static List<DrivePathNode> windowsDrives(IPathNode sysRoot) {
 
 
@@ -278,7 +319,7 @@ public final class Nodes {
             long size = PathInfo.getLength(drive);
             long available = drive.toFile().getFreeSpace();
 
-            DrivePathNode driveNode = new DrivePathNode(sysRoot, drive, name, name, lt, pd, fsType, size, available, true);
+            DrivePathNode driveNode = new DrivePathNode(sysRoot, drive, name, name, name, lt, pd, fsType, size, available, true);
 
         rootDriveL.add(driveNode);
         }
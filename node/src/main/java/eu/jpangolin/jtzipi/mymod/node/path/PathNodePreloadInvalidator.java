@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package eu.jpangolin.jtzipi.mymod.node.path;
+
+import eu.jpangolin.jtzipi.mymod.io.async.AbstractPreloadMemo;
+import eu.jpangolin.jtzipi.mymod.io.async.IPreloadMemoListener;
+import eu.jpangolin.jtzipi.mymod.io.watcher.FileSystemWatcher;
+import eu.jpangolin.jtzipi.mymod.io.watcher.PathWatcherAdapter;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bridge between a {@linkplain FileSystemWatcher} and a path node preloader.
+ * <p>
+ * A cached listing of sub nodes is stale as soon as the directory changes.
+ * <br/>
+ * This listener invalidates the key of the changed directory
+ * <ul>
+ *     <li>if a path is created, deleted or modified the parent directory is invalidated</li>
+ *     <li>if a directory is deleted its own key is evicted too</li>
+ *     <li>if events are lost (overflow) the parent directory is invalidated</li>
+ * </ul>
+ * In both modes the node is reloaded. So the sub nodes it created before are not used again.
+ * With {@linkplain Mode#EVICT} the key is removed and computed on the next request.
+ * With {@linkplain Mode#RECOMPUTE} the computation is started again in background.
+ * </p>
+ * <p>
+ * Only directories registered by us are invalidated. An event is resolved with one lookup
+ * of its directory.
+ * <br/>
+ * We listen to the memo. Each directory is registered when its key is cached and forgotten
+ * when its key is evicted.
+ * </p>
+ * <p>
+ * Use {@linkplain #attach(FileSystemWatcher, AbstractPreloadMemo, Mode)} to create and register an invalidator.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class PathNodePreloadInvalidator extends PathWatcherAdapter {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( PathNodePreloadInvalidator.class );
+    private final AbstractPreloadMemo<IPathNode, ?> memo;
+    private final Mode mode;
+    private final FileSystemWatcher fsw;
+    // cached keys by normalized path registered to the watcher by us
+    private final Map<Path, IPathNode> watchedM = new ConcurrentHashMap<>();
+    // keeps the cached keys in sync
+    private final IPreloadMemoListener<IPathNode> memoListener = new IPreloadMemoListener<>() {
+        @Override
+        public void onCached( IPathNode key ) {
+            register( key );
+        }
+
+        @Override
+        public void onEvicted( IPathNode key ) {
+            forget( key );
+        }
+    };
+
+    private PathNodePreloadInvalidator( FileSystemWatcher fsw, AbstractPreloadMemo<IPathNode, ?> memo, Mode mode ) {
+        this.fsw = fsw;
+        this.memo = memo;
+        this.mode = mode;
+    }
+
+    /**
+     * Create an invalidator, add it to the watcher and register the directories of all cached keys.
+     * <p>
+     * Keys cached later are registered when they are cached.
+     * </p>
+     *
+     * @param fileSystemWatcher watcher
+     * @param memo              preloader
+     * @param mode              invalidation mode
+     * @return invalidator
+     * @throws NullPointerException if {@code fileSystemWatcher} | {@code memo} | {@code mode} is null
+     */
+    public static PathNodePreloadInvalidator attach( FileSystemWatcher fileSystemWatcher, AbstractPreloadMemo<IPathNode, ?> memo, Mode mode ) {
+        Objects.requireNonNull( fileSystemWatcher, "watcher is null" );
+        Objects.requireNonNull( memo, "memo is null" );
+        Objects.requireNonNull( mode, "mode is null" );
+
+        PathNodePreloadInvalidator inv = new PathNodePreloadInvalidator( fileSystemWatcher, memo, mode );
+        // listen first so that no key cached meanwhile is missed
+        memo.addListener( inv.memoListener );
+        fileSystemWatcher.addListener( inv );
+        inv.syncWatchedPaths();
+        return inv;
+    }
+
+    /**
+     * Remove this invalidator from the watcher and the memo.
+     *
+     * @return {@code true} if removed
+     */
+    public boolean detach() {
+        memo.removeListener( memoListener );
+        return fsw.removeListener( this );
+    }
+
+    /**
+     * Register the directories of all cached keys not registered yet.
+     * <p>
+     * Usually not needed since cached keys are registered when they are cached.
+     * </p>
+     *
+     * @return number of newly registered directories
+     */
+    public int syncWatchedPaths() {
+        int cnt = 0;
+        for ( IPathNode node : memo.keys() ) {
+            if ( register( node ) ) {
+                cnt++;
+            }
+        }
+        LOG.debug( "Registered {} new paths", cnt );
+        return cnt;
+    }
+
+    /**
+     * Return whether the directory is known to us.
+     *
+     * @param dir directory
+     * @return {@code true} if a cached key of {@code dir} is registered
+     */
+    public boolean isWatched( Path dir ) {
+        return null != find( dir );
+    }
+
+    /**
+     * Return the invalidation mode.
+     *
+     * @return mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    @Override
+    public void onCreated( Path parent, Path path, int cnt ) {
+        invalidate( parent );
+    }
+
+    @Override
+    public void onModified( Path parent, Path path, int cnt ) {
+        // attributes of a sub node are cached too
+        invalidate( parent );
+    }
+
+    @Override
+    public void onDeleted( Path parent, Path path, int cnt ) {
+        invalidate( parent );
+        // a deleted dir has no listing anymore
+        IPathNode deleted = find( path );
+        if ( null != deleted && !evict( deleted ) ) {
+            // not cached anymore
+            forget( deleted );
+        }
+    }
+
+    @Override
+    public void onOverflow( Path parent, Object context, int cnt ) {
+        invalidate( parent );
+    }
+
+    private void invalidate( Path dir ) {
+
+        IPathNode key = find( dir );
+        if ( null == key ) {
+            return;
+        }
+        // the node caches its sub nodes too
+        key.requestReload();
+        if ( !evict( key ) ) {
+            return;
+        }
+        if ( Mode.RECOMPUTE == mode ) {
+            LOG.debug( "Recompute '{}'", dir );
+            memo.put( key );
+        }
+    }
+
+    private boolean evict( IPathNode key ) {
+        try {
+            memo.remove( key );
+            LOG.debug( "Evicted '{}'", key.getValue() );
+            return true;
+        } catch ( IllegalArgumentException iaE ) {
+            // removed by another thread
+            LOG.debug( "Key '{}' already removed", key.getValue() );
+            return false;
+        }
+    }
+
+    /**
+     * Register the directory of a cached key.
+     * <p>
+     * A key cached again with another node of the same path replaces the node we know.
+     * </p>
+     *
+     * @param node cached key
+     * @return {@code true} if the directory was not registered before
+     */
+    private boolean register( IPathNode node ) {
+        Path path = node.getValue();
+        if ( null == path || !node.isDir() || null != watchedM.put( path.normalize(), node ) ) {
+            return false;
+        }
+        fsw.putPath( path, false );
+        return true;
+    }
+
+    private void forget( IPathNode node ) {
+        Path path = node.getValue();
+        if ( null != path ) {
+            // a node of the same path cached meanwhile stays
+            watchedM.remove( path.normalize(), node );
+        }
+    }
+
+    private IPathNode find( Path dir ) {
+        return null == dir ? null : watchedM.get( dir.normalize() );
+    }
+
+    /**
+     * What to do with the key of a changed directory.
+     */
+    public enum Mode {
+        /**
+         * Reload the node and remove the key. The sub nodes are computed on the next request.
+         */
+        EVICT,
+        /**
+         * Remove the key, reload the node and start the computation in background.
+         */
+        RECOMPUTE
+    }
+}
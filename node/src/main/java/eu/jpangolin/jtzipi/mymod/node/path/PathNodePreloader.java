@@ -17,26 +17,106 @@
 package eu.jpangolin.jtzipi.mymod.node.path;
 
 import eu.jpangolin.jtzipi.mymod.io.async.AbstractPreloadMemo;
+import eu.jpangolin.jtzipi.mymod.io.async.IPreloadSnapshotCodec;
+import eu.jpangolin.jtzipi.mymod.io.async.PreloadPriority;
 import eu.jpangolin.jtzipi.mymod.node.INode;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Path Node Preloader.
  * <p>
  * For a given {@linkplain IPathNode} we compute and cache the sub nodes.
  * </p>
+ * <p>
+ * Beside single nodes we can prefetch
+ * <ul>
+ *     <li>a bulk of nodes ({@linkplain #preloadAll(Collection)})</li>
+ *     <li>the directories a user will most likely expand next ({@linkplain #prefetchAround(IPathNode, int, int)}).
+ *     These are the sub directories of the expanded node, its siblings and the sub directories of
+ *     previously expanded nodes.</li>
+ * </ul>
+ * All prefetching shares a budget of max concurrent directory reads.
+ * So a slow disk is not flooded with reads.
+ * <br/>
+ * A prefetch is returned as {@linkplain Prefetch} and can be cancelled.
+ * A new {@code prefetchAround} cancels the previous one since the user navigated away.
+ * A bulk preload is not cancelled by navigation. Cancel it with its handle or with
+ * {@linkplain #cancelAllPrefetches()}.
+ * Reads already running are finished and cached.
+ * <br/>
+ * Prefetch reads run with {@linkplain PreloadPriority#BACKGROUND}. So a node the user is waiting for
+ * is read first and a queued prefetch of this node is promoted.
+ * </p>
+ * <p>
+ * To start warm write a snapshot on exit and read it on start
+ * <pre>
+ *     {@code
+ *         PathNodePreloader pre = PathNodePreloader.instance();
+ *         pre.readSnapshot( file, pre.snapshotCodec() );
+ *         // ... on exit
+ *         pre.writeSnapshot( file, pre.snapshotCodec() );
+ *     }
+ * </pre>
+ * A directory listing is only restored if the modification time of the directory
+ * is the same as when we listed it.
+ * </p>
  *
  * @author jTzipi
  */
 public final class PathNodePreloader extends AbstractPreloadMemo<IPathNode, List<INode<Path>>> {
 
     public static final org.slf4j.Logger LOG = LoggerFactory.getLogger( PathNodePreloader.class );
+    /**
+     * Default max concurrent directory reads.
+     */
+    public static final int DEF_MAX_READS = 4;
+    /**
+     * Default max nodes prefetched around an expanded node.
+     */
+    public static final int DEF_PREFETCH_NODES = 32;
+    /**
+     * Default depth of prefetched sub directories.
+     */
+    public static final int DEF_PREFETCH_DEPTH = 1;
+    /**
+     * Number of previously expanded nodes we remember.
+     */
+    public static final int HISTORY_SIZE = 8;
     private static final PathNodePreloader SINGLETON = new PathNodePreloader();
 
+    // budget of directory reads
+    private final ReadBudget readBudget = new ReadBudget( DEF_MAX_READS );
+    private final AtomicInteger maxReads = new AtomicInteger( DEF_MAX_READS );
+    // running prefetches
+    private final List<Prefetch> prefetchL = new CopyOnWriteArrayList<>();
+    // previously expanded nodes, last expanded first
+    private final Deque<IPathNode> history = new ArrayDeque<>();
+    // last prefetch around an expanded node
+    private volatile Prefetch around;
+    // modification time of a directory before we listed it
+    private final Map<Path, Long> listedMtimeM = new ConcurrentHashMap<>();
+
     private PathNodePreloader() {
 
     }
@@ -55,7 +135,441 @@ public final class PathNodePreloader extends AbstractPreloadMemo<IPathNode, List
     protected List<INode<Path>> compute( IPathNode iPathNode ) {
 
         Objects.requireNonNull( iPathNode, "PathNode must != null" );
-        LOG.info( "Compute via memoizer '{}'", iPathNode );
+        LOG.debug( "Compute via memoizer '{}'", iPathNode );
+        Path path = iPathNode.getValue();
+        if ( null != path && iPathNode.isDir() ) {
+            // read before listing. If the dir changes during listing the snapshot entry is stale
+            try {
+                listedMtimeM.put( path, Files.getLastModifiedTime( path ).toMillis() );
+            } catch ( IOException ioE ) {
+                listedMtimeM.remove( path );
+            }
+        }
         return iPathNode.getSubNodes();
     }
+
+    @Override
+    protected void onEvicted( IPathNode key ) {
+        Path path = key.getValue();
+        if ( null != path ) {
+            listedMtimeM.remove( path );
+        }
+    }
+
+    /**
+     * Return memoized sub nodes as sub nodes of {@code node}.
+     * <p>
+     * The memoized list may be listed by another node with the same path.
+     * E.g. a node restored from a snapshot has no parent.
+     * Then the sub nodes are created again with {@code node} as parent.
+     * <br/>
+     * If {@code node} has not created its sub nodes the list is set as its sub nodes.
+     * So the directory is not listed again.
+     * </p>
+     *
+     * @param node     node
+     * @param subNodeL memoized sub nodes of a node with the same path
+     * @return sub nodes of {@code node}
+     * @throws NullPointerException if {@code node} | {@code subNodeL} is null
+     */
+    public static List<INode<Path>> adoptSubNodes( IPathNode node, List<INode<Path>> subNodeL ) {
+        Objects.requireNonNull( node, "node is null" );
+        Objects.requireNonNull( subNodeL, "sub nodes is null" );
+
+        List<INode<Path>> subL = new ArrayList<>( subNodeL.size() );
+        for ( INode<Path> sub : subNodeL ) {
+            subL.add( sub.getParent() == node || !( sub instanceof RegularPathNode ) ? sub : RegularPathNode.of( node, sub.getValue() ) );
+        }
+        if ( node instanceof RegularPathNode rpn && !rpn.isNodeSubListCreated() ) {
+            rpn.adoptSubNodes( subL );
+        }
+        return subL;
+    }
+
+    /**
+     * Return the codec to write and read a snapshot of this preloader.
+     * <p>
+     * For each directory we store the path, the modification time when we listed it
+     * and the names of the sub paths. On read a directory modified since is dropped.
+     * The sub nodes are created again from the names.
+     * </p>
+     *
+     * @return snapshot codec
+     */
+    public IPreloadSnapshotCodec<IPathNode, List<INode<Path>>> snapshotCodec() {
+        return new PathSnapshotCodec();
+    }
+
+    /**
+     * Set the max number of concurrent directory reads of all prefetches.
+     *
+     * @param reads max reads [1 ..]
+     * @throws IllegalArgumentException if {@code reads} &lt; 1
+     */
+    public void setMaxConcurrentReads( int reads ) {
+        if ( 1 > reads ) {
+            throw new IllegalArgumentException( "reads[=" + reads + "] < 1" );
+        }
+        int old = maxReads.getAndSet( reads );
+        if ( reads > old ) {
+            readBudget.release( reads - old );
+            pump();
+        } else if ( reads < old ) {
+            // permits in use are given back later
+            readBudget.reducePermits( old - reads );
+        }
+    }
+
+    /**
+     * Return max concurrent directory reads.
+     *
+     * @return max reads
+     */
+    public int getMaxConcurrentReads() {
+        return maxReads.get();
+    }
+
+    /**
+     * Preload the sub nodes of all nodes.
+     * <p>
+     * Nodes already memoized are skipped.
+     * </p>
+     *
+     * @param pathNodes nodes
+     * @return prefetch
+     * @throws NullPointerException if {@code pathNodes} is null
+     */
+    public Prefetch preloadAll( Collection<? extends IPathNode> pathNodes ) {
+        Objects.requireNonNull( pathNodes, "path nodes is null" );
+
+        Prefetch prefetch = new Prefetch( Integer.MAX_VALUE );
+        for ( IPathNode node : pathNodes ) {
+            prefetch.offer( node, 1 );
+        }
+        return launch( prefetch );
+    }
+
+    /**
+     * Prefetch the directories a user will most likely expand next.
+     * <p>
+     * In this order
+     * <ol>
+     *     <li>sub directories of {@code expanded} up to {@code depth}</li>
+     *     <li>siblings of {@code expanded} if the parent's sub nodes are created</li>
+     *     <li>sub directories of previously expanded nodes</li>
+     * </ol>
+     * A previous prefetch around a node is cancelled.
+     * </p>
+     *
+     * @param expanded expanded node
+     * @param depth    depth of sub directories [1 ..]
+     * @param maxNodes max nodes to read [1 ..]
+     * @return prefetch
+     * @throws NullPointerException     if {@code expanded} is null
+     * @throws IllegalArgumentException if {@code depth} or {@code maxNodes} &lt; 1
+     */
+    public Prefetch prefetchAround( IPathNode expanded, int depth, int maxNodes ) {
+        Objects.requireNonNull( expanded, "expanded node is null" );
+        if ( 1 > depth || 1 > maxNodes ) {
+            throw new IllegalArgumentException( "depth[=" + depth + "] or max nodes[=" + maxNodes + "] < 1" );
+        }
+
+        cancelPrefetch();
+
+        Prefetch prefetch = new Prefetch( maxNodes );
+        // 1. expanded node itself is the origin of its sub directories
+        prefetch.offer( expanded, depth + 1 );
+        // 2. siblings
+        if ( expanded.getParent() instanceof IPathNode parent && parent.isNodeSubListCreated() ) {
+            for ( INode<Path> sibling : parent.getSubNodes() ) {
+                if ( !expanded.equals( sibling ) && isDirToRead( sibling ) ) {
+                    prefetch.offer( ( IPathNode ) sibling, 1 );
+                }
+            }
+        }
+        // 3. sub directories of previously expanded nodes
+        for ( IPathNode prev : remember( expanded ) ) {
+            if ( prev.isNodeSubListCreated() ) {
+                for ( INode<Path> sub : prev.getSubNodes() ) {
+                    if ( isDirToRead( sub ) ) {
+                        prefetch.offer( ( IPathNode ) sub, 1 );
+                    }
+                }
+            }
+        }
+
+        around = prefetch;
+        return launch( prefetch );
+    }
+
+    /**
+     * Cancel the last prefetch around an expanded node.
+     */
+    public void cancelPrefetch() {
+        Prefetch last = around;
+        if ( null != last ) {
+            last.cancel();
+        }
+    }
+
+    /**
+     * Cancel all prefetches not done.
+     * <p>
+     * This cancels bulk preloads too.
+     * </p>
+     */
+    public void cancelAllPrefetches() {
+        for ( Prefetch prefetch : prefetchL ) {
+            prefetch.cancel();
+        }
+        prefetchL.clear();
+    }
+
+    private List<IPathNode> remember( IPathNode expanded ) {
+        synchronized ( history ) {
+            List<IPathNode> prevL = new ArrayList<>( history );
+            prevL.remove( expanded );
+            history.remove( expanded );
+            history.addFirst( expanded );
+            while ( HISTORY_SIZE < history.size() ) {
+                history.removeLast();
+            }
+            return prevL;
+        }
+    }
+
+    private Prefetch launch( Prefetch prefetch ) {
+        prefetchL.add( prefetch );
+        pump();
+        return prefetch;
+    }
+
+    /**
+     * Start reads while we have budget.
+     */
+    private void pump() {
+        for ( Prefetch prefetch : prefetchL ) {
+            if ( !prefetch.pump() ) {
+                prefetchL.remove( prefetch );
+            }
+        }
+    }
+
+    private static boolean isDirToRead( INode<Path> node ) {
+        return node instanceof IPathNode pn && pn.isDir() && pn.isReadable() && !pn.isLink();
+    }
+
+    /**
+     * Handle of a running prefetch.
+     * <p>
+     * Cancel stops issuing new reads. Reads already running are finished.
+     * </p>
+     *
+     * @author jTzipi
+     */
+    public final class Prefetch {
+
+        // node to read and remaining depth
+        private final Queue<Candidate> candidateQ = new ConcurrentLinkedQueue<>();
+        private final int maxNodes;
+        private final AtomicInteger issued = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        private Prefetch( int maxNodes ) {
+            this.maxNodes = maxNodes;
+        }
+
+        /**
+         * Cancel this prefetch.
+         */
+        public void cancel() {
+            cancelled = true;
+            candidateQ.clear();
+            LOG.debug( "Prefetch cancelled after {} nodes", issued.get() );
+        }
+
+        /**
+         * Return whether this prefetch was cancelled.
+         *
+         * @return {@code true} if cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Return whether this prefetch has no more work.
+         *
+         * @return {@code true} if all nodes are read or this is cancelled
+         */
+        public boolean isDone() {
+            return 0 == running.get() && ( cancelled || candidateQ.isEmpty() );
+        }
+
+        /**
+         * Return the number of nodes read or reading.
+         *
+         * @return nodes
+         */
+        public int getIssued() {
+            return issued.get();
+        }
+
+        private void offer( IPathNode node, int depth ) {
+            if ( !cancelled ) {
+                candidateQ.offer( new Candidate( node, depth ) );
+            }
+        }
+
+        /**
+         * Issue reads while we have budget.
+         *
+         * @return {@code false} if this prefetch is done
+         */
+        private boolean pump() {
+
+            while ( !cancelled ) {
+
+                Candidate next = candidateQ.peek();
+                if ( null == next ) {
+                    break;
+                }
+                // a node already memoized costs no read
+                boolean memoized = isMemoized( next.node );
+                if ( memoized && 1 >= next.depth ) {
+                    candidateQ.remove( next );
+                    continue;
+                }
+                if ( !memoized ) {
+                    if ( issued.get() >= maxNodes ) {
+                        candidateQ.clear();
+                        break;
+                    }
+                    if ( !readBudget.tryAcquire() ) {
+                        break;
+                    }
+                }
+                if ( !candidateQ.remove( next ) ) {
+                    // another thread took it
+                    if ( !memoized ) {
+                        readBudget.release();
+                    }
+                    continue;
+                }
+                if ( !memoized ) {
+                    issued.incrementAndGet();
+                }
+                read( next, !memoized );
+            }
+            return !isDone();
+        }
+
+        private void read( Candidate cand, boolean permit ) {
+
+            CompletableFuture<List<INode<Path>>> stage = startAsync( cand.node, PreloadPriority.BACKGROUND ).toCompletableFuture();
+            if ( stage.isDone() ) {
+                // no need to pump again, we are in the loop
+                stage.whenComplete( ( subNodeL, t ) -> onRead( cand, permit, subNodeL, t ) );
+                return;
+            }
+
+            running.incrementAndGet();
+            stage.whenComplete( ( subNodeL, t ) -> {
+                onRead( cand, permit, subNodeL, t );
+                running.decrementAndGet();
+                PathNodePreloader.this.pump();
+            } );
+        }
+
+        private void onRead( Candidate cand, boolean permit, List<INode<Path>> subNodeL, Throwable t ) {
+            if ( permit ) {
+                readBudget.release();
+            }
+            if ( null == t && 1 < cand.depth ) {
+                for ( INode<Path> sub : subNodeL ) {
+                    if ( isDirToRead( sub ) ) {
+                        offer( ( IPathNode ) sub, cand.depth - 1 );
+                    }
+                }
+            } else if ( null != t ) {
+                LOG.debug( "Prefetch of '{}' failed", cand.node, t );
+            }
+        }
+    }
+
+    private record Candidate( IPathNode node, int depth ) {
+    }
+
+    /**
+     * Codec of directory listings.
+     */
+    private final class PathSnapshotCodec implements IPreloadSnapshotCodec<IPathNode, List<INode<Path>>> {
+
+        @Override
+        public boolean accept( IPathNode key, List<INode<Path>> value ) {
+            return key instanceof RegularPathNode && null != key.getValue() && listedMtimeM.containsKey( key.getValue() );
+        }
+
+        @Override
+        public void write( ObjectOutput out, IPathNode key, List<INode<Path>> value ) throws IOException {
+            Path dir = key.getValue();
+            out.writeUTF( dir.toString() );
+            out.writeLong( listedMtimeM.getOrDefault( dir, -1L ) );
+            List<String> nameL = new ArrayList<>( value.size() );
+            for ( INode<Path> sub : value ) {
+                Path name = null == sub.getValue() ? null : sub.getValue().getFileName();
+                if ( null != name ) {
+                    nameL.add( name.toString() );
+                }
+            }
+            out.writeInt( nameL.size() );
+            for ( String name : nameL ) {
+                out.writeUTF( name );
+            }
+        }
+
+        @Override
+        public Map.Entry<IPathNode, List<INode<Path>>> read( ObjectInput in ) throws IOException {
+            Path dir = Paths.get( in.readUTF() );
+            long mtime = in.readLong();
+            int cnt = in.readInt();
+            List<String> nameL = new ArrayList<>( cnt );
+            for ( int i = 0; i < cnt; i++ ) {
+                nameL.add( in.readUTF() );
+            }
+
+            try {
+                if ( mtime != Files.getLastModifiedTime( dir ).toMillis() ) {
+                    LOG.debug( "Directory '{}' modified since snapshot", dir );
+                    return null;
+                }
+            } catch ( IOException ioE ) {
+                // removed or not readable
+                return null;
+            }
+            listedMtimeM.put( dir, mtime );
+            RegularPathNode key = RegularPathNode.of( null, dir );
+            List<INode<Path>> subL = new ArrayList<>( cnt );
+            for ( String name : nameL ) {
+                subL.add( RegularPathNode.of( key, dir.resolve( name ) ) );
+            }
+            return Map.entry( key, subL );
+        }
+    }
+
+    /**
+     * Semaphore we can shrink without blocking.
+     */
+    private static final class ReadBudget extends Semaphore {
+
+        private ReadBudget( int permits ) {
+            super( permits );
+        }
+
+        @Override
+        protected void reducePermits( int reduction ) {
+            super.reducePermits( reduction );
+        }
+    }
 }
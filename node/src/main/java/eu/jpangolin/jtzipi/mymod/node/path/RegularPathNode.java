@@ -197,6 +197,18 @@ public class RegularPathNode implements IPathNode {
         return Collections.unmodifiableList( subNodeL );
     }
 
+    /**
+     * Set sub nodes listed before. E.g. by a preloader.
+     *
+     * @param subL sub nodes with this as parent
+     */
+    void adoptSubNodes( List<INode<Path>> subL ) {
+
+        this.subNodeL = subL;
+        this.creationError = null;
+        this.created = true;
+    }
+
     @Override
     public int getDepth() {
 
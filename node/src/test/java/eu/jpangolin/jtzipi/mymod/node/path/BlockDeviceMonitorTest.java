@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.node.path;
+
+import eu.jpangolin.jtzipi.mymod.io.ModIO;
+import eu.jpangolin.jtzipi.mymod.io.async.BackgroundServiceRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Block Device Monitor Test.
+ * <p>
+ * The udev events are published by a fake publisher and the drives are set by the test.
+ * </p>
+ *
+ * @author jTzipi
+ */
+class BlockDeviceMonitorTest {
+
+    private static final String EVENT = "UDEV  [1234.5678] change   /devices/pci0000:00/usb1/1-1/block/sdb/sdb1 (block)";
+    @TempDir
+    Path dir;
+    private final AtomicInteger readCnt = new AtomicInteger();
+    private final BlockingQueue<BlockDeviceMonitor.DriveChange> changeQ = new LinkedBlockingQueue<>();
+    private volatile List<DrivePathNode> driveL = List.of();
+    private SubmissionPublisher<String> pub;
+    private BackgroundServiceRegistry registry;
+    private BlockDeviceMonitor bdm;
+
+    @BeforeEach
+    void setUp() {
+        pub = new SubmissionPublisher<>();
+        registry = new BackgroundServiceRegistry( 1 );
+        bdm = BlockDeviceMonitor.of( () -> pub, () -> {
+            readCnt.incrementAndGet();
+            return driveL;
+        }, registry, 100L, 0L );
+        bdm.addListener( changeQ::add );
+    }
+
+    @AfterEach
+    void tearDown() {
+        pub.close();
+        registry.shutdown();
+    }
+
+    private DrivePathNode unmounted( String disk, String part ) {
+        return new DrivePathNode( null, ModIO.PATH_LINUX_NOT_FOUND, disk, part, "STICK",
+                IBlockDeviceNode.LogicalType.DISK, IBlockDeviceNode.PhysicalDisk.USB, "", 1000L, 0L, false );
+    }
+
+    private DrivePathNode mounted( String disk, String part ) {
+        return new DrivePathNode( null, dir, disk + "[" + part + "]", part, "STICK",
+                IBlockDeviceNode.LogicalType.PART, IBlockDeviceNode.PhysicalDisk.USB, "vfat", 1000L, 500L, true );
+    }
+
+    @DisplayName("A burst of events results in one read and a mount is reported as mounted")
+    @Test
+    void debounceMount() throws Exception {
+
+        driveL = List.of( unmounted( "sdb", "sdb1" ) );
+        bdm.start();
+        assertEquals( 1, readCnt.get() );
+        assertEquals( 1, bdm.getDrives().size() );
+        BlockDeviceMonitor.DriveChange added = changeQ.poll( 1L, TimeUnit.SECONDS );
+        assertEquals( BlockDeviceMonitor.Kind.ADDED, added.kind() );
+
+        driveL = List.of( mounted( "sdb", "sdb1" ) );
+        for ( int i = 0; i < 5; i++ ) {
+            pub.submit( EVENT );
+        }
+
+        BlockDeviceMonitor.DriveChange change = changeQ.poll( 2L, TimeUnit.SECONDS );
+        assertNotNull( change );
+        assertEquals( BlockDeviceMonitor.Kind.MOUNTED, change.kind() );
+        assertEquals( "sdb1", change.drive().getDeviceName() );
+        assertNull( changeQ.poll( 300L, TimeUnit.MILLISECONDS ) );
+        assertEquals( 2, readCnt.get() );
+    }
+
+    @DisplayName("Drives are compared by device name and not by order")
+    @Test
+    void diff() throws Exception {
+
+        driveL = List.of( mounted( "sdb", "sdb1" ), unmounted( "sdb", "sdb2" ) );
+        bdm.start();
+        changeQ.clear();
+
+        // same drives in other order
+        driveL = List.of( unmounted( "sdb", "sdb2" ), mounted( "sdb", "sdb1" ) );
+        assertTrue( bdm.refresh().isEmpty() );
+
+        driveL = List.of( unmounted( "sdb", "sdb1" ), unmounted( "sdc", "sdc1" ) );
+        List<BlockDeviceMonitor.DriveChange> changeL = bdm.refresh();
+
+        assertEquals( 3, changeL.size() );
+        assertEquals( BlockDeviceMonitor.Kind.UNMOUNTED, kindOf( changeL, "sdb1" ) );
+        assertEquals( BlockDeviceMonitor.Kind.ADDED, kindOf( changeL, "sdc1" ) );
+        assertEquals( BlockDeviceMonitor.Kind.REMOVED, kindOf( changeL, "sdb2" ) );
+    }
+
+    private static BlockDeviceMonitor.Kind kindOf( List<BlockDeviceMonitor.DriveChange> changeL, String device ) {
+        return changeL.stream().filter( c -> device.equals( c.drive().getDeviceName() ) ).findFirst().orElseThrow().kind();
+    }
+}
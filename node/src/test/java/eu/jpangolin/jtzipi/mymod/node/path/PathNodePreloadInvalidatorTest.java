@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.node.path;
+
+import eu.jpangolin.jtzipi.mymod.io.async.AbstractPreloadMemo;
+import eu.jpangolin.jtzipi.mymod.io.watcher.FileSystemWatcher;
+import eu.jpangolin.jtzipi.mymod.node.INode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Path Node Preload Invalidator Test.
+ * <p>
+ * The watcher is not started. We call the listener like the watcher does.
+ * </p>
+ *
+ * @author jTzipi
+ */
+class PathNodePreloadInvalidatorTest {
+
+    @TempDir
+    Path dir;
+    private ListingMemo memo;
+    private FileSystemWatcher fsw;
+    private RegularPathNode node;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.writeString( dir.resolve( "a.txt" ), "a" );
+        Files.createDirectory( dir.resolve( "sub" ) );
+        memo = new ListingMemo();
+        fsw = FileSystemWatcher.of( false, dir );
+        node = RegularPathNode.of( null, dir );
+        assertEquals( 2, memo.start( node ).get( 1L, TimeUnit.SECONDS ).size() );
+    }
+
+    @AfterEach
+    void tearDown() {
+        memo.stopNow();
+    }
+
+    private void createFile() throws IOException {
+        Files.writeString( dir.resolve( "b.txt" ), "b" );
+    }
+
+    @DisplayName("Evict mode removes the key and the next computation lists the directory again")
+    @Test
+    void evict() throws Exception {
+
+        PathNodePreloadInvalidator inv = PathNodePreloadInvalidator.attach( fsw, memo, PathNodePreloadInvalidator.Mode.EVICT );
+        createFile();
+        inv.onCreated( dir, dir.resolve( "b.txt" ), 1 );
+
+        assertFalse( memo.isMemoized( node ) );
+        assertEquals( 3, memo.start( node ).get( 1L, TimeUnit.SECONDS ).size() );
+    }
+
+    @DisplayName("Recompute mode lists the directory again in background")
+    @Test
+    void recompute() throws Exception {
+
+        PathNodePreloadInvalidator inv = PathNodePreloadInvalidator.attach( fsw, memo, PathNodePreloadInvalidator.Mode.RECOMPUTE );
+        createFile();
+        inv.onCreated( dir, dir.resolve( "b.txt" ), 1 );
+
+        assertTrue( memo.isMemoized( node ) );
+        assertEquals( 3, memo.get( node ).get( 1L, TimeUnit.SECONDS ).size() );
+    }
+
+    @DisplayName("A deleted directory is evicted and unknown directories are ignored")
+    @Test
+    void deleted() throws Exception {
+
+        RegularPathNode sub = RegularPathNode.of( node, dir.resolve( "sub" ) );
+        memo.start( sub ).get( 1L, TimeUnit.SECONDS );
+        PathNodePreloadInvalidator inv = PathNodePreloadInvalidator.attach( fsw, memo, PathNodePreloadInvalidator.Mode.RECOMPUTE );
+
+        inv.onModified( dir.resolve( "unknown" ), dir.resolve( "unknown/x" ), 1 );
+        Files.delete( dir.resolve( "sub" ) );
+        inv.onDeleted( dir, dir.resolve( "sub" ), 1 );
+
+        assertFalse( memo.isMemoized( sub ) );
+        assertEquals( 1, memo.get( node ).get( 1L, TimeUnit.SECONDS ).size() );
+    }
+
+    @DisplayName("A directory cached after attach is invalidated")
+    @Test
+    void cachedLater() throws Exception {
+
+        PathNodePreloadInvalidator inv = PathNodePreloadInvalidator.attach( fsw, memo, PathNodePreloadInvalidator.Mode.EVICT );
+        RegularPathNode sub = RegularPathNode.of( node, dir.resolve( "sub" ) );
+        assertFalse( inv.isWatched( sub.getValue() ) );
+        assertEquals( 0, memo.start( sub ).get( 1L, TimeUnit.SECONDS ).size() );
+        assertTrue( inv.isWatched( sub.getValue() ) );
+
+        Files.writeString( dir.resolve( "sub/c.txt" ), "c" );
+        inv.onCreated( sub.getValue(), dir.resolve( "sub/c.txt" ), 1 );
+
+        assertFalse( memo.isMemoized( sub ) );
+        assertEquals( 1, memo.start( sub ).get( 1L, TimeUnit.SECONDS ).size() );
+    }
+
+    @DisplayName("A directory is forgotten when its key is evicted")
+    @Test
+    void evictedForgotten() {
+
+        PathNodePreloadInvalidator inv = PathNodePreloadInvalidator.attach( fsw, memo, PathNodePreloadInvalidator.Mode.EVICT );
+        assertTrue( inv.isWatched( dir ) );
+
+        memo.remove( node );
+
+        assertFalse( inv.isWatched( dir ) );
+    }
+
+    @DisplayName("A detached invalidator does not register cached directories")
+    @Test
+    void detach() throws Exception {
+
+        PathNodePreloadInvalidator inv = PathNodePreloadInvalidator.attach( fsw, memo, PathNodePreloadInvalidator.Mode.EVICT );
+        inv.detach();
+        RegularPathNode sub = RegularPathNode.of( node, dir.resolve( "sub" ) );
+        memo.start( sub ).get( 1L, TimeUnit.SECONDS );
+
+        assertFalse( inv.isWatched( sub.getValue() ) );
+    }
+
+    /**
+     * Memo listing a directory like the path node preloader.
+     */
+    private static final class ListingMemo extends AbstractPreloadMemo<IPathNode, List<INode<Path>>> {
+
+        private ListingMemo() {
+            super( Executors.newSingleThreadExecutor() );
+        }
+
+        @Override
+        protected List<INode<Path>> compute( IPathNode arg ) {
+            return arg.getSubNodes();
+        }
+    }
+}
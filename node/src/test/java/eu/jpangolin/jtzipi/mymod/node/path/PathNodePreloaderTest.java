@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2022-2024. Tim Langhammer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package eu.jpangolin.jtzipi.mymod.node.path;
+
+import eu.jpangolin.jtzipi.mymod.node.INode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Path Node Preloader Test.
+ *
+ * @author jTzipi
+ */
+class PathNodePreloaderTest {
+
+    @TempDir
+    Path dir;
+    private final PathNodePreloader pre = PathNodePreloader.instance();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        for ( String sub : new String[]{ "a", "b", "c" } ) {
+            Path subDir = Files.createDirectory( dir.resolve( sub ) );
+            Files.writeString( subDir.resolve( sub + ".txt" ), sub );
+        }
+        pre.removeAll();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pre.cancelAllPrefetches();
+        pre.removeAll();
+    }
+
+    private static void awaitDone( PathNodePreloader.Prefetch prefetch ) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos( 5L );
+        while ( !prefetch.isDone() && System.nanoTime() < end ) {
+            TimeUnit.MILLISECONDS.sleep( 5L );
+        }
+        assertTrue( prefetch.isDone() );
+    }
+
+    @DisplayName("Bulk preload memoizes the sub nodes of all nodes")
+    @Test
+    void preloadAll() throws Exception {
+
+        RegularPathNode root = RegularPathNode.of( null, dir );
+        List<IPathNode> subL = root.getSubNodes().stream().map( IPathNode.class::cast ).toList();
+        assertEquals( 3, subL.size() );
+
+        PathNodePreloader.Prefetch prefetch = pre.preloadAll( subL );
+        awaitDone( prefetch );
+
+        assertEquals( 3, prefetch.getIssued() );
+        for ( IPathNode sub : subL ) {
+            assertTrue( pre.isMemoized( sub ) );
+            assertEquals( 1, pre.get( sub ).get( 1L, TimeUnit.SECONDS ).size() );
+        }
+    }
+
+    @DisplayName("Prefetch around an expanded node reads its sub directories")
+    @Test
+    void prefetchAround() throws Exception {
+
+        RegularPathNode root = RegularPathNode.of( null, dir );
+        PathNodePreloader.Prefetch prefetch = pre.prefetchAround( root, 1, PathNodePreloader.DEF_PREFETCH_NODES );
+        awaitDone( prefetch );
+
+        assertTrue( pre.isMemoized( root ) );
+        for ( INode<Path> sub : pre.get( root ).get( 1L, TimeUnit.SECONDS ) ) {
+            assertTrue( pre.isMemoized( ( IPathNode ) sub ) );
+        }
+    }
+
+    @DisplayName("Cancel all prefetches cancels bulk preloads")
+    @Test
+    void cancelAll() throws Exception {
+
+        CountDownLatch gate = new CountDownLatch( 1 );
+        pre.setMaxConcurrentReads( 1 );
+        try {
+            // the first read holds the only read budget until the gate opens
+            List<IPathNode> subL = List.of( new GatedPathNode( dir.resolve( "a" ), gate ),
+                    RegularPathNode.of( null, dir.resolve( "b" ) ),
+                    RegularPathNode.of( null, dir.resolve( "c" ) ) );
+            PathNodePreloader.Prefetch bulk = pre.preloadAll( subL );
+            pre.prefetchAround( RegularPathNode.of( null, dir ), 1, 1 );
+            assertFalse( bulk.isCancelled() );
+
+            pre.cancelAllPrefetches();
+            assertTrue( bulk.isCancelled() );
+            gate.countDown();
+            awaitDone( bulk );
+            assertEquals( 1, bulk.getIssued() );
+        } finally {
+            gate.countDown();
+            pre.setMaxConcurrentReads( PathNodePreloader.DEF_MAX_READS );
+        }
+    }
+
+    @DisplayName("A snapshot restores only directories not modified since listing")
+    @Test
+    void snapshot( @TempDir Path snapDir ) throws Exception {
+
+        Path file = snapDir.resolve( "preload.snap" );
+        RegularPathNode root = RegularPathNode.of( null, dir );
+        RegularPathNode a = RegularPathNode.of( root, dir.resolve( "a" ) );
+        RegularPathNode b = RegularPathNode.of( root, dir.resolve( "b" ) );
+        for ( IPathNode node : List.of( root, a, b ) ) {
+            pre.start( node ).get( 1L, TimeUnit.SECONDS );
+        }
+        assertEquals( 3, pre.writeSnapshot( file, pre.snapshotCodec() ) );
+        pre.removeAll();
+
+        // modify 'b' after the snapshot
+        Files.writeString( dir.resolve( "b" ).resolve( "new.txt" ), "new" );
+        FileTime mtime = Files.getLastModifiedTime( dir.resolve( "b" ) );
+        Files.setLastModifiedTime( dir.resolve( "b" ), FileTime.fromMillis( mtime.toMillis() + 5000L ) );
+
+        assertEquals( 2, pre.readSnapshot( file, pre.snapshotCodec() ) );
+        assertTrue( pre.isMemoized( root ) );
+        assertTrue( pre.isMemoized( a ) );
+        assertFalse( pre.isMemoized( b ) );
+        assertEquals( 3, pre.get( root ).get( 1L, TimeUnit.SECONDS ).size() );
+    }
+
+    @DisplayName("Memoized sub nodes are adopted by a node with the same path")
+    @Test
+    void adopt() {
+
+        RegularPathNode other = RegularPathNode.of( null, dir );
+        List<INode<Path>> memoL = other.getSubNodes();
+
+        RegularPathNode node = RegularPathNode.of( null, dir );
+        List<INode<Path>> subL = PathNodePreloader.adoptSubNodes( node, memoL );
+
+        assertEquals( memoL, subL );
+        assertTrue( node.isNodeSubListCreated() );
+        for ( INode<Path> sub : node.getSubNodes() ) {
+            assertSame( node, sub.getParent() );
+        }
+    }
+
+    /**
+     * Node waiting for a gate before listing.
+     */
+    private static final class GatedPathNode extends RegularPathNode {
+
+        private final CountDownLatch gate;
+
+        private GatedPathNode( Path path, CountDownLatch latch ) {
+            super( null, path );
+            this.gate = latch;
+            init();
+        }
+
+        @Override
+        public List<INode<Path>> getSubNodes( Predicate<? super Path> predicate ) {
+            try {
+                gate.await( 5L, TimeUnit.SECONDS );
+            } catch ( InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getSubNodes( predicate );
+        }
+    }
+}